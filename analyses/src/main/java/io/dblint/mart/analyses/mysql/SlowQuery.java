@@ -4,8 +4,10 @@ import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import io.dblint.mart.metricsink.mysql.QueryAttribute;
 import io.dblint.mart.metricsink.mysql.SchemaParser;
+import io.dblint.mart.sqlplanner.BatchRunner;
 import io.dblint.mart.sqlplanner.MySqlClassifier;
 import io.dblint.mart.sqlplanner.QanException;
+import io.dblint.mart.sqlplanner.planner.DigestCache;
 import io.dblint.mart.sqlplanner.planner.MartColumn;
 import io.dblint.mart.sqlplanner.planner.MartSchema;
 import io.dblint.mart.sqlplanner.planner.MartTable;
@@ -29,6 +31,7 @@ public class SlowQuery {
   SchemaPlus schema;
   MySqlClassifier classifier;
   Parser parser;
+  DigestCache digestCache;
   Counter numQueries;
   Counter parseExceptions;
 
@@ -44,6 +47,7 @@ public class SlowQuery {
     numQueries = registry.counter("io.dblint.slowQuery.numQueries");
     parseExceptions = registry.counter("io.dblint.slowQuery.parseExceptions");
     parser = null;
+    digestCache = null;
   }
 
   /**
@@ -55,6 +59,8 @@ public class SlowQuery {
     numQueries = registry.counter("io.dblint.slowQuery.numQueries");
     parseExceptions = registry.counter("io.dblint.slowQuery.parseExceptions");
     parser = new io.dblint.mart.sqlplanner.mysql.Parser();
+    digestCache = new DigestCache(parser);
+    digestCache.registerMetrics(registry, "io.dblint.slowQuery.digestCache");
   }
 
   private SchemaPlus createSchema(SchemaParser.Database database) throws QanException {
@@ -100,13 +106,23 @@ public class SlowQuery {
   public QueryAttribute analyze(String sql) throws SqlParseException {
     try {
       numQueries.inc();
-      return new QueryAttribute(
-          parser.digest(sql,
-              SqlDialect.DatabaseProduct.MYSQL.getDialect())
-      );
+      DigestCache.Digest digest = digestCache.digest(sql,
+          SqlDialect.DatabaseProduct.MYSQL.getDialect());
+      return new QueryAttribute(digest.digest, digest.digestHash);
     } catch (Exception exc) {
       parseExceptions.inc();
       throw exc;
     }
   }
+
+  /**
+   * Analyze SQL statements on the threads of a runner. A SlowQuery can be shared by threads.
+   * @param sqls Strings containing SQL statements
+   * @param runner Runner of the batch
+   * @return QueryAttribute or the exception of every statement in the order of the statements
+   */
+  public List<BatchRunner.Outcome<QueryAttribute>> analyzeAll(List<String> sqls,
+                                                             BatchRunner runner) {
+    return runner.runAll(sqls, () -> this::analyze);
+  }
 }
@@ -2,7 +2,9 @@ package io.dblint.mart.analyses.redshift;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Throwables;
 import io.dblint.mart.metricsink.redshift.UserQuery;
+import io.dblint.mart.sqlplanner.BatchRunner;
 import io.dblint.mart.sqlplanner.redshift.QueryClasses;
 import io.dblint.mart.sqlplanner.redshift.RedshiftClassifier;
 import org.apache.calcite.sql.parser.SqlParseException;
@@ -42,8 +44,13 @@ class Etl {
   private Counter numSelectInto;
 
   private RedshiftClassifier classifier;
+  private BatchRunner runner;
 
   Etl(MetricRegistry registry) {
+    this(registry, new BatchRunner());
+  }
+
+  Etl(MetricRegistry registry, BatchRunner runner) {
     numQueries = registry.counter("io.dblint.Etl.numQueries");
     numParsed = registry.counter("io.dblint.Etl.numParsed");
     numInserts = registry.counter("io.dblint.Etl.numInserts");
@@ -55,6 +62,7 @@ class Etl {
     numSelectInto = registry.counter("io.dblint.Etl.numSelectInto");
 
     classifier = new RedshiftClassifier();
+    this.runner = runner;
   }
 
   Result analyze(List<UserQuery> userQueries) {
@@ -94,10 +102,16 @@ class Etl {
   }
 
   List<QueryInfo> parse(List<UserQuery> queries) {
+    List<String> sqls = new ArrayList<>(queries.size());
+    queries.forEach(query -> sqls.add(query.query));
+    List<BatchRunner.Outcome<QueryClasses>> outcomes = runner.classifyAll(classifier, sqls);
+
     List<QueryInfo> queryInfos = new ArrayList<>();
-    queries.forEach((query) -> {
-      try {
-        QueryClasses classes = classifier.classify(query.query);
+    for (int i = 0; i < queries.size(); i++) {
+      UserQuery query = queries.get(i);
+      BatchRunner.Outcome<QueryClasses> outcome = outcomes.get(i);
+      if (outcome.isSuccess()) {
+        QueryClasses classes = outcome.getResult();
         numParsed.inc();
 
         if (classes.maintenanceContext.isPassed()) {
@@ -133,12 +147,15 @@ class Etl {
           logger.debug("Select into for " + classes.selectIntoContext.getTargetTable());
           queryInfos.add(new QueryInfo(query, classes));
         }
-      } catch (SqlParseException exception) {
+      } else if (outcome.getFailure() instanceof SqlParseException) {
         logger.warn(query.query);
-        logger.warn(exception.getMessage());
+        logger.warn(outcome.getFailure().getMessage());
         logger.warn("~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~");
+      } else {
+        Throwables.throwIfUnchecked(outcome.getFailure());
+        throw new IllegalStateException(outcome.getFailure());
       }
-    });
+    }
     return queryInfos;
   }
 }
@@ -0,0 +1,238 @@
+package io.dblint.mart.metricsink.mysql;
+
+import io.dblint.mart.metricsink.util.MetricAgentException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+/**
+ * Parses one slow query log on many threads. The file is split into byte ranges that start at a
+ * "# Time:" line. Ranges are parsed on a ForkJoinPool and the queries are passed to the
+ * consumer in file order, so the result is the same as {@link SlowQueryLogParser#parseLog}.
+ *
+ * <p>Ranges only start at "# Time:" lines because the sequential parser only reaches a
+ * "# User@Host:" line from a time section. A "# Time:" line that follows a SET statement is
+ * not used, since the sequential parser reads it as the text of a query.
+ *
+ * <p>With an {@link ExtendedSlowQueryLogParser} the ranges are split at the same lines and
+ * every range is parsed by it.
+ */
+public class ChunkedSlowQueryLogParser {
+  private static Logger logger = LoggerFactory.getLogger(ChunkedSlowQueryLogParser.class);
+
+  static final long MIN_CHUNK_SIZE = 1024 * 1024;
+  static final long MAX_CHUNK_SIZE = 32 * 1024 * 1024;
+
+  private final ForkJoinPool pool;
+  private final long minChunkSize;
+  private final ExtendedSlowQueryLogParser extendedParser;
+
+  public ChunkedSlowQueryLogParser(ForkJoinPool pool) {
+    this(pool, MIN_CHUNK_SIZE, null);
+  }
+
+  public ChunkedSlowQueryLogParser(ForkJoinPool pool, ExtendedSlowQueryLogParser extendedParser) {
+    this(pool, MIN_CHUNK_SIZE, extendedParser);
+  }
+
+  ChunkedSlowQueryLogParser(ForkJoinPool pool, long minChunkSize,
+                            ExtendedSlowQueryLogParser extendedParser) {
+    this.pool = pool;
+    this.minChunkSize = minChunkSize;
+    this.extendedParser = extendedParser;
+  }
+
+  /**
+   * Find the offsets at which the file is split. The first offset is always 0 and the range
+   * that starts there includes the file header.
+   * @param path Path of the slow query log
+   * @param chunkSize Preferred size of a range in bytes
+   * @return Start offsets of the ranges in ascending order
+   * @throws IOException An exception is thrown if the log file cannot be read successfully
+   */
+  static List<Long> boundaries(Path path, long chunkSize) throws IOException {
+    return boundaries(path, 0, chunkSize);
+  }
+
+  /**
+   * Find the offsets at which the part of a file after an offset is split.
+   * @param path Path of the slow query log
+   * @param from 0, or the offset of a "# Time:" line to start at
+   * @param chunkSize Preferred size of a range in bytes
+   * @return Start offsets of the ranges in ascending order. The first offset is from.
+   * @throws IOException An exception is thrown if the log file cannot be read successfully
+   */
+  static List<Long> boundaries(Path path, long from, long chunkSize) throws IOException {
+    List<Long> boundaries = new ArrayList<>();
+    boundaries.add(from);
+    try (MappedLogReader reader = new MappedLogReader(path, from, -1)) {
+      for (int i = 0; i < 3 && from == 0 && reader.ready(); i++) {
+        reader.readLineSequence();
+      }
+      long headerEnd = reader.getPosition();
+      long size = Files.size(path);
+
+      long target = headerEnd + chunkSize;
+      while (target < size) {
+        long boundary = nextBoundary(reader, target);
+        if (boundary < 0) {
+          break;
+        }
+        boundaries.add(boundary);
+        target = boundary + chunkSize;
+      }
+    }
+    return boundaries;
+  }
+
+  private static long nextBoundary(MappedLogReader reader, long offset) throws IOException {
+    reader.seek(offset - 1);
+    // Skip the rest of the line that contains offset - 1. The line after it is not a
+    // boundary either since the line before it is not known.
+    reader.readLineSequence();
+    CharSequence line = reader.readLineSequence();
+    while (line != null) {
+      boolean afterSet = SlowLogScanner.scanSetTimestamp(line) >= 0;
+      long lineStart = reader.getPosition();
+      line = reader.readLineSequence();
+      if (line != null && !afterSet && SlowQueryLogParser.newSection(line)) {
+        return lineStart;
+      }
+    }
+    return -1;
+  }
+
+  private static class ChunkTask extends RecursiveTask<List<UserQuery>> {
+    private final Path path;
+    private final long start;
+    private final long end;
+    private final ExtendedSlowQueryLogParser extendedParser;
+    private final TimeWindow window;
+    private Exception failure;
+
+    ChunkTask(Path path, long start, long end, ExtendedSlowQueryLogParser extendedParser,
+              TimeWindow window) {
+      this.path = path;
+      this.start = start;
+      this.end = end;
+      this.extendedParser = extendedParser;
+      this.window = window;
+    }
+
+    @Override
+    protected List<UserQuery> compute() {
+      List<UserQuery> userQueries = new ArrayList<>();
+      try (MappedLogReader reader = new MappedLogReader(path, start, end)) {
+        if (extendedParser != null) {
+          extendedParser.parseLog(reader, window, userQueries::add);
+        } else if (start == 0) {
+          SlowQueryLogParser.parseLog(reader, window, userQueries::add);
+        } else {
+          SlowQueryLogParser.parseSections(reader, window, userQueries::add);
+        }
+      } catch (IOException | MetricAgentException exc) {
+        failure = exc;
+      }
+      return userQueries;
+    }
+  }
+
+  /**
+   * Parse a slow query log and pass every query to a consumer. The consumer is called on the
+   * calling thread, in file order. At most twice as many ranges as the pool has threads are
+   * parsed ahead of the consumer.
+   * @param path Path of the slow query log
+   * @param consumer Receives queries in the order they appear in the log file
+   * @throws IOException An exception is thrown if the log file cannot be read successfully
+   * @throws MetricAgentException Thrown for the first range, in file order, that fails to parse
+   */
+  public void parseLog(Path path, Consumer<UserQuery> consumer)
+      throws IOException, MetricAgentException {
+    parseLog(path, TimeWindow.ALL, consumer);
+  }
+
+  /**
+   * Parse the queries of a slow query log that are in a window of time. Every range skips the
+   * sections outside the window on its own. If the window has a maximum query duration, the
+   * ranges after it stop at their first section.
+   * @param path Path of the slow query log
+   * @param window Queries outside of this window are dropped
+   * @param consumer Receives queries in the order they appear in the log file
+   * @throws IOException An exception is thrown if the log file cannot be read successfully
+   * @throws MetricAgentException Thrown for the first range, in file order, that fails to parse
+   */
+  public void parseLog(Path path, TimeWindow window, Consumer<UserQuery> consumer)
+      throws IOException, MetricAgentException {
+    parseLog(path, 0, window, consumer);
+  }
+
+  /**
+   * Parse the queries of a slow query log from an offset, such as one found by a
+   * {@link LogSeeker}.
+   * @param path Path of the slow query log
+   * @param from 0, or the offset of a "# Time:" line to start at
+   * @param window Queries outside of this window are dropped
+   * @param consumer Receives queries in the order they appear in the log file
+   * @throws IOException An exception is thrown if the log file cannot be read successfully
+   * @throws MetricAgentException Thrown for the first range, in file order, that fails to parse
+   */
+  public void parseLog(Path path, long from, TimeWindow window, Consumer<UserQuery> consumer)
+      throws IOException, MetricAgentException {
+    long size = Files.size(path);
+    long chunkSize = Math.min(MAX_CHUNK_SIZE,
+        Math.max(minChunkSize, (size - from) / (pool.getParallelism() * 4L)));
+    List<Long> boundaries = boundaries(path, from, chunkSize);
+    logger.debug("Parsing " + path + " in " + boundaries.size() + " ranges");
+
+    Deque<ChunkTask> inFlight = new ArrayDeque<>();
+    int next = 0;
+    try {
+      while (next < boundaries.size() || !inFlight.isEmpty()) {
+        while (next < boundaries.size() && inFlight.size() < pool.getParallelism() * 2) {
+          final long start = boundaries.get(next);
+          final long end = next + 1 < boundaries.size() ? boundaries.get(next + 1) : size;
+          ChunkTask task = new ChunkTask(path, start, end, extendedParser, window);
+          pool.execute(task);
+          inFlight.addLast(task);
+          next++;
+        }
+        join(inFlight.removeFirst()).forEach(consumer);
+      }
+    } finally {
+      inFlight.forEach(task -> task.cancel(true));
+    }
+  }
+
+  private List<UserQuery> join(ChunkTask task) throws IOException, MetricAgentException {
+    List<UserQuery> userQueries;
+    try {
+      userQueries = task.get();
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+      throw new MetricAgentException(exc);
+    } catch (ExecutionException exc) {
+      if (exc.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) exc.getCause();
+      }
+      throw new MetricAgentException(exc.getCause());
+    }
+
+    if (task.failure instanceof IOException) {
+      throw (IOException) task.failure;
+    } else if (task.failure != null) {
+      throw (MetricAgentException) task.failure;
+    }
+    return userQueries;
+  }
+}
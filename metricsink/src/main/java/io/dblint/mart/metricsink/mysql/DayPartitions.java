@@ -0,0 +1,160 @@
+package io.dblint.mart.metricsink.mysql;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dblint.mart.metricsink.util.PoolSettings;
+import org.flywaydb.core.Flyway;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A directory of SQLite databases with one database for every day of log time. A database is
+ * named yyyy-MM-dd.sqlite and has the same tables as a {@link Sink}. Queries over a range of
+ * time only open the databases of the days in the range.
+ *
+ * <p>Every open partition has a connection pool with a thread of its own, so only a few of
+ * them are kept open. Callers walk the days in order, and the partition that was used least
+ * recently is closed when another one is opened.
+ */
+public class DayPartitions {
+  private static final String SUFFIX = ".sqlite";
+
+  // Most partitions are idle, so their connections are closed after the idle timeout.
+  private static final PoolSettings partitionPool = new PoolSettings(2, 0, 10000, 5000, 30000);
+  public static final int DEFAULT_MAX_OPEN_PARTITIONS = 4;
+
+  private final Path directory;
+  private final MetricRegistry metricRegistry;
+  private final Map<LocalDate, Sink> sinks;
+
+  public DayPartitions(Path directory, MetricRegistry metricRegistry) {
+    this(directory, metricRegistry, DEFAULT_MAX_OPEN_PARTITIONS);
+  }
+
+  /**
+   * Create partitions in a directory.
+   * @param directory Directory of the databases
+   * @param metricRegistry Registry of the metrics of the connection pools
+   * @param maxOpenPartitions Number of partitions that are kept open
+   */
+  public DayPartitions(Path directory, MetricRegistry metricRegistry, int maxOpenPartitions) {
+    this.directory = directory;
+    this.metricRegistry = metricRegistry;
+    this.sinks = new LinkedHashMap<LocalDate, Sink>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<LocalDate, Sink> eldest) {
+        if (size() > Math.max(maxOpenPartitions, 1)) {
+          eldest.getValue().shutdown();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Get the day of a log time. The day is taken at the offset that {@link Logged} stores log
+   * times at, so that every row of a partition is in the day of the partition.
+   * @param logTime Log time of an entry
+   * @return Day of the partition of the entry
+   */
+  public static LocalDate dayOf(ZonedDateTime logTime) {
+    return logTime.withZoneSameInstant(ZoneOffset.ofHoursMinutes(5, 30)).toLocalDate();
+  }
+
+  Path path(LocalDate day) {
+    return directory.resolve(day + SUFFIX);
+  }
+
+  /**
+   * Get the sink of a day. The database of the day is created if it does not exist. The sink
+   * may be closed when other partitions are opened, so it should not be kept.
+   * @param day Day of log time
+   * @return Sink that stores the rows of the day
+   * @throws IOException An exception is thrown if the directory cannot be created
+   */
+  public synchronized Sink partition(LocalDate day) throws IOException {
+    Sink sink = sinks.get(day);
+    if (sink == null) {
+      Files.createDirectories(directory);
+      sink = new Sink("jdbc:sqlite:" + path(day), "", "", metricRegistry, new Flyway(),
+          partitionPool, "inviscid.partition." + day);
+      sink.initialize();
+      sinks.put(day, sink);
+    }
+    return sink;
+  }
+
+  synchronized int openPartitions() {
+    return sinks.size();
+  }
+
+  /**
+   * Get the days between two days that have a database.
+   * @param first First day of the range
+   * @param last Last day of the range
+   * @return Sorted list of days
+   * @throws IOException An exception is thrown if the directory cannot be read
+   */
+  public List<LocalDate> days(LocalDate first, LocalDate last) throws IOException {
+    List<LocalDate> days = new ArrayList<>();
+    if (!Files.isDirectory(directory)) {
+      return days;
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path path : stream) {
+        String name = path.getFileName().toString();
+        try {
+          LocalDate day = LocalDate.parse(name.substring(0, name.length() - SUFFIX.length()));
+          if (!day.isBefore(first) && !day.isAfter(last)) {
+            days.add(day);
+          }
+        } catch (DateTimeParseException exc) {
+          // Not a partition.
+        }
+      }
+    }
+    Collections.sort(days);
+    return days;
+  }
+
+  /**
+   * Get user queries without a digest in a range of log time from the partitions of the range.
+   * @param start Start time of range
+   * @param end End time of range
+   * @return List of UserQuery in the order of the days
+   * @throws IOException An exception is thrown if the directory cannot be read
+   */
+  public List<UserQuery> selectUserQueries(LocalDateTime start, LocalDateTime end)
+      throws IOException {
+    List<UserQuery> queries = new ArrayList<>();
+    for (LocalDate day : days(start.toLocalDate(), end.toLocalDate())) {
+      queries.addAll(partition(day).selectUserQueries(start, end));
+    }
+    return queries;
+  }
+
+  /**
+   * Close the connection pools of the partitions that are open.
+   */
+  public synchronized void shutdown() {
+    sinks.values().forEach(Sink::shutdown);
+    sinks.clear();
+  }
+}
@@ -11,6 +11,7 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -21,12 +22,29 @@ public class ErrorLogParser {
 
   private static DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd kk:mm:ss");
 
-  static ZonedDateTime getTime(String line) {
-    return ZonedDateTime.of(LocalDateTime.parse(line.substring(0, 19), dateFormat),
+  static ZonedDateTime getTime(CharSequence line) {
+    return ZonedDateTime.of(LocalDateTime.parse(line.subSequence(0, 19), dateFormat),
         ZoneOffset.ofHoursMinutes(5, 30));
   }
 
-  static boolean newDeadlockSection(String line) {
+  /**
+   * Check if a line starts with a date, as every line written by the server does.
+   * @param line Line to check
+   * @return true if the line starts with yyyy-MM-dd
+   */
+  static boolean startsWithTime(CharSequence line) {
+    if (line.length() < 10 || line.charAt(4) != '-' || line.charAt(7) != '-') {
+      return false;
+    }
+    for (int i : new int[] {0, 1, 2, 3, 5, 6, 8, 9}) {
+      if (line.charAt(i) < '0' || line.charAt(i) > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static boolean newDeadlockSection(CharSequence line) {
     return deadlockStart.matcher(line).find();
   }
 
@@ -54,11 +72,11 @@ public class ErrorLogParser {
   );
 
   static boolean parseRecordLock(RewindBufferedReader bufferedReader) throws IOException {
-    String line = bufferedReader.readLine();
+    CharSequence line = bufferedReader.readLineSequence();
     if (line != null && recordLock.matcher(line).find()) {
       logger.debug("Found Record Lock");
-      while (bufferedReader.ready() && line != null && !line.isEmpty()) {
-        line = bufferedReader.readLine();
+      while (bufferedReader.ready() && line != null && line.length() > 0) {
+        line = bufferedReader.readLineSequence();
       }
       return true;
     }
@@ -161,13 +179,46 @@ public class ErrorLogParser {
   public static List<Deadlock> parse(RewindBufferedReader bufferedReader)
       throws IOException, MetricAgentException {
     List<Deadlock> deadlocks = new ArrayList<>();
+    parse(bufferedReader, deadlocks::add);
+    return deadlocks;
+  }
+
+  /**
+   * Parse a MySQL error log and pass each deadlock to a consumer as soon as it is parsed.
+   * @param bufferedReader Reader for the error log
+   * @param consumer Receives deadlocks in the order they appear in the error log
+   * @throws IOException Exceptions w.r.t log IO
+   */
+  public static void parse(RewindBufferedReader bufferedReader, Consumer<Deadlock> consumer)
+      throws IOException, MetricAgentException {
+    parse(bufferedReader, TimeWindow.ALL, consumer);
+  }
+
+  /**
+   * Parse the deadlocks of a MySQL error log that are in a window of time. The lines of a
+   * deadlock outside the window are skipped without being parsed.
+   * @param bufferedReader Reader for the error log
+   * @param window Deadlocks outside of this window are skipped
+   * @param consumer Receives deadlocks in the order they appear in the error log
+   * @throws IOException Exceptions w.r.t log IO
+   */
+  public static void parse(RewindBufferedReader bufferedReader, TimeWindow window,
+                           Consumer<Deadlock> consumer)
+      throws IOException, MetricAgentException {
     while (bufferedReader.ready()) {
-      String line = bufferedReader.readLine();
+      CharSequence line = bufferedReader.readLineSequence();
+      if (line == null) {
+        break;
+      }
       if (newDeadlockSection(line)) {
-        deadlocks.add(parseDeadlock(bufferedReader, getTime(line)));
+        ZonedDateTime time = getTime(line);
+        if (window.isDone(time)) {
+          logger.debug("Passed the end of the window at line: " + bufferedReader.getLineNumber());
+          return;
+        } else if (window.contains(time)) {
+          consumer.accept(parseDeadlock(bufferedReader, time));
+        }
       }
     }
-
-    return deadlocks;
   }
 }
@@ -0,0 +1,415 @@
+package io.dblint.mart.metricsink.mysql;
+
+import io.dblint.mart.metricsink.util.MetricAgentException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Parses slow query logs written by Percona Server and by MySQL 8 with log_slow_extra.
+ * Unlike {@link SlowQueryLogParser}, every "# Key: value" line of an entry is read into an
+ * {@link ExtendedUserQuery} and the query text is read up to the next entry, so statements
+ * that span many lines are kept whole.
+ *
+ * <p>Query text is capped at a maximum length. Text beyond it is skipped without being
+ * decoded, the query ends with {@link #TRUNCATION_MARKER} and is flagged as truncated.
+ *
+ * <p>A parser only holds its settings and can be shared by threads.
+ */
+public class ExtendedSlowQueryLogParser {
+  private static Logger logger = LoggerFactory.getLogger(ExtendedSlowQueryLogParser.class);
+
+  public static final int DEFAULT_MAX_QUERY_LENGTH = 1024 * 1024;
+  public static final String TRUNCATION_MARKER = " /* truncated */";
+
+  private static final ZoneId UTC = ZoneId.of("UTC");
+  private static final String INDEX_NOT_USED_MESSAGE = "index not used";
+  private static final String TIME = "# Time:";
+  private static final String USER_HOST = "# User@Host:";
+  private static final String SERVER_HEADER = "started with:";
+  // Entry boundaries are short lines, so only the start of a line of query text is looked at
+  private static final int BOUNDARY_LENGTH = 1024;
+  private static final String ID = "Id:";
+  private static final String SET_TIMESTAMP = "SET timestamp=";
+
+  private final int maxQueryLength;
+
+  public ExtendedSlowQueryLogParser() {
+    this(DEFAULT_MAX_QUERY_LENGTH);
+  }
+
+  public ExtendedSlowQueryLogParser(int maxQueryLength) {
+    this.maxQueryLength = maxQueryLength;
+  }
+
+  public int getMaxQueryLength() {
+    return maxQueryLength;
+  }
+
+  static boolean isEntryBoundary(CharSequence line) {
+    return SlowLogScanner.startsWith(line, 0, TIME)
+        || SlowLogScanner.startsWith(line, 0, USER_HOST)
+        || SlowLogScanner.startsWith(line, line.length() - SERVER_HEADER.length(), SERVER_HEADER);
+  }
+
+  /*
+   * Check the start of a line that was peeked with at most BOUNDARY_LENGTH + 1 chars. The end
+   * of a line is only known if the line is not longer than BOUNDARY_LENGTH.
+   */
+  private static boolean startsEntryBoundary(CharSequence start) {
+    if (start.length() <= BOUNDARY_LENGTH) {
+      return isEntryBoundary(start);
+    }
+    return SlowLogScanner.startsWith(start, 0, TIME)
+        || SlowLogScanner.startsWith(start, 0, USER_HOST);
+  }
+
+  /**
+   * Parse the time of a "# Time:" line in the ISO 8601 format of MySQL 5.7 and later.
+   * @param line A "# Time:" line
+   * @return the time or null if it is in the older format that has no time zone
+   */
+  static ZonedDateTime parseSectionTime(CharSequence line) {
+    String time = line.subSequence(TIME.length(), line.length()).toString().trim();
+    try {
+      return ZonedDateTime.ofInstant(Instant.parse(time), UTC);
+    } catch (DateTimeParseException exc) {
+      return null;
+    }
+  }
+
+  /**
+   * Parse a "# User@Host:" line. The host name may appear outside the brackets and the
+   * connection id is optional.
+   * @param line A "# User@Host:" line
+   * @param userQuery Receives user, host, ip address and connection id
+   * @return false if the line does not have a user and a host
+   */
+  static boolean parseUserHost(CharSequence line, ExtendedUserQuery userQuery) {
+    int userStart = skipWhitespace(line, USER_HOST.length());
+    int userEnd = -1;
+    for (int i = userStart; i < line.length() && userEnd < 0; i++) {
+      if (line.charAt(i) == ']') {
+        int at = skipWhitespace(line, i + 1);
+        if (at < line.length() && line.charAt(at) == '@') {
+          userEnd = i + 1;
+        }
+      }
+    }
+    if (userEnd < 0) {
+      return false;
+    }
+
+    int hostStart = skipWhitespace(line, SlowLogScanner.indexOf(line, "@", userEnd) + 1);
+    int bracket = SlowLogScanner.indexOf(line, "[", hostStart);
+    int hostEnd = bracket < 0 ? skipToken(line, hostStart) : bracket;
+    String host = line.subSequence(hostStart, hostEnd).toString().trim();
+    String ipAddress = "";
+    int pos = hostEnd;
+    if (bracket >= 0) {
+      int close = SlowLogScanner.indexOf(line, "]", bracket);
+      if (close < 0) {
+        return false;
+      }
+      ipAddress = line.subSequence(bracket + 1, close).toString().trim();
+      pos = close + 1;
+    }
+
+    userQuery.setUserHost(line.subSequence(userStart, userEnd).toString());
+    userQuery.setHost(host);
+    userQuery.setIpAddress(ipAddress.isEmpty() ? host : ipAddress);
+    int id = SlowLogScanner.indexOf(line, ID, pos);
+    if (id >= 0) {
+      int idStart = skipWhitespace(line, id + ID.length());
+      int idEnd = skipToken(line, idStart);
+      if (idEnd > idStart) {
+        userQuery.setConnectionId(line.subSequence(idStart, idEnd).toString());
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Read the "Key: value" pairs of a comment line. A key that is directly followed by another
+   * key has an empty value.
+   * @param line A comment line of an entry
+   * @param userQuery Receives the fields
+   */
+  static void parseFields(CharSequence line, ExtendedUserQuery userQuery) {
+    String key = null;
+    int pos = 1;
+    while (true) {
+      pos = skipWhitespace(line, pos);
+      if (pos >= line.length()) {
+        break;
+      }
+      int end = skipToken(line, pos);
+      if (line.charAt(end - 1) == ':') {
+        if (key != null) {
+          setField(userQuery, key, "");
+        }
+        key = line.subSequence(pos, end - 1).toString();
+      } else if (key != null) {
+        setField(userQuery, key, line.subSequence(pos, end).toString());
+        key = null;
+      }
+      pos = end;
+    }
+    if (key != null) {
+      setField(userQuery, key, "");
+    }
+  }
+
+  static void setField(ExtendedUserQuery userQuery, String key, String value) {
+    try {
+      switch (key) {
+        case "Query_time":
+          userQuery.setQueryTime(Double.valueOf(value));
+          break;
+        case "Lock_time":
+          userQuery.setLockTime(Double.valueOf(value));
+          break;
+        case "Rows_sent":
+          userQuery.setRowsSent(Long.parseLong(value));
+          break;
+        case "Rows_examined":
+          userQuery.setRowsExamined(Long.parseLong(value));
+          break;
+        case "Rows_affected":
+          userQuery.setRowsAffected(Long.valueOf(value));
+          break;
+        case "Thread_id":
+          userQuery.setThreadId(Long.valueOf(value));
+          break;
+        case "Schema":
+          userQuery.setSchema(value.isEmpty() ? null : value);
+          break;
+        case "Last_errno":
+        case "Errno":
+          userQuery.setLastErrno(Long.valueOf(value));
+          break;
+        case "Killed":
+          userQuery.setKilled(Long.valueOf(value));
+          break;
+        case "Bytes_sent":
+          userQuery.setBytesSent(Long.valueOf(value));
+          break;
+        case "Tmp_tables":
+        case "Created_tmp_tables":
+          userQuery.setTmpTables(Long.valueOf(value));
+          break;
+        case "Tmp_disk_tables":
+        case "Created_tmp_disk_tables":
+          userQuery.setTmpDiskTables(Long.valueOf(value));
+          break;
+        case "Full_scan":
+          userQuery.setFullScan(parseYesNo(value));
+          break;
+        case "Filesort":
+          userQuery.setFilesort(parseYesNo(value));
+          break;
+        case "Filesort_on_disk":
+          userQuery.setFilesortOnDisk(parseYesNo(value));
+          break;
+        case "InnoDB_IO_r_ops":
+          userQuery.setInnodbIoReadOps(Long.valueOf(value));
+          break;
+        case "InnoDB_IO_r_bytes":
+          userQuery.setInnodbIoReadBytes(Long.valueOf(value));
+          break;
+        case "InnoDB_IO_r_wait":
+          userQuery.setInnodbIoReadWait(Double.valueOf(value));
+          break;
+        case "InnoDB_rec_lock_wait":
+          userQuery.setInnodbRecLockWait(Double.valueOf(value));
+          break;
+        case "InnoDB_queue_wait":
+          userQuery.setInnodbQueueWait(Double.valueOf(value));
+          break;
+        case "InnoDB_pages_distinct":
+          userQuery.setInnodbPagesDistinct(Long.valueOf(value));
+          break;
+        default:
+          userQuery.getExtraFields().put(key, value);
+      }
+    } catch (NumberFormatException exc) {
+      userQuery.getExtraFields().put(key, value);
+    }
+  }
+
+  private static Boolean parseYesNo(String value) {
+    if (value.equalsIgnoreCase("Yes")) {
+      return Boolean.TRUE;
+    } else if (value.equalsIgnoreCase("No")) {
+      return Boolean.FALSE;
+    }
+    throw new NumberFormatException("Not Yes or No: " + value);
+  }
+
+  private static int skipWhitespace(CharSequence line, int pos) {
+    while (pos < line.length() && SlowLogScanner.isWhitespace(line.charAt(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static int skipToken(CharSequence line, int pos) {
+    while (pos < line.length() && !SlowLogScanner.isWhitespace(line.charAt(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  /*
+   * Read the query text up to the next entry boundary. Lines are joined with '\n' and only
+   * the part that fits in maxQueryLength is read into the heap.
+   */
+  private void parseQueryText(RewindBufferedReader reader, ExtendedUserQuery userQuery)
+      throws IOException {
+    StringBuilder text = new StringBuilder();
+    boolean truncated = false;
+    boolean first = true;
+    CharSequence start = reader.peekLine(BOUNDARY_LENGTH + 1);
+    while (start != null && !startsEntryBoundary(start)) {
+      if (!first) {
+        if (text.length() < maxQueryLength) {
+          text.append('\n');
+        } else {
+          truncated = true;
+        }
+      }
+      int room = maxQueryLength - text.length();
+      if (reader.appendLine(text, room) > room) {
+        truncated = true;
+      }
+      first = false;
+      start = reader.peekLine(BOUNDARY_LENGTH + 1);
+    }
+
+    int end = text.length();
+    while (end > 0 && SlowLogScanner.isWhitespace(text.charAt(end - 1))) {
+      end--;
+    }
+    text.setLength(end);
+    String query = SlowLogScanner.removeComments(text.toString());
+    userQuery.setTruncated(truncated);
+    userQuery.setQuery(truncated ? query + TRUNCATION_MARKER : query);
+  }
+
+  private ExtendedUserQuery parseEntry(RewindBufferedReader reader, ZonedDateTime sectionTime)
+      throws IOException, MetricAgentException {
+    ExtendedUserQuery userQuery = new ExtendedUserQuery();
+    CharSequence line = SlowQueryLogParser.readLineSequenceOrThrow(reader);
+    if (!parseUserHost(line, userQuery)) {
+      throw new MetricAgentException("Line (" + reader.getLineNumber() + ") "
+          + "did not match User Header pattern: '" + line + "'");
+    }
+
+    line = reader.readLineSequence();
+    while (line != null && line.length() > 0 && line.charAt(0) == '#'
+        && !isEntryBoundary(line)) {
+      parseFields(line, userQuery);
+      line = reader.readLineSequence();
+    }
+
+    while (line != null && SlowLogScanner.isUseStatement(line)) {
+      if (userQuery.getSchema() == null) {
+        String use = line.toString();
+        userQuery.setSchema(use.substring(4, use.lastIndexOf(';')).trim());
+      }
+      line = reader.readLineSequence();
+    }
+
+    if (line != null && SlowLogScanner.startsWith(line, 0, SET_TIMESTAMP)
+        && SlowLogScanner.scanSetTimestamp(line) >= 0) {
+      userQuery.setZonedLogTime(ZonedDateTime.ofInstant(
+          Instant.ofEpochSecond(SlowLogScanner.scanSetTimestamp(line)), UTC));
+    } else {
+      if (line != null) {
+        reader.rewind(line);
+      }
+      if (sectionTime == null) {
+        throw new MetricAgentException("Line (" + reader.getLineNumber() + ") "
+            + "has no SET timestamp statement and no time section");
+      }
+      userQuery.setZonedLogTime(sectionTime);
+    }
+
+    if (userQuery.getConnectionId() == null && userQuery.getThreadId() != null) {
+      userQuery.setConnectionId(userQuery.getThreadId().toString());
+    }
+    parseQueryText(reader, userQuery);
+    return userQuery;
+  }
+
+  /**
+   * Parses a slow query log and returns a list of queries.
+   * @param reader Reader of the slow query log file
+   * @return A list of queries in the log file
+   * @throws IOException An exception is thrown if the log file cannot be read successfully
+   */
+  public List<ExtendedUserQuery> parseLog(RewindBufferedReader reader)
+      throws IOException, MetricAgentException {
+    List<ExtendedUserQuery> userQueries = new ArrayList<>();
+    parseLog(reader, userQueries::add);
+    return userQueries;
+  }
+
+  /**
+   * Parses a slow query log and passes every query to a consumer as soon as it is parsed.
+   * Server headers and lines outside an entry are skipped, so the reader may start anywhere
+   * at the start of a line.
+   * @param reader Reader of the slow query log file
+   * @param consumer Receives queries in the order they appear in the log file
+   * @throws IOException An exception is thrown if the log file cannot be read successfully
+   */
+  public void parseLog(RewindBufferedReader reader, Consumer<? super ExtendedUserQuery> consumer)
+      throws IOException, MetricAgentException {
+    parseLog(reader, TimeWindow.ALL, consumer);
+  }
+
+  /**
+   * Parses the queries of a slow query log that are in a window of time. Entries of a
+   * "# Time:" section that ends before the window are skipped without being parsed. A section
+   * is written when its queries end, so parsing only stops at a header that is the maximum query
+   * duration of the window after its end.
+   * @param reader Reader of the slow query log file
+   * @param window Queries outside of this window are dropped
+   * @param consumer Receives queries in the order they appear in the log file
+   * @throws IOException An exception is thrown if the log file cannot be read successfully
+   */
+  public void parseLog(RewindBufferedReader reader, TimeWindow window,
+                       Consumer<? super ExtendedUserQuery> consumer)
+      throws IOException, MetricAgentException {
+    ZonedDateTime sectionTime = null;
+    while (reader.ready()) {
+      CharSequence line = reader.readLineSequence();
+      if (line == null) {
+        break;
+      } else if (SlowLogScanner.startsWith(line, 0, TIME)) {
+        logger.debug("New Section at line: " + reader.getLineNumber());
+        sectionTime = parseSectionTime(line);
+        if (window.isDoneAtSection(sectionTime)) {
+          logger.debug("Passed the end of the window at line: " + reader.getLineNumber());
+          return;
+        }
+      } else if (SlowLogScanner.startsWith(line, 0, USER_HOST)
+          && !window.isBeforeStart(sectionTime)) {
+        reader.rewind(line);
+        ExtendedUserQuery userQuery = parseEntry(reader, sectionTime);
+        if (!userQuery.getQuery().contains(INDEX_NOT_USED_MESSAGE)
+            && window.contains(userQuery.getZonedLogTime())) {
+          consumer.accept(userQuery);
+        }
+      }
+    }
+  }
+}
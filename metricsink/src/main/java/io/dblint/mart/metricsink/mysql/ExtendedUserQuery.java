@@ -0,0 +1,188 @@
+package io.dblint.mart.metricsink.mysql;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A query from a slow query log with the extra fields written by Percona Server and by MySQL 8
+ * with log_slow_extra. Fields that are not present in a log are null. Fields without a
+ * property of their own are kept as text in {@link #getExtraFields()}.
+ */
+public class ExtendedUserQuery extends UserQuery {
+  private String host;
+  private Long threadId;
+  private String schema;
+  private Long lastErrno;
+  private Long killed;
+  private Long rowsAffected;
+  private Long bytesSent;
+  private Long tmpTables;
+  private Long tmpDiskTables;
+  private Boolean fullScan;
+  private Boolean filesort;
+  private Boolean filesortOnDisk;
+  private Long innodbIoReadOps;
+  private Long innodbIoReadBytes;
+  private Double innodbIoReadWait;
+  private Double innodbRecLockWait;
+  private Double innodbQueueWait;
+  private Long innodbPagesDistinct;
+  private boolean truncated;
+  private final Map<String, String> extraFields = new LinkedHashMap<>();
+
+  public String getHost() {
+    return host;
+  }
+
+  public void setHost(String host) {
+    this.host = host;
+  }
+
+  public Long getThreadId() {
+    return threadId;
+  }
+
+  public void setThreadId(Long threadId) {
+    this.threadId = threadId;
+  }
+
+  public String getSchema() {
+    return schema;
+  }
+
+  public void setSchema(String schema) {
+    this.schema = schema;
+  }
+
+  public Long getLastErrno() {
+    return lastErrno;
+  }
+
+  public void setLastErrno(Long lastErrno) {
+    this.lastErrno = lastErrno;
+  }
+
+  public Long getKilled() {
+    return killed;
+  }
+
+  public void setKilled(Long killed) {
+    this.killed = killed;
+  }
+
+  public Long getRowsAffected() {
+    return rowsAffected;
+  }
+
+  public void setRowsAffected(Long rowsAffected) {
+    this.rowsAffected = rowsAffected;
+  }
+
+  public Long getBytesSent() {
+    return bytesSent;
+  }
+
+  public void setBytesSent(Long bytesSent) {
+    this.bytesSent = bytesSent;
+  }
+
+  public Long getTmpTables() {
+    return tmpTables;
+  }
+
+  public void setTmpTables(Long tmpTables) {
+    this.tmpTables = tmpTables;
+  }
+
+  public Long getTmpDiskTables() {
+    return tmpDiskTables;
+  }
+
+  public void setTmpDiskTables(Long tmpDiskTables) {
+    this.tmpDiskTables = tmpDiskTables;
+  }
+
+  public Boolean getFullScan() {
+    return fullScan;
+  }
+
+  public void setFullScan(Boolean fullScan) {
+    this.fullScan = fullScan;
+  }
+
+  public Boolean getFilesort() {
+    return filesort;
+  }
+
+  public void setFilesort(Boolean filesort) {
+    this.filesort = filesort;
+  }
+
+  public Boolean getFilesortOnDisk() {
+    return filesortOnDisk;
+  }
+
+  public void setFilesortOnDisk(Boolean filesortOnDisk) {
+    this.filesortOnDisk = filesortOnDisk;
+  }
+
+  public Long getInnodbIoReadOps() {
+    return innodbIoReadOps;
+  }
+
+  public void setInnodbIoReadOps(Long innodbIoReadOps) {
+    this.innodbIoReadOps = innodbIoReadOps;
+  }
+
+  public Long getInnodbIoReadBytes() {
+    return innodbIoReadBytes;
+  }
+
+  public void setInnodbIoReadBytes(Long innodbIoReadBytes) {
+    this.innodbIoReadBytes = innodbIoReadBytes;
+  }
+
+  public Double getInnodbIoReadWait() {
+    return innodbIoReadWait;
+  }
+
+  public void setInnodbIoReadWait(Double innodbIoReadWait) {
+    this.innodbIoReadWait = innodbIoReadWait;
+  }
+
+  public Double getInnodbRecLockWait() {
+    return innodbRecLockWait;
+  }
+
+  public void setInnodbRecLockWait(Double innodbRecLockWait) {
+    this.innodbRecLockWait = innodbRecLockWait;
+  }
+
+  public Double getInnodbQueueWait() {
+    return innodbQueueWait;
+  }
+
+  public void setInnodbQueueWait(Double innodbQueueWait) {
+    this.innodbQueueWait = innodbQueueWait;
+  }
+
+  public Long getInnodbPagesDistinct() {
+    return innodbPagesDistinct;
+  }
+
+  public void setInnodbPagesDistinct(Long innodbPagesDistinct) {
+    this.innodbPagesDistinct = innodbPagesDistinct;
+  }
+
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  public void setTruncated(boolean truncated) {
+    this.truncated = truncated;
+  }
+
+  public Map<String, String> getExtraFields() {
+    return extraFields;
+  }
+}
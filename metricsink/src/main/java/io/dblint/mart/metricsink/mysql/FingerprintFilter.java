@@ -0,0 +1,106 @@
+package io.dblint.mart.metricsink.mysql;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import org.jdbi.v3.core.Handle;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the user queries of a batch that are not in a Sink yet, by their
+ * {@link UserQuery#fingerprint()}. A bloom filter of the fingerprints in the database answers
+ * most lookups without a query. Only fingerprints that the filter might contain are looked up
+ * in the database, so a new log costs no queries and a log that was parsed before costs one
+ * query per batch instead of an insert of every row.
+ *
+ * <p>The filter is built when it is created and learns the fingerprints of the rows that are
+ * returned as new. A fingerprint is never missing from the filter, so a new row is never
+ * dropped; a false positive only costs a lookup. The returned rows are expected to be inserted
+ * before the next batch.
+ *
+ * <p>The filter is sized for the rows in the sink, so its memory follows the size of the sink.
+ * When it holds more fingerprints than it was sized for, it is built again from the sink with
+ * twice the size.
+ */
+public class FingerprintFilter {
+  static final long MIN_EXPECTED_FINGERPRINTS = 10000;
+  static final double FALSE_POSITIVE_RATE = 0.01;
+
+  private BloomFilter<CharSequence> filter;
+  private long expectedFingerprints;
+  private long fingerprints;
+
+  FingerprintFilter(long expectedFingerprints) {
+    this.expectedFingerprints = Math.max(expectedFingerprints, MIN_EXPECTED_FINGERPRINTS);
+    this.filter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8),
+        this.expectedFingerprints, FALSE_POSITIVE_RATE);
+  }
+
+  /**
+   * Create a filter of the fingerprints in a sink. The filter is sized for twice the rows in
+   * the sink so that it stays accurate while a log is parsed.
+   * @param sink Sink with user queries
+   * @param handle JDBI Handle that manages the connection to the database
+   * @return A filter of the fingerprints in the sink
+   */
+  public static FingerprintFilter load(Sink sink, Handle handle) {
+    FingerprintFilter fingerprintFilter = new FingerprintFilter(
+        2 * sink.countFingerprints(handle));
+    fingerprintFilter.fill(sink, handle);
+    return fingerprintFilter;
+  }
+
+  private void fill(Sink sink, Handle handle) {
+    sink.forEachFingerprint(handle, fingerprint -> {
+      filter.put(fingerprint);
+      fingerprints++;
+    });
+  }
+
+  long getExpectedFingerprints() {
+    return expectedFingerprints;
+  }
+
+  /**
+   * Get the user queries that are not in the sink and not repeated earlier in the batch.
+   * @param sink Sink with user queries
+   * @param handle JDBI Handle that manages the connection to the database
+   * @param userQueries A batch of parsed user queries
+   * @return The new user queries in the order of the batch
+   */
+  public List<UserQuery> unseen(Sink sink, Handle handle, List<? extends UserQuery> userQueries) {
+    if (fingerprints > expectedFingerprints) {
+      FingerprintFilter grown = load(sink, handle);
+      this.filter = grown.filter;
+      this.expectedFingerprints = grown.expectedFingerprints;
+      this.fingerprints = grown.fingerprints;
+    }
+
+    List<String> batch = new ArrayList<>(userQueries.size());
+    Set<String> maybeSeen = new HashSet<>();
+    for (UserQuery userQuery : userQueries) {
+      String fingerprint = userQuery.fingerprint();
+      batch.add(fingerprint);
+      if (filter.mightContain(fingerprint)) {
+        maybeSeen.add(fingerprint);
+      }
+    }
+
+    Set<String> seen = maybeSeen.isEmpty() ? new HashSet<>()
+        : sink.getFingerprints(handle, maybeSeen);
+    List<UserQuery> unseen = new ArrayList<>();
+    for (int i = 0; i < userQueries.size(); i++) {
+      String fingerprint = batch.get(i);
+      if (seen.add(fingerprint)) {
+        unseen.add(userQueries.get(i));
+        filter.put(fingerprint);
+        fingerprints++;
+      }
+    }
+    return unseen;
+  }
+}
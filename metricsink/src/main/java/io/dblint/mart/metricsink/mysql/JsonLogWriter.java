@@ -0,0 +1,67 @@
+package io.dblint.mart.metricsink.mysql;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Writes parsed log entries as newline delimited JSON, one object per line, as they are
+ * parsed. Entries are not kept in memory, so logs of any size can be written and a reader of
+ * the file can start before parsing is done.
+ *
+ * @param <T> Type of log entry
+ */
+public class JsonLogWriter<T> implements Consumer<T>, Closeable {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final OutputStream os;
+  private final SequenceWriter writer;
+  private long rowsWritten = 0;
+
+  /**
+   * Create a writer of JSON lines. The stream is buffered and is closed by {@link #close()}.
+   *
+   * @param os Stream to write to
+   * @throws IOException An exception is thrown if the stream cannot be written
+   */
+  public JsonLogWriter(OutputStream os) throws IOException {
+    this.os = new BufferedOutputStream(os, BUFFER_SIZE);
+    this.writer = new ObjectMapper().writer()
+        .withRootValueSeparator("\n")
+        .writeValues(this.os);
+  }
+
+  public long getRowsWritten() {
+    return rowsWritten;
+  }
+
+  @Override
+  public void accept(T item) {
+    try {
+      writer.write(item);
+    } catch (IOException exc) {
+      throw new UncheckedIOException(exc);
+    }
+    rowsWritten++;
+  }
+
+  /**
+   * End the last line, flush the buffered entries and close the stream.
+   * @throws IOException An exception is thrown if the stream cannot be written
+   */
+  @Override
+  public void close() throws IOException {
+    // The separator is only written between entries, so the last line is ended here.
+    writer.flush();
+    if (rowsWritten > 0) {
+      os.write('\n');
+    }
+    writer.close();
+  }
+}
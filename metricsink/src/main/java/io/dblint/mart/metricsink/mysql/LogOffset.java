@@ -0,0 +1,51 @@
+package io.dblint.mart.metricsink.mysql;
+
+/**
+ * Position in a log file up to which all entries have been parsed. The file key identifies
+ * the file that the position belongs to, so that a rotated log is read from its start.
+ */
+public class LogOffset {
+  private String path;
+  private String fileKey;
+  private long position;
+
+  public LogOffset() {
+  }
+
+  /**
+   * Create an offset in a log file.
+   *
+   * @param path Path of the log file
+   * @param fileKey Key of the file, for e.g. its inode, or null if it is not known
+   * @param position Offset in bytes of the first entry that is not parsed
+   */
+  public LogOffset(String path, String fileKey, long position) {
+    this.path = path;
+    this.fileKey = fileKey;
+    this.position = position;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public void setPath(String path) {
+    this.path = path;
+  }
+
+  public String getFileKey() {
+    return fileKey;
+  }
+
+  public void setFileKey(String fileKey) {
+    this.fileKey = fileKey;
+  }
+
+  public long getPosition() {
+    return position;
+  }
+
+  public void setPosition(long position) {
+    this.position = position;
+  }
+}
@@ -0,0 +1,152 @@
+package io.dblint.mart.metricsink.mysql;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Finds the start of a window of time in a log that is written in time order. The file is
+ * bisected by byte offset. At every offset the reader moves to the next section header and
+ * reads its time, so only a few sections are read to find the window even in a large log.
+ *
+ * <p>The offset that is found is the start of a section. It is never after the first section
+ * whose time is after the start of the window. The parser still has to drop the entries before
+ * the window, since a few sections before it may be read.
+ */
+public class LogSeeker {
+  private static Logger logger = LoggerFactory.getLogger(LogSeeker.class);
+
+  private final Path path;
+  private final Function<CharSequence, ZonedDateTime> headerTime;
+  private final Predicate<CharSequence> beforeHeader;
+  private final boolean startsBefore;
+
+  private static class Section {
+    final long offset;
+    final ZonedDateTime time;
+
+    Section(long offset, ZonedDateTime time) {
+      this.offset = offset;
+      this.time = time;
+    }
+  }
+
+  /**
+   * Create a seeker for a log file.
+   *
+   * @param path Path of the log file
+   * @param headerTime Time of a line that carries the time of a section, null for other lines
+   * @param beforeHeader Matches the line before a header line
+   * @param startsBefore true if a section starts at the line before its header line
+   */
+  LogSeeker(Path path, Function<CharSequence, ZonedDateTime> headerTime,
+            Predicate<CharSequence> beforeHeader, boolean startsBefore) {
+    this.path = path;
+    this.headerTime = headerTime;
+    this.beforeHeader = beforeHeader;
+    this.startsBefore = startsBefore;
+  }
+
+  /**
+   * Seek in a slow query log. Sections start at a "# Time:" line in the ISO format of MySQL 5.7
+   * and later, except after a SET statement where such a line is the text of a query.
+   * @param path Path of the slow query log
+   * @return A seeker for the slow query log
+   */
+  public static LogSeeker slowLog(Path path) {
+    return new LogSeeker(path,
+        line -> SlowLogScanner.isTimeLine(line)
+            ? ExtendedSlowQueryLogParser.parseSectionTime(line) : null,
+        line -> SlowLogScanner.scanSetTimestamp(line) < 0, false);
+  }
+
+  /**
+   * Seek in the output of a query on information schema that is run at intervals. Sections
+   * start at the row before a "now():" line.
+   * @param path Path of the output
+   * @return A seeker for the output
+   */
+  public static LogSeeker rowLog(Path path) {
+    return new LogSeeker(path, RowParser::sectionTime,
+        line -> RowParser.row.matcher(line).matches(), true);
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  /*
+   * Find the first section that starts at a line after an offset. The line that follows the
+   * offset is never a header, since the line before it is not known.
+   */
+  private Section nextSection(MappedLogReader reader, long offset) throws IOException {
+    boolean afterBefore;
+    if (offset > 0) {
+      reader.seek(offset - 1);
+      reader.readLineSequence();
+      afterBefore = false;
+    } else {
+      reader.seek(0);
+      afterBefore = !startsBefore;
+    }
+
+    long previousStart = -1;
+    long lineStart = reader.getPosition();
+    CharSequence line = reader.readLineSequence();
+    while (line != null) {
+      if (afterBefore) {
+        ZonedDateTime time = headerTime.apply(line);
+        if (time != null) {
+          return new Section(startsBefore ? previousStart : lineStart, time);
+        }
+      }
+      afterBefore = beforeHeader.test(line);
+      previousStart = lineStart;
+      lineStart = reader.getPosition();
+      line = reader.readLineSequence();
+    }
+    return null;
+  }
+
+  /**
+   * Find the offset to start parsing at to read the entries after a time.
+   * @param start Entries after this time are needed
+   * @return 0 if the log has to be parsed from its start, the size of the file if every
+   *     section is at or before the time, and the start of a section otherwise
+   * @throws IOException An exception is thrown if the log file cannot be read successfully
+   */
+  public long seek(ZonedDateTime start) throws IOException {
+    long size = Files.size(path);
+    try (MappedLogReader reader = new MappedLogReader(path)) {
+      Section first = nextSection(reader, 0);
+      if (first == null || first.time.isAfter(start)) {
+        return 0;
+      }
+
+      // Every section that starts before low is at or before start.
+      long low = first.offset + 1;
+      long high = size;
+      int reads = 1;
+      while (low < high) {
+        long middle = low + (high - low) / 2;
+        Section section = nextSection(reader, middle);
+        reads++;
+        if (section == null || section.time.isAfter(start)) {
+          high = middle;
+        } else {
+          low = section.offset + 1;
+        }
+      }
+
+      Section found = nextSection(reader, low);
+      logger.debug("Found " + start + " in " + path + " after " + (reads + 1) + " reads");
+      return found == null ? size : found.offset;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package io.dblint.mart.metricsink.mysql;
+
+import io.dblint.mart.metricsink.util.MetricAgentException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Reads a log file that is still being written. Every poll parses the entries that were
+ * appended since the last poll and returns the offset to continue from.
+ *
+ * <p>An entry may be written in more than one write, so it is only parsed once the next entry
+ * has started. The range that is parsed always ends at the start of an entry.
+ *
+ * <p>The file is read from its start if it was rotated, which is detected by a change of its
+ * file key (the inode on Linux), or if it was truncated to less than the offset. The entries
+ * of a rotated file that follow the offset are parsed first, if the file was renamed within
+ * the same directory.
+ */
+public class LogTailer {
+  private static Logger logger = LoggerFactory.getLogger(LogTailer.class);
+
+  public interface RangeParser {
+    void parse(RewindBufferedReader reader) throws IOException, MetricAgentException;
+  }
+
+  private final Path path;
+  private final Predicate<CharSequence> entryStart;
+  private final Predicate<CharSequence> continuesEntry;
+
+  /**
+   * Create a tailer for a log file.
+   *
+   * @param path Path of the log file
+   * @param entryStart Matches the first line of an entry
+   * @param continuesEntry Matches a line after which an entryStart line is still part of the
+   *     same entry
+   */
+  LogTailer(Path path, Predicate<CharSequence> entryStart,
+            Predicate<CharSequence> continuesEntry) {
+    this.path = path;
+    this.entryStart = entryStart;
+    this.continuesEntry = continuesEntry;
+  }
+
+  /**
+   * Tail a slow query log. Entries start at a "# Time:" line, except after a SET statement
+   * where such a line is the text of a query.
+   * @param path Path of the slow query log
+   * @return A tailer for the slow query log
+   */
+  public static LogTailer slowLog(Path path) {
+    return new LogTailer(path, SlowLogScanner::isTimeLine,
+        line -> SlowLogScanner.scanSetTimestamp(line) >= 0);
+  }
+
+  /**
+   * Tail an error log. Entries start at a line with a timestamp, except for the timestamp line
+   * that follows the start of a deadlock.
+   * @param path Path of the error log
+   * @return A tailer for the error log
+   */
+  public static LogTailer errorLog(Path path) {
+    return new LogTailer(path, ErrorLogParser::startsWithTime,
+        ErrorLogParser::newDeadlockSection);
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  private static String fileKey(BasicFileAttributes attributes) {
+    return attributes.fileKey() == null ? null : attributes.fileKey().toString();
+  }
+
+  /**
+   * Find the file that a log was rotated to.
+   * @param fileKey Key of the rotated file
+   * @return a file in the directory of the log with the key, or null if there is none
+   */
+  Path rotatedFile(String fileKey) throws IOException {
+    Path directory = path.toAbsolutePath().getParent();
+    try (Stream<Path> files = Files.list(directory)) {
+      Iterator<Path> iterator = files.iterator();
+      while (iterator.hasNext()) {
+        Path file = iterator.next();
+        BasicFileAttributes attributes;
+        try {
+          attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException exc) {
+          continue;
+        }
+        if (attributes.isRegularFile() && fileKey.equals(fileKey(attributes))) {
+          return file;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Find the start of the last entry between two offsets.
+   * @return the offset of the last line that starts an entry, or start if there is none
+   */
+  long lastEntryStart(long start, long end) throws IOException {
+    long last = start;
+    try (MappedLogReader reader = new MappedLogReader(path, start, end)) {
+      boolean continues = true;
+      long lineStart = reader.getPosition();
+      CharSequence line = reader.readLineSequence();
+      while (line != null) {
+        if (!continues && entryStart.test(line)) {
+          last = lineStart;
+        }
+        continues = continuesEntry.test(line);
+        lineStart = reader.getPosition();
+        line = reader.readLineSequence();
+      }
+    }
+    return last;
+  }
+
+  /**
+   * Parse the complete entries that follow an offset.
+   * @param offset Offset returned by the previous poll
+   * @param parser Parses the range of new entries
+   * @return The offset to pass to the next poll
+   * @throws IOException An exception is thrown if the log file cannot be read successfully
+   * @throws MetricAgentException Thrown by the parser
+   */
+  public LogOffset poll(LogOffset offset, RangeParser parser)
+      throws IOException, MetricAgentException {
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    String fileKey = fileKey(attributes);
+    long start = offset.getPosition();
+    if (offset.getFileKey() != null && fileKey != null && !fileKey.equals(offset.getFileKey())) {
+      logger.info(path + " was rotated. Reading it from the start");
+      drain(rotatedFile(offset.getFileKey()), start, parser);
+      start = 0;
+    } else if (attributes.size() < start) {
+      logger.info(path + " was truncated. Reading it from the start");
+      start = 0;
+    }
+
+    long end = lastEntryStart(start, attributes.size());
+    if (end > start) {
+      logger.debug("Parsing " + path + " from " + start + " to " + end);
+      try (MappedLogReader reader = new MappedLogReader(path, start, end)) {
+        parser.parse(reader);
+      }
+    }
+    return new LogOffset(offset.getPath(), fileKey, end);
+  }
+
+  /**
+   * Parse the entries of a rotated file that follow an offset. The file is not written to
+   * anymore, so its last entry is complete.
+   */
+  private void drain(Path rotated, long start, RangeParser parser)
+      throws IOException, MetricAgentException {
+    if (rotated == null) {
+      logger.warn("Rotated file of " + path + " was not found. Entries after " + start
+          + " are lost");
+      return;
+    }
+    long end = Files.size(rotated);
+    if (end > start) {
+      logger.debug("Parsing " + rotated + " from " + start + " to " + end);
+      try (MappedLogReader reader = new MappedLogReader(rotated, start, end)) {
+        parser.parse(reader);
+      }
+    }
+  }
+}
@@ -0,0 +1,333 @@
+package io.dblint.mart.metricsink.mysql;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link RewindBufferedReader} over a memory mapped log file. Lines are located directly in
+ * the mapped region and {@link #readLineSequence()} returns them as a view over it, so lines
+ * that are only matched against a pattern are never copied.
+ *
+ * <p>Files are mapped in windows. The window moves forward when a line crosses its end and
+ * grows when a single line is longer than the window.
+ */
+public class MappedLogReader extends RewindBufferedReader {
+  static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+  private final FileChannel channel;
+  private final long end;
+  private final int windowSize;
+  private final LineView view = new LineView();
+
+  private MappedByteBuffer buffer;
+  private long windowStart;
+  private long position;
+  private long lineStart;
+  private boolean lineRead;
+  private int lineOffset;
+  private int lineLength;
+  private int lineNumber;
+  private byte[] scratch = new byte[1024];
+
+  public MappedLogReader(Path path) throws IOException {
+    this(path, DEFAULT_WINDOW_SIZE);
+  }
+
+  MappedLogReader(Path path, int windowSize) throws IOException {
+    this(path, 0, -1, windowSize);
+  }
+
+  /**
+   * Read the lines in a byte range of a file. The range should start at the beginning of a
+   * line. Line numbers are counted from the start of the range.
+   *
+   * @param path Path of the log file
+   * @param start Offset of the first byte of the range
+   * @param end Offset just past the last byte of the range. -1 for the end of the file
+   * @throws IOException If the file cannot be opened
+   */
+  public MappedLogReader(Path path, long start, long end) throws IOException {
+    this(path, start, end, DEFAULT_WINDOW_SIZE);
+  }
+
+  private MappedLogReader(Path path, long start, long end, int windowSize) throws IOException {
+    super(Reader.nullReader());
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    this.end = end < 0 ? channel.size() : Math.min(end, channel.size());
+    this.windowSize = windowSize;
+    this.position = Math.min(start, this.end);
+    this.lineStart = this.position;
+    map(this.position, windowSize);
+  }
+
+  private void map(long start, long length) throws IOException {
+    this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, start,
+        Math.min(length, end - start));
+    this.windowStart = start;
+  }
+
+  private static boolean isTerminator(byte value) {
+    return value == '\n' || value == '\r';
+  }
+
+  /*
+   * Locate the line that starts at position and move position past its terminator.
+   * A line is only accepted when the byte after its terminator is mapped as well, so that
+   * a '\r\n' pair split by the end of the window is consumed as one terminator.
+   */
+  private boolean advance() throws IOException {
+    lineStart = position;
+    lineRead = false;
+    if (position >= end) {
+      return false;
+    }
+
+    if (position < windowStart || position >= windowStart + buffer.limit()) {
+      map(position, windowSize);
+    }
+
+    long length = windowSize;
+    while (true) {
+      int offset = (int) (position - windowStart);
+      int limit = buffer.limit();
+      int lineEnd = offset;
+      while (lineEnd < limit && !isTerminator(buffer.get(lineEnd))) {
+        lineEnd++;
+      }
+
+      if (windowStart + limit == end || lineEnd + 1 < limit) {
+        int next = lineEnd;
+        if (next < limit) {
+          boolean crlf = buffer.get(next) == '\r' && next + 1 < limit
+              && buffer.get(next + 1) == '\n';
+          next += crlf ? 2 : 1;
+        }
+        lineOffset = offset;
+        lineLength = lineEnd - offset;
+        lineRead = true;
+        lineNumber++;
+        position = windowStart + next;
+        return true;
+      }
+
+      if (offset == 0) {
+        if (length >= Integer.MAX_VALUE) {
+          throw new IOException("Line at offset " + position + " is too long");
+        }
+        length = Math.min(length * 2, Integer.MAX_VALUE);
+      }
+      map(position, length);
+    }
+  }
+
+  @Override
+  public String readLine() throws IOException {
+    if (!advance()) {
+      return null;
+    }
+    return decode(lineOffset, lineLength);
+  }
+
+  /**
+   * Read the next line as a view over the mapped file. A line of ASCII text, like the lines
+   * that are matched by the log parsers, is not copied. Other lines are decoded as UTF-8 when
+   * they are first inspected, so the view always has the chars of {@link #readLine()}. The
+   * view is only valid until the next read from this reader.
+   *
+   * @return a view of the next line or null at the end of the file
+   * @throws IOException If the file cannot be mapped
+   */
+  @Override
+  public CharSequence readLineSequence() throws IOException {
+    if (!advance()) {
+      return null;
+    }
+    view.set(lineOffset, lineLength);
+    return view;
+  }
+
+  /**
+   * Look at the next line. A line that has at most maxLength bytes is returned as a view.
+   * Only the start of a longer line is decoded.
+   */
+  @Override
+  public CharSequence peekLine(int maxLength) throws IOException {
+    CharSequence line = readLineSequence();
+    if (line == null) {
+      return null;
+    }
+    if (lineLength > maxLength) {
+      // A char takes at most three bytes
+      int length = utf8Prefix(lineOffset, lineLength, (int) Math.min(3L * maxLength, lineLength));
+      String start = decode(lineOffset, length);
+      line = start.length() > maxLength ? start.substring(0, maxLength) : start;
+    }
+    rewind(line);
+    return line;
+  }
+
+  /*
+   * Cut a line to at most length bytes without cutting a multi-byte character.
+   */
+  private int utf8Prefix(int offset, int lineLength, int length) {
+    if (length < lineLength) {
+      while (length > 0 && (buffer.get(offset + length) & 0xc0) == 0x80) {
+        length--;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Append the start of the next line without decoding the rest of it. Lengths are counted in
+   * bytes, so at most maxLength chars are appended and a multi-byte character is never cut.
+   */
+  @Override
+  public int appendLine(StringBuilder builder, int maxLength) throws IOException {
+    if (!advance()) {
+      return -1;
+    }
+    int length = utf8Prefix(lineOffset, lineLength, Math.min(lineLength, Math.max(maxLength, 0)));
+    builder.append(decode(lineOffset, length));
+    return lineLength;
+  }
+
+  @Override
+  void rewind(CharSequence line) {
+    if (lineRead) {
+      lineNumber--;
+      lineRead = false;
+    }
+    position = lineStart;
+  }
+
+  @Override
+  public boolean ready() {
+    return position < end;
+  }
+
+  /**
+   * Offset in the file of the next line.
+   *
+   * @return offset of the next line
+   */
+  public long getPosition() {
+    return position;
+  }
+
+  /**
+   * Move to an offset in the file. If the offset is not at the start of a line, the next read
+   * returns the rest of that line.
+   *
+   * @param offset new position in the file
+   */
+  void seek(long offset) {
+    position = Math.max(0, Math.min(offset, end));
+    lineStart = position;
+    lineRead = false;
+  }
+
+  @Override
+  public int getLineNumber() {
+    return lineNumber;
+  }
+
+  @Override
+  public void setLineNumber(int lineNumber) {
+    this.lineNumber = lineNumber;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+    buffer = null;
+  }
+
+  private String decode(int offset, int length) {
+    if (scratch.length < length) {
+      scratch = new byte[Math.max(length, scratch.length * 2)];
+    }
+    buffer.position(offset);
+    buffer.get(scratch, 0, length);
+    return new String(scratch, 0, length, StandardCharsets.UTF_8);
+  }
+
+  private String latin1(int offset, int length) {
+    if (scratch.length < length) {
+      scratch = new byte[Math.max(length, scratch.length * 2)];
+    }
+    buffer.position(offset);
+    buffer.get(scratch, 0, length);
+    return new String(scratch, 0, length, StandardCharsets.ISO_8859_1);
+  }
+
+  /*
+   * A line of ASCII bytes is presented byte by byte. Any other line is decoded once, when it
+   * is first inspected, and the view delegates to the decoded String.
+   */
+  private class LineView implements CharSequence {
+    int offset;
+    int length;
+    boolean checked;
+    String decoded;
+
+    void set(int offset, int length) {
+      this.offset = offset;
+      this.length = length;
+      this.checked = false;
+      this.decoded = null;
+    }
+
+    private String decoded() {
+      if (!checked) {
+        checked = true;
+        for (int i = offset; i < offset + length; i++) {
+          if (buffer.get(i) < 0) {
+            decoded = decode(offset, length);
+            break;
+          }
+        }
+      }
+      return decoded;
+    }
+
+    @Override
+    public int length() {
+      return decoded() == null ? length : decoded.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (decoded() != null) {
+        return decoded.charAt(index);
+      }
+      if (index < 0 || index >= length) {
+        throw new IndexOutOfBoundsException("Index " + index + " out of line of length "
+            + length);
+      }
+      return (char) buffer.get(offset + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      if (decoded() != null) {
+        return decoded.substring(start, end);
+      }
+      if (start < 0 || end > length || start > end) {
+        throw new IndexOutOfBoundsException("Range [" + start + ", " + end
+            + ") out of line of length " + length);
+      }
+      return latin1(offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+      return decoded() == null ? latin1(offset, length) : decoded;
+    }
+  }
+}
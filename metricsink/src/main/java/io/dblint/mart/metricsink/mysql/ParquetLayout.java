@@ -0,0 +1,176 @@
+package io.dblint.mart.metricsink.mysql;
+
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+
+/**
+ * Columns of a Parquet file of log entries and how an entry is written to a row. Times are
+ * stored as milliseconds since the epoch in UTC.
+ *
+ * @param <T> Type of log entry
+ */
+public class ParquetLayout<T> {
+  public interface RowWriter<T> {
+    void write(T item, Group row);
+  }
+
+  public static final ParquetLayout<UserQuery> USER_QUERIES = new ParquetLayout<>(
+      "message user_queries {"
+          + " optional int64 log_time (TIMESTAMP_MILLIS);"
+          + " optional binary user_host (UTF8);"
+          + " optional binary ip_address (UTF8);"
+          + " optional binary connection_id (UTF8);"
+          + " optional double query_time;"
+          + " optional double lock_time;"
+          + " required int64 rows_sent;"
+          + " required int64 rows_examined;"
+          + " optional binary query (UTF8);"
+          + " optional binary digest_hash (UTF8);"
+          + " }",
+      (query, row) -> {
+        addTime(row, "log_time", query.getZonedLogTime());
+        addString(row, "user_host", query.getUserHost());
+        addString(row, "ip_address", query.getIpAddress());
+        addString(row, "connection_id", query.getConnectionId());
+        if (query.getQueryTime() != null) {
+          row.add("query_time", query.getQueryTime());
+        }
+        if (query.getLockTime() != null) {
+          row.add("lock_time", query.getLockTime());
+        }
+        row.add("rows_sent", query.getRowsSent());
+        row.add("rows_examined", query.getRowsExamined());
+        addString(row, "query", query.getQuery());
+        addString(row, "digest_hash", query.getDigestHash());
+      });
+
+  public static final ParquetLayout<Deadlock> DEADLOCKS = new ParquetLayout<>(
+      "message deadlocks {"
+          + " optional int64 log_time (TIMESTAMP_MILLIS);"
+          + " repeated group transactions {"
+          + "   optional binary id (UTF8);"
+          + "   optional binary query (UTF8);"
+          + "   repeated group holding_locks {" + lockColumns() + " }"
+          + "   repeated group waiting_locks {" + lockColumns() + " }"
+          + " }"
+          + " }",
+      (deadlock, row) -> {
+        addTime(row, "log_time", deadlock.getZonedLogTime());
+        for (Deadlock.Transaction transaction : deadlock.transactions) {
+          Group group = row.addGroup("transactions");
+          addString(group, "id", transaction.getId());
+          addString(group, "query", transaction.getQuery());
+          addLocks(group, "holding_locks", transaction.getHoldingLocks());
+          addLocks(group, "waiting_locks", transaction.getWaitingLocks());
+        }
+      });
+
+  public static final ParquetLayout<InnodbLockWait> LOCK_WAITS = new ParquetLayout<>(
+      "message lock_waits {"
+          + " optional int64 log_time (TIMESTAMP_MILLIS);"
+          + " optional group waiting {" + transactionColumns() + " }"
+          + " optional group blocking {" + transactionColumns() + " }"
+          + " }",
+      (lockWait, row) -> {
+        addTime(row, "log_time", lockWait.getZonedLogTime());
+        addTransaction(row, "waiting", lockWait.waiting);
+        addTransaction(row, "blocking", lockWait.blocking);
+      });
+
+  public static final ParquetLayout<LongTxnParser.LongTxn> LONG_TXNS = new ParquetLayout<>(
+      "message long_txns {"
+          + " optional int64 log_time (TIMESTAMP_MILLIS);"
+          + " optional group transaction {" + transactionColumns() + " }"
+          + " }",
+      (longTxn, row) -> {
+        addTime(row, "log_time", longTxn.getZonedLogTime());
+        addTransaction(row, "transaction", longTxn.transaction);
+      });
+
+  private final MessageType schema;
+  private final RowWriter<T> rowWriter;
+
+  ParquetLayout(String schema, RowWriter<T> rowWriter) {
+    this.schema = MessageTypeParser.parseMessageType(schema);
+    this.rowWriter = rowWriter;
+  }
+
+  public MessageType getSchema() {
+    return schema;
+  }
+
+  public RowWriter<T> getRowWriter() {
+    return rowWriter;
+  }
+
+  private static String lockColumns() {
+    return " optional binary id (UTF8);"
+        + " optional binary space_id (UTF8);"
+        + " optional binary page_no (UTF8);"
+        + " optional binary num_bits (UTF8);"
+        + " optional binary index (UTF8);"
+        + " optional binary schema (UTF8);"
+        + " optional binary table (UTF8);"
+        + " optional binary lock_type (UTF8);";
+  }
+
+  private static String transactionColumns() {
+    return " optional binary id (UTF8);"
+        + " optional binary thread (UTF8);"
+        + " optional binary query (UTF8);"
+        + " optional int64 start_time (TIMESTAMP_MILLIS);"
+        + " optional int64 wait_start_time (TIMESTAMP_MILLIS);"
+        + " optional binary lock_mode (UTF8);"
+        + " optional binary lock_type (UTF8);"
+        + " optional binary lock_table (UTF8);"
+        + " optional binary lock_index (UTF8);"
+        + " optional binary lock_data (UTF8);";
+  }
+
+  private static void addString(Group row, String field, String value) {
+    if (value != null) {
+      row.add(field, value);
+    }
+  }
+
+  private static void addTime(Group row, String field, ZonedDateTime value) {
+    if (value != null) {
+      row.add(field, value.toInstant().toEpochMilli());
+    }
+  }
+
+  private static void addLocks(Group row, String field, List<Deadlock.Lock> locks) {
+    for (Deadlock.Lock lock : locks) {
+      Group group = row.addGroup(field);
+      addString(group, "id", lock.id);
+      addString(group, "space_id", lock.spaceId);
+      addString(group, "page_no", lock.pageNo);
+      addString(group, "num_bits", lock.numBits);
+      addString(group, "index", lock.index);
+      addString(group, "schema", lock.schema);
+      addString(group, "table", lock.table);
+      addString(group, "lock_type", lock.lockType);
+    }
+  }
+
+  private static void addTransaction(Group row, String field, Transaction transaction) {
+    if (transaction == null) {
+      return;
+    }
+    Group group = row.addGroup(field);
+    addString(group, "id", transaction.getId());
+    addString(group, "thread", transaction.getThread());
+    addString(group, "query", transaction.getQuery());
+    addTime(group, "start_time", transaction.getZonedStartTime());
+    addTime(group, "wait_start_time", transaction.getZonedWaitStartTime());
+    addString(group, "lock_mode", transaction.getLockMode());
+    addString(group, "lock_type", transaction.getLockType());
+    addString(group, "lock_table", transaction.getLockTable());
+    addString(group, "lock_index", transaction.getLockIndex());
+    addString(group, "lock_data", transaction.getLockData());
+  }
+}
@@ -0,0 +1,90 @@
+package io.dblint.mart.metricsink.mysql;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.column.ParquetProperties;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroupFactory;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.ExampleParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.schema.MessageType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Writes parsed log entries to a Parquet file as they are parsed. Rows are buffered in memory
+ * until a row group is full and then written out, so memory is bounded by the row group size
+ * and not by the size of the log.
+ *
+ * <p>Columns are dictionary encoded. Columns with few distinct values like user_host and
+ * digest_hash shrink to a small dictionary and an index per row. Parquet falls back to plain
+ * encoding in a row group once the dictionary of a column grows past the dictionary page size.
+ *
+ * @param <T> Type of log entry
+ */
+public class ParquetLogWriter<T> implements Consumer<T>, Closeable {
+  public static final int DEFAULT_ROW_GROUP_SIZE = 32 * 1024 * 1024;
+
+  private final ParquetLayout<T> layout;
+  private final SimpleGroupFactory factory;
+  private final ParquetWriter<Group> writer;
+  private long rowsWritten = 0;
+
+  /**
+   * Create a writer of a Parquet file. An existing file is overwritten.
+   *
+   * @param path Path to the Parquet file
+   * @param layout Columns of the file and how an entry is written to them
+   * @param rowGroupSize Size in bytes of the rows buffered before a row group is written
+   * @throws IOException An exception is thrown if the file cannot be created
+   */
+  public ParquetLogWriter(Path path, ParquetLayout<T> layout, int rowGroupSize)
+      throws IOException {
+    this.layout = layout;
+    this.factory = new SimpleGroupFactory(layout.getSchema());
+    this.writer = ExampleParquetWriter
+        .builder(new org.apache.hadoop.fs.Path(path.toAbsolutePath().toUri()))
+        .withConf(new Configuration())
+        .withType(layout.getSchema())
+        .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+        .withWriterVersion(ParquetProperties.WriterVersion.PARQUET_1_0)
+        .withCompressionCodec(CompressionCodecName.SNAPPY)
+        .withDictionaryEncoding(true)
+        .withRowGroupSize(rowGroupSize)
+        .build();
+  }
+
+  public MessageType getSchema() {
+    return layout.getSchema();
+  }
+
+  public long getRowsWritten() {
+    return rowsWritten;
+  }
+
+  @Override
+  public void accept(T item) {
+    Group row = factory.newGroup();
+    layout.getRowWriter().write(item, row);
+    try {
+      writer.write(row);
+    } catch (IOException exc) {
+      throw new UncheckedIOException(exc);
+    }
+    rowsWritten++;
+  }
+
+  /**
+   * Write the last row group and the footer of the file.
+   * @throws IOException An exception is thrown if the file cannot be written
+   */
+  @Override
+  public void close() throws IOException {
+    writer.close();
+  }
+}
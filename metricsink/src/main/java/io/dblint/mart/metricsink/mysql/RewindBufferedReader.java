@@ -11,8 +11,8 @@ public class RewindBufferedReader extends LineNumberReader {
     super(reader);
   }
 
-  void rewind(String line) {
-    this.line = line;
+  void rewind(CharSequence line) {
+    this.line = line == null ? null : line.toString();
     super.setLineNumber(super.getLineNumber() - 1);
   }
 
@@ -27,4 +27,88 @@ public class RewindBufferedReader extends LineNumberReader {
 
     return super.readLine();
   }
+
+  /**
+   * Read a line that is only inspected, for e.g. matched against a pattern, and not kept.
+   * Readers that can avoid copying the line return a view that is only valid until the next
+   * read. This reader returns the same String as {@link #readLine()}.
+   *
+   * @return the next line or null at the end of the stream
+   * @throws IOException If an I/O error occurs
+   */
+  public CharSequence readLineSequence() throws IOException {
+    return readLine();
+  }
+
+  /**
+   * Look at the start of the next line without reading it. At most maxLength chars of the line
+   * are read, so the rest of a very long line is not copied. The next read returns the whole
+   * line.
+   *
+   * @param maxLength Maximum number of chars to return
+   * @return the start of the next line or null at the end of the stream
+   * @throws IOException If an I/O error occurs
+   */
+  public CharSequence peekLine(int maxLength) throws IOException {
+    if (this.line != null) {
+      return line.length() > maxLength ? line.substring(0, maxLength) : line;
+    }
+    // A "\r\n" is read as one char
+    mark(maxLength + 2);
+    int next = read();
+    if (next < 0) {
+      reset();
+      return null;
+    }
+    StringBuilder start = new StringBuilder();
+    while (next >= 0 && next != '\n' && start.length() < maxLength) {
+      start.append((char) next);
+      next = read();
+    }
+    reset();
+    return start;
+  }
+
+  /**
+   * Read the next line and append at most maxLength chars of it to a builder. The rest of the
+   * line is skipped as it is read, so that a very long line is never copied in full.
+   *
+   * @param builder Receives the start of the line
+   * @param maxLength Maximum number of chars to append
+   * @return the length of the line, which is more than maxLength if the line was cut, or -1 at
+   *     the end of the stream
+   * @throws IOException If an I/O error occurs
+   */
+  public int appendLine(StringBuilder builder, int maxLength) throws IOException {
+    int keep = Math.max(maxLength, 0);
+    if (this.line != null) {
+      String rewound = readLine();
+      builder.append(rewound, 0, Math.min(rewound.length(), keep));
+      return rewound.length();
+    }
+
+    int next = read();
+    if (next < 0) {
+      return -1;
+    }
+    int length = 0;
+    while (next >= 0 && next != '\n') {
+      if (length < keep) {
+        // Do not keep half of a surrogate pair
+        if (length == keep - 1 && Character.isHighSurrogate((char) next)) {
+          keep = length;
+        } else {
+          builder.append((char) next);
+        }
+      }
+      length++;
+      next = read();
+    }
+    return length;
+  }
+
+  @Override
+  public boolean ready() throws IOException {
+    return this.line != null || super.ready();
+  }
 }
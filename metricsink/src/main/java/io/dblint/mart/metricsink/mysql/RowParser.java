@@ -9,8 +9,10 @@ import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -28,12 +30,11 @@ public abstract class RowParser<T> {
 
   static boolean newTimeSection(RewindBufferedReader reader)
     throws IOException {
-    String line = reader.readLine();
-    Matcher rowMatcher = row.matcher(line);
+    Matcher rowMatcher = row.matcher(reader.readLineSequence());
     if (rowMatcher.matches()) {
       logger.debug("Row matched");
 
-      line = reader.readLine();
+      CharSequence line = reader.readLineSequence();
       if (now.matcher(line).find()) {
         reader.rewind(line);
         return true;
@@ -43,6 +44,22 @@ public abstract class RowParser<T> {
     return false;
   }
 
+  /*
+   * Time of a "now(): yyyy-MM-dd kk:mm:ss" line or null if the line is not one.
+   */
+  static ZonedDateTime sectionTime(CharSequence line) {
+    if (!now.matcher(line).find()) {
+      return null;
+    }
+    String [] parts = line.toString().split(":", 2);
+    try {
+      return ZonedDateTime.of(LocalDateTime.parse(parts[1].trim(), dateFormat),
+          ZoneOffset.ofHoursMinutes(5, 30));
+    } catch (DateTimeParseException exc) {
+      return null;
+    }
+  }
+
   static String getLineOrThrow(RewindBufferedReader reader)
       throws IOException, MetricAgentException {
     String line = reader.readLine();
@@ -62,6 +79,22 @@ public abstract class RowParser<T> {
   }
 
   List<T> parseTimeSection(RewindBufferedReader reader)
+    throws IOException, MetricAgentException {
+    List<T> list = new ArrayList<>();
+    parseTimeSection(reader, list::add);
+    return list;
+  }
+
+  void parseTimeSection(RewindBufferedReader reader, Consumer<T> consumer)
+    throws IOException, MetricAgentException {
+    parseTimeSection(reader, TimeWindow.ALL, consumer);
+  }
+
+  /*
+   * Parse the rows of a time section if its now() time is in the window. The rows of other
+   * sections are left to the caller, which skips them. Returns false if parsing can stop.
+   */
+  boolean parseTimeSection(RewindBufferedReader reader, TimeWindow window, Consumer<T> consumer)
     throws IOException, MetricAgentException {
     String line = reader.readLine();
     String [] parts = line.split(":", 2);
@@ -71,14 +104,17 @@ public abstract class RowParser<T> {
     }
     ZonedDateTime time = ZonedDateTime.of(LocalDateTime.parse(parts[1].trim(), dateFormat),
         ZoneOffset.ofHoursMinutes(5, 30));
-    List<T> list = new ArrayList<>();
+    if (window.isDone(time)) {
+      return false;
+    } else if (!window.contains(time)) {
+      return true;
+    }
     line = reader.readLine();
     while (line != null && !line.isEmpty() && row.matcher(line).matches()) {
-      list.add(parseRow(reader, time));
+      consumer.accept(parseRow(reader, time));
       line = reader.readLine();
     }
-
-    return list;
+    return true;
   }
 
   /**
@@ -91,12 +127,40 @@ public abstract class RowParser<T> {
   public List<T> parse(RewindBufferedReader reader)
       throws IOException, MetricAgentException {
     List<T> list = new ArrayList<>();
+    parse(reader, list::add);
+    return list;
+  }
+
+  /**
+   * Parse the output of a SQL query on information schema and pass each row to a consumer
+   * as soon as it is parsed.
+   * @param reader Reader pointing to the output
+   * @param consumer Receives rows in the order they appear in the output
+   * @throws IOException Thrown if Reader cannot read data from stream
+   * @throws MetricAgentException Thrown if parser cannot parse the stream
+   */
+  public void parse(RewindBufferedReader reader, Consumer<T> consumer)
+      throws IOException, MetricAgentException {
+    parse(reader, TimeWindow.ALL, consumer);
+  }
+
+  /**
+   * Parse the rows of the time sections that are in a window of time. Rows of other sections
+   * are skipped without being parsed.
+   * @param reader Reader pointing to the output
+   * @param window Sections whose now() time is outside of this window are skipped
+   * @param consumer Receives rows in the order they appear in the output
+   * @throws IOException Thrown if Reader cannot read data from stream
+   * @throws MetricAgentException Thrown if parser cannot parse the stream
+   */
+  public void parse(RewindBufferedReader reader, TimeWindow window, Consumer<T> consumer)
+      throws IOException, MetricAgentException {
     while (reader.ready()) {
-      if (newTimeSection(reader)) {
-        list.addAll(parseTimeSection(reader));
+      if (newTimeSection(reader) && !parseTimeSection(reader, window, consumer)) {
+        logger.debug("Passed the end of the window at line: " + reader.getLineNumber());
+        return;
       }
     }
-    return list;
   }
 
 
@@ -1,21 +1,118 @@
 package io.dblint.mart.metricsink.mysql;
 
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
 import io.dblint.mart.metricsink.util.DbSink;
+import io.dblint.mart.metricsink.util.PoolSettings;
 import org.flywaydb.core.Flyway;
 import org.jdbi.v3.core.Handle;
 import org.jdbi.v3.core.mapper.reflect.BeanMapper;
 import org.jdbi.v3.core.mapper.reflect.ConstructorMapper;
 import org.jdbi.v3.core.mapper.reflect.FieldMapper;
+import org.jdbi.v3.core.statement.PreparedBatch;
+import org.jdbi.v3.core.statement.Update;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class Sink extends DbSink {
   private static DateTimeFormatter formatter = DateTimeFormatter.ofPattern("Y-MM-dd HH:mm:ss");
 
+  private static final String INSERT_USER_QUERY = "insert into user_queries("
+      + "log_time,"
+      + "user_host,"
+      + "ip_address,"
+      + "connection_id,"
+      + "query_time,"
+      + "lock_time,"
+      + "rows_sent,"
+      + "rows_examined,"
+      + "query,"
+      + "digest_hash"
+      + ") values ("
+      + ":logTime, :userHost, :ipAddress, :connectionId, :queryTime, :lockTime, :rowsSent, "
+      + ":rowsExamined, :query, :digestHash)";
+
+  private static final String INSERT_NEW_USER_QUERY = " into user_queries("
+      + "log_time,"
+      + "user_host,"
+      + "ip_address,"
+      + "connection_id,"
+      + "query_time,"
+      + "lock_time,"
+      + "rows_sent,"
+      + "rows_examined,"
+      + "query,"
+      + "digest_hash,"
+      + "fingerprint"
+      + ") values ("
+      + ":logTime, :userHost, :ipAddress, :connectionId, :queryTime, :lockTime, :rowsSent, "
+      + ":rowsExamined, :query, :digestHash, :fingerprint)";
+
+  private static final String INSERT_TRANSACTION = "insert into transactions("
+      + "id,"
+      + "thread,"
+      + "query,"
+      + "start_time,"
+      + "wait_start_time,"
+      + "lock_mode,"
+      + "lock_type,"
+      + "lock_table,"
+      + "lock_index,"
+      + "lock_data) values (:id, :thread, :query, :startTime, :waitStartTime,"
+      + ":lockMode, :lockType, :lockTable, :lockIndex, :lockData)";
+
+  private static final String INSERT_LONG_TXN = "insert into long_txns("
+      + "log_time,"
+      + "transaction_id) values (:logTime, :transactionId)";
+
+  private static final String INSERT_LOCK_WAIT = "insert into lock_waits("
+      + "log_time,"
+      + "waiting_id,"
+      + "blocking_id) values (:logTime, :waitingId, :blockingId)";
+
+  private static final String INSERT_QUERY_ATTRIBUTE = " into query_attributes("
+      + "digest,"
+      + "digest_hash) values (:digest, :digestHash)";
+
+  private static final String UPDATE_DIGEST_HASH = "update user_queries set "
+      + "digest_hash=:digestHash"
+      + " where id=:id";
+
+  private static final String SELECT_UNANALYZED = "select * from user_queries where log_time "
+      + "between :start and :end and digest_hash is null";
+
+  static final int DIGEST_CACHE_SIZE = 10000;
+
+  // Older SQLite libraries allow at most 999 parameters in a statement.
+  static final int VALUES_PER_QUERY = 500;
+
+  /*
+   * Digest hashes that are known to be in query_attributes. Most slow queries share a few
+   * digests, so most inserts into query_attributes are skipped. Callers add hashes with
+   * addKnownDigests once the transaction of their inserts commits.
+   */
+  private final Cache<String, Boolean> knownDigests = CacheBuilder.newBuilder()
+      .maximumSize(DIGEST_CACHE_SIZE)
+      .build();
+
   public Sink(String url, String user, String password,
                    MetricRegistry metricRegistry) {
     super(url, user, password, metricRegistry, new Flyway());
@@ -36,6 +133,22 @@ public class Sink extends DbSink {
     super(url, user, password, metricRegistry, flyway);
   }
 
+  /**
+   * Create a Sink for MySQL metrics that uses a pool of connections.
+   *
+   * @param url URL of the MySQL Database
+   * @param user user of the MySQL Database
+   * @param password password of the MySQL database
+   * @param metricRegistry MetricRegistry to store JDBI and pool metrics
+   * @param flyway Migrations library to setup the MySQL database
+   * @param poolSettings Settings of the connection pool
+   * @param poolName Name of the connection pool and prefix of its metrics
+   */
+  public Sink(String url, String user, String password, MetricRegistry metricRegistry,
+              Flyway flyway, PoolSettings poolSettings, String poolName) {
+    super(url, user, password, metricRegistry, flyway, poolSettings, poolName);
+  }
+
   @Override
   protected void registerMappers(Handle handle) {
     handle.registerRowMapper(FieldMapper.factory(UserQuery.class));
@@ -43,6 +156,7 @@ public class Sink extends DbSink {
     handle.registerRowMapper(BeanMapper.factory(Transaction.class));
     handle.registerRowMapper(BeanMapper.factory(LongTxnParser.LongTxn.class));
     handle.registerRowMapper(BeanMapper.factory(InnodbLockWait.class));
+    handle.registerRowMapper(BeanMapper.factory(LogOffset.class));
   }
 
   @Override
@@ -59,8 +173,7 @@ public class Sink extends DbSink {
   public List<UserQuery> selectUserQueries(LocalDateTime start, LocalDateTime end) {
     return jdbi.withHandle(handle -> {
       handle.registerRowMapper(BeanMapper.factory(UserQuery.class));
-      return handle.createQuery("select * from user_queries where log_time "
-              + "between :start and :end and digest_hash is null")
+      return handle.createQuery(SELECT_UNANALYZED)
           .bind("start", start.format(formatter))
           .bind("end", end.format(formatter))
           .mapTo(UserQuery.class)
@@ -68,6 +181,83 @@ public class Sink extends DbSink {
     });
   }
 
+  /**
+   * Get a page of mysql user queries. Queries are ordered by id, so the next page starts after
+   * the id of the last query of a page.
+   * @param handle JDBI Handle that manages the connection to the database
+   * @param start Start time of range
+   * @param end End time of range
+   * @param afterId Only queries with a larger id are returned
+   * @param limit Maximum number of queries in the page
+   * @return List of UserQuery
+   */
+  public List<UserQuery> selectUserQueries(Handle handle, LocalDateTime start, LocalDateTime end,
+                                           long afterId, int limit) {
+    handle.registerRowMapper(BeanMapper.factory(UserQuery.class));
+    return handle.createQuery(SELECT_UNANALYZED + " and id > :afterId order by id limit :limit")
+        .bind("start", start.format(formatter))
+        .bind("end", end.format(formatter))
+        .bind("afterId", afterId)
+        .bind("limit", limit)
+        .setFetchSize(limit)
+        .mapTo(UserQuery.class)
+        .list();
+  }
+
+  /**
+   * Stream mysql user queries in the order of id. Queries are read a page at a time, each
+   * with its own handle, so only one page is in memory and no cursor is open between pages.
+   * @param start Start time of range
+   * @param end End time of range
+   * @param afterId Only queries with a larger id are returned. 0 to start at the first query
+   * @param fetchSize Number of queries in a page
+   * @return Stream of UserQuery
+   */
+  public Stream<UserQuery> streamUserQueries(LocalDateTime start, LocalDateTime end,
+                                             long afterId, int fetchSize) {
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+        new UserQueryPages(start, end, afterId, fetchSize),
+        Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+  private class UserQueryPages implements Iterator<UserQuery> {
+    private final LocalDateTime start;
+    private final LocalDateTime end;
+    private final int fetchSize;
+    private long lastId;
+    private List<UserQuery> page = Collections.emptyList();
+    private int next = 0;
+    private boolean lastPage = false;
+
+    UserQueryPages(LocalDateTime start, LocalDateTime end, long afterId, int fetchSize) {
+      this.start = start;
+      this.end = end;
+      this.lastId = afterId;
+      this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == page.size() && !lastPage) {
+        page = withHandle(handle -> selectUserQueries(handle, start, end, lastId, fetchSize));
+        next = 0;
+        lastPage = page.size() < fetchSize;
+        if (!page.isEmpty()) {
+          lastId = page.get(page.size() - 1).getId();
+        }
+      }
+      return next < page.size();
+    }
+
+    @Override
+    public UserQuery next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return page.get(next++);
+    }
+  }
+
   /**
    * Get a UserQuery by id.
    * @param id Long id of the query
@@ -88,26 +278,131 @@ public class Sink extends DbSink {
    * @param userQuery A POJO of User Query
    */
   public int insertUserQuery(Handle handle, UserQuery userQuery) {
-    return handle.createUpdate("insert into user_queries("
-        + "log_time,"
-        + "user_host,"
-        + "ip_address,"
-        + "connection_id,"
-        + "query_time,"
-        + "lock_time,"
-        + "rows_sent,"
-        + "rows_examined,"
-        + "query,"
-        + "digest_hash"
-        + ") values ("
-        + ":logTime, :userHost, :ipAddress, :connectionId, :queryTime, :lockTime, :rowsSent, "
-        + ":rowsExamined, :query, :digestHash)")
+    return handle.createUpdate(INSERT_USER_QUERY)
         .bindBean(userQuery)
         .executeAndReturnGeneratedKeys()
         .mapTo(int.class)
         .findOnly();
   }
 
+  /**
+   * Insert UserQuery rows into user_queries table in one batch.
+   * @param handle JDBI Handle that manages the connection to the database
+   * @param userQueries POJOs of User Query
+   * @return Returns the IDs of the new rows in the order of userQueries
+   */
+  public List<Integer> insertUserQueries(Handle handle, List<? extends UserQuery> userQueries) {
+    return insertBatch(handle, INSERT_USER_QUERY, userQueries);
+  }
+
+  /**
+   * Insert UserQuery rows that are not in user_queries yet. A row is skipped if a row with the
+   * same {@link UserQuery#fingerprint()} exists, so a log can be parsed again without
+   * duplicate rows.
+   * @param handle JDBI Handle that manages the connection to the database
+   * @param userQueries POJOs of User Query
+   * @return Returns the number of rows that were inserted
+   */
+  public int insertNewUserQueries(Handle handle, List<? extends UserQuery> userQueries) {
+    if (userQueries.isEmpty()) {
+      return 0;
+    }
+    PreparedBatch batch = handle.prepareBatch(insertIgnore() + INSERT_NEW_USER_QUERY);
+    for (UserQuery userQuery : userQueries) {
+      batch.bindBean(userQuery)
+          .bind("fingerprint", userQuery.fingerprint())
+          .add();
+    }
+    return IntStream.of(batch.execute()).filter(count -> count > 0).sum();
+  }
+
+  /**
+   * Get the fingerprints of user queries that are in the database.
+   * @param handle JDBI Handle that manages the connection to the database
+   * @param fingerprints Fingerprints to look up
+   * @return Returns the fingerprints that are in the database
+   */
+  public Set<String> getFingerprints(Handle handle, Collection<String> fingerprints) {
+    return selectIn(handle, "select fingerprint from user_queries where fingerprint in (<values>)",
+        fingerprints);
+  }
+
+  /*
+   * Select the values of a query with an IN list, in parts of VALUES_PER_QUERY values.
+   */
+  private static Set<String> selectIn(Handle handle, String sql, Collection<String> values) {
+    Set<String> stored = new HashSet<>();
+    for (List<String> part : Lists.partition(new ArrayList<>(values), VALUES_PER_QUERY)) {
+      stored.addAll(handle.createQuery(sql)
+          .bindList("values", part)
+          .mapTo(String.class)
+          .list());
+    }
+    return stored;
+  }
+
+  /**
+   * Count the user queries that have a fingerprint.
+   * @param handle JDBI Handle that manages the connection to the database
+   * @return Number of rows
+   */
+  public long countFingerprints(Handle handle) {
+    return handle.createQuery(
+        "select count(*) from user_queries where fingerprint is not null")
+        .mapTo(long.class)
+        .findOnly();
+  }
+
+  /**
+   * Pass the fingerprints of all user queries to a consumer. The rows are streamed, so the
+   * fingerprints are not held in memory.
+   * @param handle JDBI Handle that manages the connection to the database
+   * @param consumer Consumer of the fingerprints
+   */
+  public void forEachFingerprint(Handle handle, Consumer<String> consumer) {
+    try (Stream<String> fingerprints = handle.createQuery(
+        "select fingerprint from user_queries where fingerprint is not null")
+        .setFetchSize(10000)
+        .mapTo(String.class)
+        .stream()) {
+      fingerprints.forEach(consumer);
+    }
+  }
+
+  /*
+   * Insert beans with one prepared statement. The SQLite driver only returns the key of the
+   * last row, so the keys are counted back from it. Rows have to be inserted in a transaction,
+   * so that no other writer gets keys in between. Callers usually hold one already, since JDBI
+   * does not nest transactions a new one is only opened when the handle is not in one.
+   */
+  private List<Integer> insertBatch(Handle handle, String sql, List<?> beans) {
+    if (beans.isEmpty()) {
+      return Collections.emptyList();
+    }
+    if (handle.isInTransaction()) {
+      return executeBatch(handle, sql, beans);
+    }
+    return handle.inTransaction(txHandle -> executeBatch(txHandle, sql, beans));
+  }
+
+  private List<Integer> executeBatch(Handle handle, String sql, List<?> beans) {
+    PreparedBatch batch = handle.prepareBatch(sql);
+    beans.forEach(bean -> batch.bindBean(bean).add());
+    if (!isSqlite()) {
+      return batch.executeAndReturnGeneratedKeys("id").mapTo(int.class).list();
+    }
+
+    batch.execute();
+    int last = handle.createQuery("select last_insert_rowid()")
+        .mapTo(int.class)
+        .findOnly();
+    List<Integer> ids = new ArrayList<>(beans.size());
+    for (int id = last - beans.size() + 1; id <= last; id++) {
+      ids.add(id);
+    }
+    return ids;
+  }
+
   /**
    * Update one UserQuery record.
    * @param userQuery A POJO of user query
@@ -133,8 +428,12 @@ public class Sink extends DbSink {
   }
 
   /**
-   * Insert one row of QueryAttribute to query_attributes.
+   * Insert one row of QueryAttribute to query_attributes if its digest is not known yet, and
+   * set the digest_hash of a user query.
+   * @param handle JDBI Handle that manages the connection to the database
+   * @param userQuery User query of the attribute
    * @param queryAttribute The POJO to insert
+   * @return Returns the ID of the new row if the digest was inserted
    */
   public Optional<Long> setQueryAttribute(
       Handle handle,
@@ -142,27 +441,21 @@ public class Sink extends DbSink {
       QueryAttribute queryAttribute) {
     Optional<Long> attributeOptional = Optional.empty();
 
-    Optional<QueryAttribute> attribute = handle.createQuery("select * from query_attributes "
-        + "where digest_hash = :digestHash")
-        .bind("digestHash", queryAttribute.digestHash)
-        .mapTo(QueryAttribute.class)
-        .findFirst();
-
-    if (!attribute.isPresent()) {
-      attributeOptional = Optional.of(handle.createUpdate("insert into query_attributes ("
-          + "digest, "
-          + "digest_hash"
-          + ") values ("
-          + ":digest, :digestHash)")
-          .bindFields(queryAttribute)
-          .executeAndReturnGeneratedKeys()
-          .mapTo(Long.class)
-          .findOnly());
+    if (knownDigests.getIfPresent(queryAttribute.digestHash) == null) {
+      Update insert = handle.createUpdate(insertIgnore() + INSERT_QUERY_ATTRIBUTE)
+          .bindFields(queryAttribute);
+      if (!isSqlite()) {
+        attributeOptional = insert.executeAndReturnGeneratedKeys()
+            .mapTo(Long.class)
+            .findFirst();
+      } else if (insert.execute() > 0) {
+        attributeOptional = handle.createQuery("select last_insert_rowid()")
+            .mapTo(Long.class)
+            .findFirst();
+      }
     }
 
-    handle.createUpdate("update user_queries set "
-          + "digest_hash=:digestHash"
-          + " where id=:id")
+    handle.createUpdate(UPDATE_DIGEST_HASH)
           .bind("id", userQuery.getId())
           .bind("digestHash", queryAttribute.digestHash)
           .execute();
@@ -170,28 +463,81 @@ public class Sink extends DbSink {
     return attributeOptional;
   }
 
+  /**
+   * Insert the digests that are not in query_attributes yet and set the digest_hash of user
+   * queries. Digests are inserted in one batch and user queries are updated in another.
+   * The hashes of the digests are added to newDigests. Pass them to
+   * {@link #addKnownDigests(Collection)} after the transaction commits.
+   * @param handle JDBI Handle that manages the connection to the database
+   * @param userQueries User queries with the digest hash set
+   * @param queryAttributes Attributes of the digests of the user queries
+   * @param newDigests Set of the hashes that were inserted or ignored
+   * @return Returns the number of digests that were inserted
+   */
+  public int setQueryAttributes(Handle handle, List<UserQuery> userQueries,
+                                Collection<QueryAttribute> queryAttributes,
+                                Set<String> newDigests) {
+    int inserted = 0;
+    PreparedBatch insert = handle.prepareBatch(insertIgnore() + INSERT_QUERY_ATTRIBUTE);
+    for (QueryAttribute attribute : queryAttributes) {
+      if (knownDigests.getIfPresent(attribute.digestHash) == null
+          && newDigests.add(attribute.digestHash)) {
+        insert.bindFields(attribute).add();
+      }
+    }
+    if (insert.size() > 0) {
+      inserted = IntStream.of(insert.execute()).sum();
+    }
+
+    if (!userQueries.isEmpty()) {
+      PreparedBatch update = handle.prepareBatch(UPDATE_DIGEST_HASH);
+      userQueries.forEach(userQuery -> update.bindBean(userQuery).add());
+      update.execute();
+    }
+    return inserted;
+  }
+
+  /**
+   * Skip inserts of digests that are in query_attributes. Only add hashes of rows that are
+   * committed, or a rolled back digest is never inserted again.
+   * @param digestHashes Hashes of committed digests
+   */
+  public void addKnownDigests(Collection<String> digestHashes) {
+    digestHashes.forEach(digestHash -> knownDigests.put(digestHash, Boolean.TRUE));
+  }
+
+  /*
+   * The start of an insert that skips rows whose key is in the table.
+   */
+  private String insertIgnore() {
+    return isSqlite() ? "insert or ignore" : "insert ignore";
+  }
+
   /**
    * Insert a transaction into a database.
    * @param handle JDBI Handle that manages the connection to the database
    * @param transaction Transaction to be inserted
    */
   public void insertTransaction(Handle handle, Transaction transaction) {
-    handle.createUpdate("insert into transactions("
-        + "id,"
-        + "thread,"
-        + "query,"
-        + "start_time,"
-        + "wait_start_time,"
-        + "lock_mode,"
-        + "lock_type,"
-        + "lock_table,"
-        + "lock_index,"
-        + "lock_data) values (:id, :thread, :query, :startTime, :waitStartTime,"
-        + ":lockMode, :lockType, :lockTable, :lockIndex, :lockData)")
+    handle.createUpdate(INSERT_TRANSACTION)
         .bindBean(transaction)
         .execute();
   }
 
+  /**
+   * Insert transactions into a database in one batch.
+   * @param handle JDBI Handle that manages the connection to the database
+   * @param transactions Transactions to be inserted
+   */
+  public void insertTransactions(Handle handle, Collection<Transaction> transactions) {
+    if (transactions.isEmpty()) {
+      return;
+    }
+    PreparedBatch batch = handle.prepareBatch(INSERT_TRANSACTION);
+    transactions.forEach(transaction -> batch.bindBean(transaction).add());
+    batch.execute();
+  }
+
   /**
    * Get a @Transaction object from a database.
    * @param handle Connection to the database managed by JDBI
@@ -206,6 +552,16 @@ public class Sink extends DbSink {
         .findFirst();
   }
 
+  /**
+   * Get the IDs of transactions that are in the database.
+   * @param handle Connection to the database managed by JDBI
+   * @param ids IDs of transactions to look up
+   * @return Returns the IDs that are in the database
+   */
+  public Set<String> getTransactionIds(Handle handle, Collection<String> ids) {
+    return selectIn(handle, "select id from transactions where id in (<values>)", ids);
+  }
+
   /**
    * Insert a LongTxn object to the database.
    * @param handle Connection to the database managed by JDBI
@@ -213,15 +569,23 @@ public class Sink extends DbSink {
    * @return Returns an ID to the new row
    */
   public int insertLongTxn(Handle handle, LongTxnParser.LongTxn longTxn) {
-    return handle.createUpdate("insert into long_txns("
-        + "log_time,"
-        + "transaction_id) values (:logTime, :transactionId)")
+    return handle.createUpdate(INSERT_LONG_TXN)
         .bindBean(longTxn)
         .executeAndReturnGeneratedKeys()
         .mapTo(int.class)
         .findOnly();
   }
 
+  /**
+   * Insert LongTxn objects to the database in one batch.
+   * @param handle Connection to the database managed by JDBI
+   * @param longTxns Objects to be stored
+   * @return Returns the IDs of the new rows in the order of longTxns
+   */
+  public List<Integer> insertLongTxns(Handle handle, List<LongTxnParser.LongTxn> longTxns) {
+    return insertBatch(handle, INSERT_LONG_TXN, longTxns);
+  }
+
   /**
    * Insert a LockWait object to the database.
    * @param handle Connection to the database managed by JDBI
@@ -229,13 +593,48 @@ public class Sink extends DbSink {
    * @return Returns an ID to the new row
    */
   public int insertLockWait(Handle handle, InnodbLockWait lockWait) {
-    return handle.createUpdate("insert into lock_waits("
-        + "log_time,"
-        + "waiting_id,"
-        + "blocking_id) values (:logTime, :waitingId, :blockingId)")
+    return handle.createUpdate(INSERT_LOCK_WAIT)
         .bindBean(lockWait)
         .executeAndReturnGeneratedKeys()
         .mapTo(int.class)
         .findOnly();
   }
+
+  /**
+   * Insert LockWait objects to the database in one batch.
+   * @param handle Connection to the database managed by JDBI
+   * @param lockWaits Objects to be stored
+   * @return Returns the IDs of the new rows in the order of lockWaits
+   */
+  public List<Integer> insertLockWaits(Handle handle, List<InnodbLockWait> lockWaits) {
+    return insertBatch(handle, INSERT_LOCK_WAIT, lockWaits);
+  }
+
+  /**
+   * Get the offset up to which a log file has been parsed.
+   * @param handle Connection to the database managed by JDBI
+   * @param path Path of the log file
+   * @return Returns an Optional with the offset of the log file
+   */
+  public Optional<LogOffset> getLogOffset(Handle handle, String path) {
+    return handle.createQuery("select * from log_offsets where path = :path")
+        .bind("path", path)
+        .mapTo(LogOffset.class)
+        .findFirst();
+  }
+
+  /**
+   * Store the offset up to which a log file has been parsed. Store it in the same transaction
+   * as the rows parsed from the file, so that they are never read twice.
+   * @param handle Connection to the database managed by JDBI
+   * @param logOffset Offset to be stored
+   */
+  public void setLogOffset(Handle handle, LogOffset logOffset) {
+    handle.createUpdate("replace into log_offsets("
+        + "path,"
+        + "file_key,"
+        + "position) values (:path, :fileKey, :position)")
+        .bindBean(logOffset)
+        .execute();
+  }
 }
@@ -0,0 +1,351 @@
+package io.dblint.mart.metricsink.mysql;
+
+/**
+ * Hand written scanner for the header lines of a slow query log entry. It accepts the same
+ * lines as the regular expressions it replaced and reads numbers straight from the line,
+ * without creating a Matcher or substrings.
+ */
+final class SlowLogScanner {
+  private static final String TIME = "# Time: ";
+  private static final String USER_HOST = "# User@Host: ";
+  private static final String QUERY_TIME = "# Query_time: ";
+  private static final String LOCK_TIME = "Lock_time: ";
+  private static final String ROWS_SENT = "Rows_sent: ";
+  private static final String ROWS_EXAMINED = "Rows_examined: ";
+  private static final String SET = "SET";
+  private static final String TIMESTAMP = "timestamp=";
+  private static final String ID = "Id:";
+
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private SlowLogScanner() {
+  }
+
+  static boolean isWhitespace(char value) {
+    return value == ' ' || value == '\t' || value == '\n' || value == '\u000B'
+        || value == '\f' || value == '\r';
+  }
+
+  static boolean isDigit(char value) {
+    return value >= '0' && value <= '9';
+  }
+
+  static boolean startsWith(CharSequence line, int from, String prefix) {
+    if (from < 0 || line.length() - from < prefix.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (line.charAt(from + i) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static int indexOf(CharSequence line, String text, int from) {
+    int last = line.length() - text.length();
+    for (int i = Math.max(from, 0); i <= last; i++) {
+      if (startsWith(line, i, text)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int indexOf(CharSequence line, char value, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (line.charAt(i) == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int lastIndexOf(CharSequence line, char value, int from, int lowest) {
+    for (int i = from; i >= lowest; i--) {
+      if (line.charAt(i) == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int skipWhitespace(CharSequence line, int pos) {
+    while (pos < line.length() && isWhitespace(line.charAt(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static int skipDigits(CharSequence line, int pos) {
+    while (pos < line.length() && isDigit(line.charAt(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static int skipDecimal(CharSequence line, int pos) {
+    while (pos < line.length() && (isDigit(line.charAt(pos)) || line.charAt(pos) == '.')) {
+      pos++;
+    }
+    return pos;
+  }
+
+  /**
+   * Parse a run of digits and dots as a double. Short numbers are computed as a long mantissa
+   * divided by an exact power of ten, which rounds the same as Double.parseDouble.
+   */
+  static double parseDouble(CharSequence line, int start, int end) {
+    long mantissa = 0;
+    int scale = -1;
+    int digits = 0;
+    for (int i = start; i < end; i++) {
+      char value = line.charAt(i);
+      if (value == '.') {
+        if (scale >= 0) {
+          return Double.parseDouble(line.subSequence(start, end).toString());
+        }
+        scale = 0;
+      } else {
+        mantissa = mantissa * 10 + (value - '0');
+        digits++;
+        if (scale >= 0) {
+          scale++;
+        }
+      }
+    }
+    if (digits == 0 || digits > 15 || scale >= POWERS_OF_TEN.length) {
+      return Double.parseDouble(line.subSequence(start, end).toString());
+    }
+    return scale <= 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+  }
+
+  static long parseLong(CharSequence line, int start, int end) {
+    if (end - start > 18) {
+      return Long.parseLong(line.subSequence(start, end).toString());
+    }
+    long value = 0;
+    for (int i = start; i < end; i++) {
+      value = value * 10 + (line.charAt(i) - '0');
+    }
+    return value;
+  }
+
+  static boolean isTimeLine(CharSequence line) {
+    return startsWith(line, 0, TIME);
+  }
+
+  /**
+   * Scan a "# User@Host: user[user] @ host [ip]  Id: 12" line. Like the greedy regular
+   * expression it replaces, the user part ends at the last "] @ [" that can be followed by
+   * an ip and an Id.
+   * @param line Line to scan
+   * @param userQuery Receives user, ip and connection id. Can be null.
+   * @param whole The complete line has to match, not just a part of it
+   * @return true if the line matched
+   */
+  static boolean scanUserHost(CharSequence line, UserQuery userQuery, boolean whole) {
+    int from = 0;
+    while (true) {
+      int start = indexOf(line, USER_HOST, from);
+      if (start < 0 || (whole && start > 0)) {
+        return false;
+      }
+      if (scanUserHostAt(line, start + USER_HOST.length(), userQuery, whole)) {
+        return true;
+      }
+      from = start + 1;
+    }
+  }
+
+  private static boolean scanUserHostAt(CharSequence line, int userStart, UserQuery userQuery,
+                                        boolean whole) {
+    int length = line.length();
+    for (int userEnd = lastIndexOf(line, ']', length - 1, userStart); userEnd >= userStart;
+         userEnd = lastIndexOf(line, ']', userEnd - 1, userStart)) {
+      if (indexOf(line, '[', userStart, userEnd) < 0) {
+        continue;
+      }
+      int pos = skipWhitespace(line, userEnd + 1);
+      if (pos >= length || line.charAt(pos) != '@') {
+        continue;
+      }
+      pos = skipWhitespace(line, pos + 1);
+      if (pos >= length || line.charAt(pos) != '[') {
+        continue;
+      }
+      int ipStart = pos + 1;
+      for (int ipEnd = lastIndexOf(line, ']', length - 1, ipStart); ipEnd >= ipStart;
+           ipEnd = lastIndexOf(line, ']', ipEnd - 1, ipStart)) {
+        int idStart = skipWhitespace(line, ipEnd + 1);
+        if (!startsWith(line, idStart, ID)) {
+          continue;
+        }
+        int digitsStart = skipWhitespace(line, idStart + ID.length());
+        int digitsEnd = skipDigits(line, digitsStart);
+        if (digitsEnd == digitsStart || (whole && digitsEnd != length)) {
+          continue;
+        }
+        if (userQuery != null) {
+          userQuery.setUserHost(line.subSequence(userStart, userEnd + 1).toString());
+          userQuery.setIpAddress(line.subSequence(ipStart, ipEnd).toString());
+          userQuery.setConnectionId(line.subSequence(digitsStart, digitsEnd).toString());
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Scan a "# Query_time: 0.1  Lock_time: 0.0 Rows_sent: 1  Rows_examined: 1" line.
+   * @param line Line to scan
+   * @param userQuery Receives the times and row counts
+   * @return true if the line matched
+   */
+  static boolean scanQueryMetadata(CharSequence line, UserQuery userQuery) {
+    int from = 0;
+    while (true) {
+      int start = indexOf(line, QUERY_TIME, from);
+      if (start < 0) {
+        return false;
+      }
+      if (scanQueryMetadataAt(line, start + QUERY_TIME.length(), userQuery)) {
+        return true;
+      }
+      from = start + 1;
+    }
+  }
+
+  private static boolean scanQueryMetadataAt(CharSequence line, int pos, UserQuery userQuery) {
+    final int queryTimeStart = pos;
+    final int queryTimeEnd = skipDecimal(line, queryTimeStart);
+    if (queryTimeEnd == queryTimeStart) {
+      return false;
+    }
+    pos = skipWhitespace(line, queryTimeEnd);
+    if (!startsWith(line, pos, LOCK_TIME)) {
+      return false;
+    }
+    final int lockTimeStart = pos + LOCK_TIME.length();
+    final int lockTimeEnd = skipDecimal(line, lockTimeStart);
+    if (lockTimeEnd == lockTimeStart) {
+      return false;
+    }
+    pos = skipWhitespace(line, lockTimeEnd);
+    if (!startsWith(line, pos, ROWS_SENT)) {
+      return false;
+    }
+    final int rowsSentStart = pos + ROWS_SENT.length();
+    final int rowsSentEnd = skipDigits(line, rowsSentStart);
+    if (rowsSentEnd == rowsSentStart) {
+      return false;
+    }
+    pos = skipWhitespace(line, rowsSentEnd);
+    if (!startsWith(line, pos, ROWS_EXAMINED)) {
+      return false;
+    }
+    final int rowsExaminedStart = pos + ROWS_EXAMINED.length();
+    final int rowsExaminedEnd = skipDigits(line, rowsExaminedStart);
+    if (rowsExaminedEnd == rowsExaminedStart) {
+      return false;
+    }
+
+    userQuery.setQueryTime(parseDouble(line, queryTimeStart, queryTimeEnd));
+    userQuery.setLockTime(parseDouble(line, lockTimeStart, lockTimeEnd));
+    userQuery.setRowsSent(parseLong(line, rowsSentStart, rowsSentEnd));
+    userQuery.setRowsExamined(parseLong(line, rowsExaminedStart, rowsExaminedEnd));
+    return true;
+  }
+
+  /**
+   * Scan a "SET timestamp=1551308403;" line.
+   * @param line Line to scan
+   * @return the timestamp in epoch seconds or -1 if the line did not match
+   */
+  static long scanSetTimestamp(CharSequence line) {
+    int from = 0;
+    while (true) {
+      int start = indexOf(line, SET, from);
+      if (start < 0) {
+        return -1;
+      }
+      int pos = skipWhitespace(line, start + SET.length());
+      if (pos > start + SET.length() && startsWith(line, pos, TIMESTAMP)) {
+        int digitsStart = pos + TIMESTAMP.length();
+        int digitsEnd = skipDigits(line, digitsStart);
+        if (digitsEnd > digitsStart && digitsEnd < line.length()) {
+          char terminator = line.charAt(digitsEnd);
+          if (terminator == ',' || terminator == '|' || terminator == ';') {
+            return parseLong(line, digitsStart, digitsEnd);
+          }
+        }
+      }
+      from = start + 1;
+    }
+  }
+
+  /**
+   * Check for a "use schema;" line.
+   * @param line Line to check
+   * @return true if the line is a use statement
+   */
+  static boolean isUseStatement(CharSequence line) {
+    if (line.length() < 6 || !startsWith(line, 0, "use") || !isWhitespace(line.charAt(3))) {
+      return false;
+    }
+    for (int i = line.length() - 1; i >= 5; i--) {
+      if (line.charAt(i) == ';') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isLineTerminator(char value) {
+    return value == '\n' || value == '\r' || value == '\u0085' || value == '\u2028'
+        || value == '\u2029';
+  }
+
+  /**
+   * Remove comments in a query. Like the regular expression it replaced, a comment ends at the
+   * first closing marker and cannot span a line terminator.
+   * @param line Query to remove comments from
+   * @return the query without comments
+   */
+  static String removeComments(String line) {
+    int start = line.indexOf("/*");
+    if (start < 0) {
+      return line;
+    }
+
+    StringBuilder builder = new StringBuilder(line.length());
+    int copied = 0;
+    while (start >= 0) {
+      int end = -1;
+      for (int i = start + 2; i < line.length(); i++) {
+        char value = line.charAt(i);
+        if (isLineTerminator(value)) {
+          break;
+        }
+        if (value == '*' && i + 1 < line.length() && line.charAt(i + 1) == '/') {
+          end = i + 2;
+          break;
+        }
+      }
+
+      if (end < 0) {
+        start = line.indexOf("/*", start + 1);
+      } else {
+        builder.append(line, copied, start);
+        copied = end;
+        start = line.indexOf("/*", end);
+      }
+    }
+    builder.append(line, copied, line.length());
+    return builder.toString();
+  }
+}
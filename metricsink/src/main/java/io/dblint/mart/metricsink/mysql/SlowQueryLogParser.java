@@ -10,89 +10,81 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 public class SlowQueryLogParser {
   private static Logger logger = LoggerFactory.getLogger(SlowQueryLogParser.class);
 
-  static Pattern tsLine = Pattern.compile("^# Time: ");
-  static Pattern uhLine = Pattern.compile("# User@Host: (.*\\[.*\\])\\s*@\\s*"
-      + "\\[(.*)\\]\\s*Id:\\s*(\\d+)");
-  static Pattern queryMetadata = Pattern.compile("# Query_time: ([\\d\\.]+)\\s*"
-      + "Lock_time: ([\\d\\.]+)\\s*Rows_sent: (\\d+)\\s*Rows_examined: (\\d+)");
-  static Pattern setStatement = Pattern.compile("SET\\s+timestamp=([0-9]+)[,|;]");
-  static Pattern useStatement = Pattern.compile("^use\\s+.+;");
-  static Pattern comments = Pattern.compile("/\\*(.*)\\*/");
-  static Pattern indexNotUsedMessage = Pattern.compile("index not used");
+  private static final ZoneId UTC = ZoneId.of("UTC");
+  private static final String INDEX_NOT_USED_MESSAGE = "index not used";
 
-  static void parseUhLine(RewindBufferedReader reader, UserQuery userQuery)
+  static String readLineOrThrow(RewindBufferedReader reader)
       throws IOException, MetricAgentException {
     String line = reader.readLine();
-    Matcher matcher = uhLine.matcher(line);
-    if (matcher.find()) {
-      userQuery.setUserHost(matcher.group(1));
-      userQuery.setIpAddress(matcher.group(2));
-      userQuery.setConnectionId(matcher.group(3));
-    } else {
+    if (line == null) {
       throw new MetricAgentException("Line (" + reader.getLineNumber() + ") "
-          + "did not match User Header pattern: '" + line
-          + "' at " + matcher.toString());
+          + "Hit EOF unexpectedly");
+    }
+    return line;
+  }
+
+  static CharSequence readLineSequenceOrThrow(RewindBufferedReader reader)
+      throws IOException, MetricAgentException {
+    CharSequence line = reader.readLineSequence();
+    if (line == null) {
+      throw new MetricAgentException("Line (" + reader.getLineNumber() + ") "
+          + "Hit EOF unexpectedly");
+    }
+    return line;
+  }
+
+  static void parseUhLine(RewindBufferedReader reader, UserQuery userQuery)
+      throws IOException, MetricAgentException {
+    String line = readLineOrThrow(reader);
+    if (!SlowLogScanner.scanUserHost(line, userQuery, false)) {
+      throw new MetricAgentException("Line (" + reader.getLineNumber() + ") "
+          + "did not match User Header pattern: '" + line + "'");
     }
   }
 
   static void parseQueryMetadataLine(RewindBufferedReader reader, UserQuery userQuery)
       throws IOException, MetricAgentException {
-    String line = reader.readLine();
-    Matcher matcher = queryMetadata.matcher(line);
-    if (matcher.find()) {
-      userQuery.setQueryTime(Double.parseDouble(matcher.group(1)));
-      userQuery.setLockTime(Double.parseDouble(matcher.group(2)));
-      userQuery.setRowsSent(Long.parseLong(matcher.group(3)));
-      userQuery.setRowsExamined(Long.parseLong(matcher.group(4)));
-    } else {
+    CharSequence line = readLineSequenceOrThrow(reader);
+    if (!SlowLogScanner.scanQueryMetadata(line, userQuery)) {
       throw new MetricAgentException("Line (" + reader.getLineNumber() + ") "
-          + "did not match Query Metadata pattern: '" + line
-          + "' at " + matcher.toString());
+          + "did not match Query Metadata pattern: '" + line + "'");
     }
   }
 
   static void parseUseStatement(RewindBufferedReader reader)
       throws IOException {
-    String line = reader.readLine();
-    Matcher matcher = useStatement.matcher(line);
-    if (!matcher.find()) {
+    CharSequence line = reader.readLineSequence();
+    if (line == null || !SlowLogScanner.isUseStatement(line)) {
       reader.rewind(line);
     }
   }
 
   static void parseSetStatement(RewindBufferedReader reader, UserQuery userQuery)
       throws IOException, MetricAgentException {
-    String line = reader.readLine();
-    Matcher matcher = setStatement.matcher(line);
-    if (matcher.find()) {
-      ZonedDateTime logTime = ZonedDateTime.ofInstant(
-          Instant.ofEpochSecond(Long.parseLong(matcher.group(1))),
-          ZoneId.of("UTC"));
-      userQuery.setZonedLogTime(logTime);
-    } else {
+    CharSequence line = readLineSequenceOrThrow(reader);
+    long timestamp = SlowLogScanner.scanSetTimestamp(line);
+    if (timestamp < 0) {
       throw new MetricAgentException("Line (" + reader.getLineNumber() + ") "
-          + "did not match Set Statement pattern: '" + line
-          + "' at " + matcher.toString());
+          + "did not match Set Statement pattern: '" + line + "'");
     }
+    userQuery.setZonedLogTime(ZonedDateTime.ofInstant(Instant.ofEpochSecond(timestamp), UTC));
   }
 
   static String replaceComments(String line) {
-    return line.replaceAll("/\\*.*?\\*/", "");
+    return SlowLogScanner.removeComments(line);
   }
 
-  static boolean newSection(String line) {
-    return tsLine.matcher(line).find();
+  static boolean newSection(CharSequence line) {
+    return SlowLogScanner.isTimeLine(line);
   }
 
-  static boolean newQuerySection(String line) {
-    return uhLine.matcher(line).matches();
+  static boolean newQuerySection(CharSequence line) {
+    return SlowLogScanner.scanUserHost(line, null, true);
   }
 
   static UserQuery parseQuery(RewindBufferedReader bufferedReader)
@@ -103,27 +95,40 @@ public class SlowQueryLogParser {
     parseQueryMetadataLine(bufferedReader, query);
     parseUseStatement(bufferedReader);
     parseSetStatement(bufferedReader, query);
-    query.setQuery(replaceComments(bufferedReader.readLine()));
+    query.setQuery(replaceComments(readLineOrThrow(bufferedReader)));
     return query;
   }
 
   static List<UserQuery> parseTimeSection(RewindBufferedReader bufferedReader)
       throws IOException, MetricAgentException {
     List<UserQuery> userQueries = new ArrayList<>();
-    String line = bufferedReader.readLine();
+    parseTimeSection(bufferedReader, userQueries::add);
+    return userQueries;
+  }
+
+  static void parseTimeSection(RewindBufferedReader bufferedReader,
+                               Consumer<UserQuery> consumer)
+      throws IOException, MetricAgentException {
+    parseTimeSection(bufferedReader, TimeWindow.ALL, consumer);
+  }
+
+  static void parseTimeSection(RewindBufferedReader bufferedReader, TimeWindow window,
+                               Consumer<UserQuery> consumer)
+      throws IOException, MetricAgentException {
+    CharSequence line = bufferedReader.readLineSequence();
     while (line != null && newQuerySection(line)) {
       bufferedReader.rewind(line);
-      userQueries.add(parseQuery(bufferedReader));
-      line = bufferedReader.readLine();
+      UserQuery userQuery = parseQuery(bufferedReader);
+      if (!userQuery.getQuery().contains(INDEX_NOT_USED_MESSAGE)
+          && window.contains(userQuery.getZonedLogTime())) {
+        consumer.accept(userQuery);
+      }
+      line = bufferedReader.readLineSequence();
     }
 
     if (line != null) {
       bufferedReader.rewind(line);
     }
-
-    return userQueries.stream().filter(userQuery ->
-        !indexNotUsedMessage.matcher(userQuery.getQuery()).find())
-        .collect(Collectors.toList());
   }
 
   /**
@@ -135,7 +140,33 @@ public class SlowQueryLogParser {
   public static List<UserQuery> parseLog(RewindBufferedReader br)
       throws IOException, MetricAgentException {
     List<UserQuery> userQueries = new ArrayList<>();
+    parseLog(br, userQueries::add);
+    return userQueries;
+  }
 
+  /**
+   * Parses a MySql slow query log file and passes every query to a consumer as soon as it is
+   * parsed. No query is retained by the parser, so memory use does not grow with the log.
+   * @param br BufferReader of the slow query log file
+   * @param consumer Receives queries in the order they appear in the log file
+   * @throws IOException An exception is thrown if the log file cannot be read successfully
+   */
+  public static void parseLog(RewindBufferedReader br, Consumer<UserQuery> consumer)
+      throws IOException, MetricAgentException {
+    parseLog(br, TimeWindow.ALL, consumer);
+  }
+
+  /**
+   * Parses the queries of a MySql slow query log that are in a window of time. Time sections
+   * that end before the window are skipped without building queries.
+   * @param br BufferReader of the slow query log file
+   * @param window Queries outside of this window are dropped
+   * @param consumer Receives queries in the order they appear in the log file
+   * @throws IOException An exception is thrown if the log file cannot be read successfully
+   */
+  public static void parseLog(RewindBufferedReader br, TimeWindow window,
+                              Consumer<UserQuery> consumer)
+      throws IOException, MetricAgentException {
     //Read file header
     int headerLines = 3;
     String lastLine = null;
@@ -147,18 +178,61 @@ public class SlowQueryLogParser {
     if (headerLines > 0) {
       if (lastLine != null && lastLine.strip().startsWith("None")) {
         logger.info("No slow queries");
-        return userQueries;
+        return;
       }
       throw new MetricAgentException("Incomplete slow query log");
     }
 
+    parseSections(br, window, consumer);
+  }
+
+  /**
+   * Parses the time sections of a slow query log that has no file header. Lines outside a
+   * time section are skipped.
+   * @param br BufferReader positioned at the start of a line
+   * @param consumer Receives queries in the order they appear in the log file
+   * @throws IOException An exception is thrown if the log file cannot be read successfully
+   */
+  public static void parseSections(RewindBufferedReader br, Consumer<UserQuery> consumer)
+      throws IOException, MetricAgentException {
+    parseSections(br, TimeWindow.ALL, consumer);
+  }
+
+  /**
+   * Parses the time sections of a slow query log that has no file header and keeps the
+   * queries in a window of time. A "# Time:" line is written when its queries end, so a section
+   * whose header is not after the start of the window is skipped. A header after the end of the
+   * window may still hold a query that started in it, so parsing only stops at a header that is
+   * the maximum query duration of the window after its end. Headers in the older format without
+   * a time zone are never skipped.
+   * @param br BufferReader positioned at the start of a line
+   * @param window Queries outside of this window are dropped
+   * @param consumer Receives queries in the order they appear in the log file
+   * @throws IOException An exception is thrown if the log file cannot be read successfully
+   */
+  public static void parseSections(RewindBufferedReader br, TimeWindow window,
+                                   Consumer<UserQuery> consumer)
+      throws IOException, MetricAgentException {
+    // A "# Time:" line after a SET statement of a skipped section is the text of a query
+    boolean afterSet = false;
     while (br.ready()) {
-      String line = br.readLine();
-      if (newSection(line)) {
-        logger.debug("New Section at line: " + br.getLineNumber());
-        userQueries.addAll(parseTimeSection(br));
+      CharSequence line = br.readLineSequence();
+      if (line == null) {
+        break;
+      }
+      if (!afterSet && newSection(line)) {
+        ZonedDateTime sectionTime = ExtendedSlowQueryLogParser.parseSectionTime(line);
+        if (window.isDoneAtSection(sectionTime)) {
+          logger.debug("Passed the end of the window at line: " + br.getLineNumber());
+          return;
+        }
+        if (!window.isBeforeStart(sectionTime)) {
+          logger.debug("New Section at line: " + br.getLineNumber());
+          parseTimeSection(br, window, consumer);
+        }
+      } else {
+        afterSet = SlowLogScanner.scanSetTimestamp(line) >= 0;
       }
     }
-    return userQueries;
   }
 }
@@ -0,0 +1,106 @@
+package io.dblint.mart.metricsink.mysql;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+
+/**
+ * A range of log times that the log parsers keep. Entries at or before the start and at or
+ * after the end are dropped. Either end may be open.
+ *
+ * <p>Parsers compare the window with the time at the head of a section, so the sections that
+ * are before it are skipped before any entry is built. If the log is ordered by time, a parser
+ * stops at the first entry at or after the end.
+ *
+ * <p>The slow query log writes the head of a section when its queries end, and a long query may
+ * be logged after a short one that started later. Slow query log parsers only stop if the window
+ * has a maximum query duration, at the first head that is that long after the end.
+ */
+public class TimeWindow {
+  public static final TimeWindow ALL = new TimeWindow(null, null, false);
+
+  private final ZonedDateTime start;
+  private final ZonedDateTime end;
+  private final boolean ordered;
+  private final Duration maxQueryDuration;
+
+  /**
+   * Create a window of log times.
+   * @param start Entries have to be after this time. null if there is no start
+   * @param end Entries have to be before this time. null if there is no end
+   * @param ordered true if the times in a log only grow, so that parsing can stop at the end
+   */
+  public TimeWindow(ZonedDateTime start, ZonedDateTime end, boolean ordered) {
+    this(start, end, ordered, null);
+  }
+
+  /**
+   * Create a window of log times that slow query log parsers can stop at.
+   * @param start Entries have to be after this time. null if there is no start
+   * @param end Entries have to be before this time. null if there is no end
+   * @param ordered true if the times in a log only grow, so that parsing can stop at the end
+   * @param maxQueryDuration Longest time that a query of a slow query log runs. null if it is
+   *     not known, so that slow query logs are read to their end
+   */
+  public TimeWindow(ZonedDateTime start, ZonedDateTime end, boolean ordered,
+                    Duration maxQueryDuration) {
+    this.start = start;
+    this.end = end;
+    this.ordered = ordered;
+    this.maxQueryDuration = maxQueryDuration;
+  }
+
+  public ZonedDateTime getStart() {
+    return start;
+  }
+
+  public ZonedDateTime getEnd() {
+    return end;
+  }
+
+  public boolean isOrdered() {
+    return ordered;
+  }
+
+  public Duration getMaxQueryDuration() {
+    return maxQueryDuration;
+  }
+
+  /**
+   * Check if a time is at or before the start. An unknown time is never before the start.
+   */
+  public boolean isBeforeStart(ZonedDateTime time) {
+    return start != null && time != null && !time.isAfter(start);
+  }
+
+  /**
+   * Check if a time is at or after the end. An unknown time is never after the end.
+   */
+  public boolean isAfterEnd(ZonedDateTime time) {
+    return end != null && time != null && !time.isBefore(end);
+  }
+
+  public boolean contains(ZonedDateTime time) {
+    return !isBeforeStart(time) && !isAfterEnd(time);
+  }
+
+  /**
+   * Check if a parser can stop at an entry.
+   * @param time Log time of the entry
+   * @return true if the log is ordered and the time is at or after the end
+   */
+  public boolean isDone(ZonedDateTime time) {
+    return ordered && isAfterEnd(time);
+  }
+
+  /**
+   * Check if a slow query log parser can stop at the head of a section. The queries of the
+   * section and of later sections ended at or after its time, so none of them started before
+   * the end if the time is at least the maximum query duration after the end.
+   * @param sectionTime Time of a "# Time:" line
+   * @return true if the window has a maximum query duration and parsing can stop
+   */
+  public boolean isDoneAtSection(ZonedDateTime sectionTime) {
+    return maxQueryDuration != null && sectionTime != null
+        && isDone(sectionTime.minus(maxQueryDuration));
+  }
+}
@@ -1,6 +1,14 @@
 package io.dblint.mart.metricsink.mysql;
 
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+
 public class UserQuery extends Logged {
+  private static final HashFunction fingerprintHash = Hashing.murmur3_128();
+
   private String userHost;
   private String ipAddress;
   private String connectionId;
@@ -86,4 +94,35 @@ public class UserQuery extends Logged {
   public void setDigestHash(String digestHash) {
     this.digestHash = digestHash;
   }
+
+  /**
+   * Get a hash of the parsed fields of the entry. An entry that is parsed again from an
+   * overlapping log has the same fingerprint. It is not a bean property, so that it is not
+   * part of JSON output.
+   * @return Fingerprint as 32 hex characters
+   */
+  public String fingerprint() {
+    Hasher hasher = fingerprintHash.newHasher();
+    hasher.putLong(logTime == null ? Long.MIN_VALUE : logTime.toInstant().toEpochMilli());
+    putString(hasher, connectionId);
+    putString(hasher, userHost);
+    putString(hasher, ipAddress);
+    hasher.putDouble(queryTime == null ? Double.NaN : queryTime);
+    hasher.putDouble(lockTime == null ? Double.NaN : lockTime);
+    hasher.putLong(rowsSent);
+    hasher.putLong(rowsExamined);
+    putString(hasher, query);
+    return hasher.hash().toString();
+  }
+
+  /*
+   * Strings are prefixed with their length so that adjacent fields cannot run into each other.
+   */
+  private static void putString(Hasher hasher, String value) {
+    if (value == null) {
+      hasher.putInt(-1);
+    } else {
+      hasher.putInt(value.length()).putString(value, StandardCharsets.UTF_8);
+    }
+  }
 }
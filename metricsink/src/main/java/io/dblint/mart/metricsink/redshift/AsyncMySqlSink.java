@@ -0,0 +1,185 @@
+package io.dblint.mart.metricsink.redshift;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.dblint.mart.metricsink.util.PoolSettings;
+import org.flywaydb.core.Flyway;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A MySqlSink that does not write on the thread that inserts a row. Rows are put in a bounded
+ * queue and a writer thread inserts them in batches, one transaction per batch. A batch is
+ * written once it has batchSize rows or flushIntervalMs after the previous write.
+ *
+ * <p>If the queue is full, an insert waits up to offerTimeoutMs for the writer to catch up and
+ * then drops the row. After such a drop the sink is saturated: rows are only queued if there is
+ * space and dropped without waiting otherwise, until the writer writes a batch again. So a slow
+ * MySQL database delays a cron by about offerTimeoutMs, however many rows it inserts.
+ */
+public class AsyncMySqlSink extends MySqlSink {
+  private static Logger logger = LoggerFactory.getLogger(AsyncMySqlSink.class);
+
+  private static final Object STOP = new Object();
+
+  private final BlockingQueue<Object> queue;
+  private final int batchSize;
+  private final long flushIntervalMs;
+  private final long offerTimeoutMs;
+  private final Thread writer;
+  private volatile boolean closed = false;
+  private volatile boolean saturated = false;
+
+  private final Timer flushTimer;
+  private final Counter rowsWritten;
+  private final Counter droppedRows;
+  private final Counter failedFlushes;
+
+  /**
+   * Create a MySqlSink that writes on a writer thread.
+   *
+   * @param url URL of the MySQL Database
+   * @param user user of the MySQL Database
+   * @param password password of the MySQL database
+   * @param metricRegistry MetricRegistry to store JDBI and writer metrics
+   * @param queueSize Number of rows that can wait to be written
+   * @param batchSize Maximum number of rows written in one transaction
+   * @param flushIntervalMs Maximum time in milliseconds a row waits for a batch to fill up
+   * @param offerTimeoutMs Time in milliseconds to wait for space in a full queue
+   * @param poolSettings Settings of the connection pool
+   */
+  public AsyncMySqlSink(String url, String user, String password,
+                        MetricRegistry metricRegistry, int queueSize, int batchSize,
+                        long flushIntervalMs, long offerTimeoutMs, PoolSettings poolSettings) {
+    super(url, user, password, metricRegistry, new Flyway(), poolSettings);
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    this.batchSize = batchSize;
+    this.flushIntervalMs = flushIntervalMs;
+    this.offerTimeoutMs = offerTimeoutMs;
+    this.writer = new Thread(this::write, "mysql-sink-writer");
+    this.writer.setDaemon(true);
+
+    metricRegistry.register("inviscid.mysql_sink.queue_depth", (Gauge<Integer>) queue::size);
+    flushTimer = metricRegistry.timer("inviscid.mysql_sink.flush");
+    rowsWritten = metricRegistry.counter("inviscid.mysql_sink.rows_written");
+    droppedRows = metricRegistry.counter("inviscid.mysql_sink.dropped_rows");
+    failedFlushes = metricRegistry.counter("inviscid.mysql_sink.failed_flushes");
+  }
+
+  /**
+   * Start the writer thread.
+   */
+  public void start() {
+    writer.start();
+  }
+
+  /**
+   * Write the rows in the queue and stop the writer thread. Rows inserted after this call are
+   * dropped.
+   * @throws InterruptedException if the wait for the writer thread is interrupted
+   */
+  public void stop() throws InterruptedException {
+    closed = true;
+    queue.offer(STOP);
+    writer.join();
+  }
+
+  @Override
+  public void insertQueryStats(QueryStats queryStats) {
+    enqueue(queryStats);
+  }
+
+  @Override
+  public void insertBadQueries(UserQuery userQuery) {
+    enqueue(userQuery);
+  }
+
+  @Override
+  public void insertConnections(UserConnection userConnection) {
+    enqueue(userConnection);
+  }
+
+  @Override
+  public void insertRunningQueries(RunningQuery query) {
+    enqueue(query);
+  }
+
+  public long getRowsWritten() {
+    return rowsWritten.getCount();
+  }
+
+  public long getDroppedRows() {
+    return droppedRows.getCount();
+  }
+
+  private void enqueue(Object row) {
+    boolean queued = false;
+    if (!closed) {
+      try {
+        queued = saturated ? queue.offer(row)
+            : queue.offer(row, offerTimeoutMs, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+      if (!queued) {
+        saturated = true;
+      }
+    }
+    if (!queued) {
+      droppedRows.inc();
+      logger.warn("Dropped a " + row.getClass().getSimpleName() + " row");
+    }
+  }
+
+  private void write() {
+    List<Object> batch = new ArrayList<>(batchSize);
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+    boolean done = false;
+
+    while (!done) {
+      Object row = null;
+      long wait = deadline - System.nanoTime();
+      try {
+        // Once closed, the queue is drained without waiting.
+        row = closed || wait <= 0 ? queue.poll() : queue.poll(wait, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException exc) {
+        closed = true;
+      }
+
+      if (row != null && row != STOP) {
+        batch.add(row);
+        queue.drainTo(batch, batchSize - batch.size());
+        batch.remove(STOP);
+      }
+      done = closed && row == null;
+
+      if (done || batch.size() >= batchSize || System.nanoTime() - deadline >= 0) {
+        flush(batch);
+        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+      }
+    }
+  }
+
+  private void flush(List<Object> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    try (Timer.Context context = flushTimer.time()) {
+      insertRows(batch);
+      rowsWritten.inc(batch.size());
+      saturated = false;
+    } catch (RuntimeException exc) {
+      failedFlushes.inc();
+      logger.error("Failed to write " + batch.size() + " rows", exc);
+    }
+    batch.clear();
+  }
+}
@@ -1,16 +1,25 @@
 package io.dblint.mart.metricsink.redshift;
 
 import com.codahale.metrics.MetricRegistry;
+import com.zaxxer.hikari.HikariDataSource;
 import io.dblint.mart.metricsink.util.JdbiTimer;
+import io.dblint.mart.metricsink.util.PoolSettings;
 import org.flywaydb.core.Flyway;
 import org.jdbi.v3.core.Jdbi;
 import org.jdbi.v3.core.mapper.reflect.FieldMapper;
+import org.jdbi.v3.core.statement.PreparedBatch;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class MySqlSink {
   final String url;
   final String user;
   final String password;
   final Flyway flyway;
+  final HikariDataSource dataSource;
   final Jdbi jdbi;
 
   public MySqlSink(String url, String user, String password,
@@ -30,11 +39,28 @@ public class MySqlSink {
 
   public MySqlSink(String url, String user, String password,
                    MetricRegistry metricRegistry, Flyway flyway) {
+    this(url, user, password, metricRegistry, flyway, PoolSettings.DEFAULT);
+  }
+
+  /**
+   * Create a MySqlSink for Redshift metrics that uses a pool of connections.
+   *
+   * @param url URL of the MySQL Database
+   * @param user user of the MySQL Database
+   * @param password password of the MySQL database
+   * @param metricRegistry MetricRegistry to store JDBI and pool metrics
+   * @param flyway Migrations library to setup the MySQL database
+   * @param poolSettings Settings of the connection pool
+   */
+  public MySqlSink(String url, String user, String password,
+                   MetricRegistry metricRegistry, Flyway flyway, PoolSettings poolSettings) {
     this.url = url;
     this.user = user;
     this.password = password;
     this.flyway = flyway;
-    this.jdbi = Jdbi.create(url, user, password);
+    this.dataSource = poolSettings.createDataSource("inviscid.mysql_sink", url, user, password,
+        metricRegistry);
+    this.jdbi = Jdbi.create(dataSource);
     this.jdbi.setSqlLogger(new JdbiTimer(metricRegistry));
   }
 
@@ -42,7 +68,7 @@ public class MySqlSink {
    * Setup MySQL with tables to store metrics.
    */
   public void initialize() {
-    flyway.setDataSource(url, user, password);
+    flyway.setDataSource(dataSource);
     flyway.setLocations("db/redshiftMigrations");
     flyway.migrate();
   }
@@ -51,6 +77,13 @@ public class MySqlSink {
     flyway.clean();
   }
 
+  /**
+   * Close the connections in the pool. The sink cannot be used after this call.
+   */
+  public void shutdown() {
+    dataSource.close();
+  }
+
   /**
    * Insert one QueryStat row into query_stats table in MySQL.
    * @param queryStats A POJO of queryStats
@@ -58,11 +91,7 @@ public class MySqlSink {
   public void insertQueryStats(QueryStats queryStats) {
     jdbi.useHandle(handle -> {
       handle.registerRowMapper(FieldMapper.factory(QueryStats.class));
-      handle.createUpdate("insert into query_stats(db, user, query_group, timestamp_hour, "
-          + "min_duration, avg_duration, median_duration, p75_duration, p90_duration, p95_duration,"
-          + "p99_duration, p999_duration, max_duration) values ("
-          + ":db, :user, :queryGroup, :timestampHour, :minDuration, :avgDuration, :medianDuration, "
-          + ":p75, :p90, :p95, :p99, :p999, :maxDuration)")
+      handle.createUpdate(QueryStats.insertQuery)
           .bindFields(queryStats)
           .execute();
     });
@@ -106,4 +135,39 @@ public class MySqlSink {
           .execute();
     });
   }
+
+  /**
+   * Insert rows of any of the metric POJOs in one transaction. Rows of the same type are
+   * inserted with one JDBC batch.
+   * @param rows QueryStats, UserQuery, UserConnection or RunningQuery objects
+   */
+  public void insertRows(List<?> rows) {
+    Map<Class<?>, List<Object>> byType = new LinkedHashMap<>();
+    for (Object row : rows) {
+      byType.computeIfAbsent(row.getClass(), type -> new ArrayList<>()).add(row);
+    }
+
+    jdbi.useTransaction(handle -> {
+      for (Map.Entry<Class<?>, List<Object>> entry : byType.entrySet()) {
+        PreparedBatch batch = handle.prepareBatch(insertQuery(entry.getKey()));
+        for (Object row : entry.getValue()) {
+          batch.bindFields(row).add();
+        }
+        batch.execute();
+      }
+    });
+  }
+
+  private static String insertQuery(Class<?> type) {
+    if (type == QueryStats.class) {
+      return QueryStats.insertQuery;
+    } else if (type == UserQuery.class) {
+      return UserQuery.insertQuery;
+    } else if (type == UserConnection.class) {
+      return UserConnection.insertQuery;
+    } else if (type == RunningQuery.class) {
+      return RunningQuery.insertQuery;
+    }
+    throw new IllegalArgumentException("No table for " + type.getName());
+  }
 }
@@ -156,4 +156,10 @@ public class QueryStats implements Jdbi {
         + "  0 AS p95,\n"
         + "  0 AS p99,\n"
         + "  0 AS p999,\n";
+
+  static final String insertQuery = "insert into query_stats(db, user, query_group, "
+      + "timestamp_hour, min_duration, avg_duration, median_duration, p75_duration, p90_duration,"
+      + "p95_duration, p99_duration, p999_duration, max_duration) values ("
+      + ":db, :user, :queryGroup, :timestampHour, :minDuration, :avgDuration, :medianDuration, "
+      + ":p75, :p90, :p95, :p99, :p999, :maxDuration)";
 }
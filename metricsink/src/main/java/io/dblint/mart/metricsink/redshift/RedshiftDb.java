@@ -1,7 +1,9 @@
 package io.dblint.mart.metricsink.redshift;
 
 import com.codahale.metrics.MetricRegistry;
+import com.zaxxer.hikari.HikariDataSource;
 import io.dblint.mart.metricsink.util.JdbiTimer;
+import io.dblint.mart.metricsink.util.PoolSettings;
 
 import org.jdbi.v3.core.Jdbi;
 import org.jdbi.v3.core.mapper.reflect.ConstructorMapper;
@@ -13,6 +15,7 @@ public class RedshiftDb implements Agent {
   final String url;
   final String user;
   final String password;
+  final HikariDataSource dataSource;
   final Jdbi jdbi;
 
   /**
@@ -24,13 +27,35 @@ public class RedshiftDb implements Agent {
    */
   public RedshiftDb(String url, String user, String password,
                     MetricRegistry metricRegistry) {
+    this(url, user, password, metricRegistry, PoolSettings.DEFAULT);
+  }
+
+  /**
+   * Manage a pool of connections to a Redshift database.
+   * @param url URL of the Redshift database
+   * @param user User of the Redshift database
+   * @param password Password of the Redshift database
+   * @param metricRegistry MetricRegistry for JDBI and pool metrics
+   * @param poolSettings Settings of the connection pool
+   */
+  public RedshiftDb(String url, String user, String password,
+                    MetricRegistry metricRegistry, PoolSettings poolSettings) {
     this.url = url;
     this.user = user;
     this.password = password;
-    this.jdbi = Jdbi.create(url, user, password);
+    this.dataSource = poolSettings.createDataSource("inviscid.redshift_db", url, user, password,
+        metricRegistry);
+    this.jdbi = Jdbi.create(dataSource);
     jdbi.setSqlLogger(new JdbiTimer(metricRegistry));
   }
 
+  /**
+   * Close the connections in the pool.
+   */
+  public void shutdown() {
+    dataSource.close();
+  }
+
   /**
    * Get QueryStats for a specific time period from Redshift.
    * @param inTest Test parameter to choose a H2 compliant sql
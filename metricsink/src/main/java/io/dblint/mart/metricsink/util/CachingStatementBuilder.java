@@ -0,0 +1,83 @@
+package io.dblint.mart.metricsink.util;
+
+import org.jdbi.v3.core.statement.DefaultStatementBuilder;
+import org.jdbi.v3.core.statement.StatementBuilder;
+import org.jdbi.v3.core.statement.StatementBuilderFactory;
+import org.jdbi.v3.core.statement.StatementContext;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A StatementBuilder that prepares an insert statement once for a handle and reuses it for
+ * every batch of the same SQL. JDBI prepares a new statement for every Update and
+ * PreparedBatch, which is a visible share of the time spent to ingest a log in small batches.
+ *
+ * <p>Only inserts that do not return generated keys are reused. Other statements are
+ * prepared and closed as usual. The reused statements are closed with the handle.
+ */
+public class CachingStatementBuilder implements StatementBuilder {
+  public static final StatementBuilderFactory FACTORY = conn -> new CachingStatementBuilder(
+      DefaultStatementBuilder.FACTORY.createStatementBuilder(conn));
+
+  private final StatementBuilder delegate;
+  private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+  CachingStatementBuilder(StatementBuilder delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public Statement create(Connection conn, StatementContext ctx) throws SQLException {
+    return delegate.create(conn, ctx);
+  }
+
+  @Override
+  public PreparedStatement create(Connection conn, String sql, StatementContext ctx)
+      throws SQLException {
+    if (ctx.isReturningGeneratedKeys() || !isInsert(sql)) {
+      return delegate.create(conn, sql, ctx);
+    }
+    PreparedStatement statement = statements.get(sql);
+    if (statement == null || statement.isClosed()) {
+      statement = delegate.create(conn, sql, ctx);
+      statements.put(sql, statement);
+    }
+    return statement;
+  }
+
+  @Override
+  public CallableStatement createCall(Connection conn, String sql, StatementContext ctx)
+      throws SQLException {
+    return delegate.createCall(conn, sql, ctx);
+  }
+
+  @Override
+  public void close(Connection conn, String sql, Statement stmt) throws SQLException {
+    if (statements.get(sql) != stmt) {
+      delegate.close(conn, sql, stmt);
+    }
+  }
+
+  @Override
+  public void close(Connection conn) {
+    for (PreparedStatement statement : statements.values()) {
+      try {
+        statement.close();
+      } catch (SQLException exc) {
+        // The connection is being closed and closes its statements anyway.
+      }
+    }
+    statements.clear();
+    delegate.close(conn);
+  }
+
+  private static boolean isInsert(String sql) {
+    return sql.regionMatches(true, 0, "insert", 0, "insert".length());
+  }
+}
@@ -0,0 +1,91 @@
+package io.dblint.mart.metricsink.util;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens logs that are archived with gzip or zstd. The compression is detected from the magic
+ * bytes at the start of the file, so the name of the file does not matter.
+ */
+public final class CompressedLogs {
+  public enum Compression {
+    NONE,
+    GZIP,
+    ZSTD
+  }
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private CompressedLogs() {
+  }
+
+  static Compression detect(byte[] magic, int length) {
+    if (length >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+      return Compression.GZIP;
+    } else if (length >= 4 && (magic[0] & 0xff) == 0x28 && (magic[1] & 0xff) == 0xb5
+        && (magic[2] & 0xff) == 0x2f && (magic[3] & 0xff) == 0xfd) {
+      return Compression.ZSTD;
+    }
+    return Compression.NONE;
+  }
+
+  /**
+   * Detect the compression of a file.
+   * @param path Path of the file
+   * @return The compression of the file or NONE
+   * @throws IOException If the file cannot be read
+   */
+  public static Compression detect(Path path) throws IOException {
+    byte[] magic = new byte[4];
+    int length = 0;
+    try (InputStream stream = Files.newInputStream(path)) {
+      while (length < magic.length) {
+        int read = stream.read(magic, length, magic.length - length);
+        if (read < 0) {
+          break;
+        }
+        length += read;
+      }
+    }
+    return detect(magic, length);
+  }
+
+  public static boolean isCompressed(Path path) throws IOException {
+    return detect(path) != Compression.NONE;
+  }
+
+  /**
+   * Open a log and decompress it if it is compressed. The file is read and decompressed on a
+   * thread of its own, which stops when the stream is closed.
+   * @param path Path of the log
+   * @return A stream of the decompressed log
+   * @throws IOException If the file cannot be opened or its header is not valid
+   */
+  public static InputStream open(Path path) throws IOException {
+    Compression compression = detect(path);
+    InputStream file = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE);
+    InputStream stream;
+    try {
+      switch (compression) {
+        case GZIP:
+          stream = new GZIPInputStream(file, BUFFER_SIZE);
+          break;
+        case ZSTD:
+          stream = new ZstdInputStream(file);
+          break;
+        default:
+          stream = file;
+      }
+    } catch (IOException exc) {
+      file.close();
+      throw exc;
+    }
+    return new ReadAheadInputStream(stream, "read-ahead-" + path.getFileName());
+  }
+}
@@ -1,17 +1,24 @@
 package io.dblint.mart.metricsink.util;
 
 import com.codahale.metrics.MetricRegistry;
+import com.zaxxer.hikari.HikariDataSource;
 import org.flywaydb.core.Flyway;
 import org.jdbi.v3.core.Handle;
 import org.jdbi.v3.core.HandleCallback;
 import org.jdbi.v3.core.HandleConsumer;
 import org.jdbi.v3.core.Jdbi;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteDataSource;
+
+import java.util.Properties;
+import javax.sql.DataSource;
 
 public abstract class DbSink {
   final String url;
   final String user;
   final String password;
   final Flyway flyway;
+  final DataSource dataSource;
   protected final Jdbi jdbi;
 
   /**
@@ -26,19 +33,64 @@ public abstract class DbSink {
 
   protected DbSink(String url, String user, String password,
                    MetricRegistry metricRegistry, Flyway flyway) {
+    this(url, user, password, metricRegistry, flyway, PoolSettings.DEFAULT,
+        PoolSettings.poolName("inviscid.db_sink", url));
+  }
+
+  /**
+   * Create a sink that uses a pool of connections. An in-memory SQLite database is not pooled,
+   * since every connection to it opens a new database.
+   *
+   * @param url URL of the database
+   * @param user user of the database
+   * @param password password of the database
+   * @param metricRegistry MetricRegistry to store JDBI and pool metrics
+   * @param flyway Migrations library to setup the database
+   * @param poolSettings Settings of the connection pool
+   * @param poolName Name of the connection pool and prefix of its metrics
+   */
+  protected DbSink(String url, String user, String password, MetricRegistry metricRegistry,
+                   Flyway flyway, PoolSettings poolSettings, String poolName) {
     this.url = url;
     this.user = user;
     this.password = password;
     this.flyway = flyway;
-    this.jdbi = Jdbi.create(url, user, password);
+    if (isInMemorySqlite()) {
+      SQLiteDataSource sqliteDataSource = new SQLiteDataSource(new SQLiteConfig(sqlitePragmas()));
+      sqliteDataSource.setUrl(url);
+      this.dataSource = sqliteDataSource;
+    } else {
+      this.dataSource = poolSettings.createDataSource(poolName, url, user, password,
+          metricRegistry, isSqlite() ? sqlitePragmas() : new Properties());
+    }
+    this.jdbi = Jdbi.create(dataSource);
     this.jdbi.setSqlLogger(new JdbiTimer(metricRegistry));
+    if (isSqlite()) {
+      this.jdbi.setStatementBuilderFactory(CachingStatementBuilder.FACTORY);
+    }
+  }
+
+  /*
+   * Properties of the SQLite driver that set pragmas when a connection is opened. A write-ahead
+   * log lets readers run while a log is ingested and, with synchronous=NORMAL, syncs only at
+   * checkpoints instead of at every commit. A commit survives a crash of the process but may be
+   * lost on a power failure. The journal mode is stored in the database file; the other pragmas
+   * are set on every connection, so they are passed to the driver and not run once.
+   */
+  static Properties sqlitePragmas() {
+    Properties properties = new Properties();
+    properties.setProperty("journal_mode", "WAL");
+    properties.setProperty("synchronous", "NORMAL");
+    properties.setProperty("cache_size", "-16384");
+    properties.setProperty("temp_store", "MEMORY");
+    return properties;
   }
 
   /**
    * Setup MySQL with tables to store metrics.
    */
   public void initialize() {
-    flyway.setDataSource(url, user, password);
+    flyway.setDataSource(dataSource);
     flyway.setLocations(this.getMigrationsPath());
     flyway.migrate();
   }
@@ -47,6 +99,15 @@ public abstract class DbSink {
     flyway.clean();
   }
 
+  /**
+   * Close the connections in the pool. The sink cannot be used after this call.
+   */
+  public void shutdown() {
+    if (dataSource instanceof HikariDataSource) {
+      ((HikariDataSource) dataSource).close();
+    }
+  }
+
   /**
    * A convenience function which manages the lifecycle of a handle and yields it to a callback
    * for use by clients.
@@ -121,6 +182,34 @@ public abstract class DbSink {
     });
   }
 
+  /**
+   * Open a handle with the mappers of this sink registered. The caller owns the handle and
+   * must close it. Useful when a handle has to outlive a single callback, for e.g. while rows
+   * are streamed in from a parser.
+   *
+   * @return an open Handle
+   */
+  public Handle open() {
+    Handle handle = this.jdbi.open();
+    this.registerMappers(handle);
+    return handle;
+  }
+
+  /**
+   * Check if the sink writes to a SQLite database. The SQLite driver only returns the key of
+   * the last row of a batch.
+   *
+   * @return true if the url of the sink is a SQLite url
+   */
+  protected boolean isSqlite() {
+    return url.startsWith("jdbc:sqlite:");
+  }
+
+  private boolean isInMemorySqlite() {
+    return isSqlite() && (url.equals("jdbc:sqlite:") || url.contains(":memory:")
+        || url.contains("mode=memory"));
+  }
+
   protected abstract void registerMappers(Handle handle);
 
   protected abstract String getMigrationsPath();
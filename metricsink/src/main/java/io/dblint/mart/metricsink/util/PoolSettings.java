@@ -0,0 +1,129 @@
+package io.dblint.mart.metricsink.util;
+
+import com.codahale.metrics.MetricRegistry;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.util.Properties;
+
+/**
+ * Settings of the connection pool of a database. Connections are opened when they are first
+ * needed, so a pool can be created before the database is up.
+ */
+public class PoolSettings {
+  public static final PoolSettings DEFAULT = new PoolSettings(10, 0, 600000, 5000, 30000);
+
+  private final int maxPoolSize;
+  private final int minIdle;
+  private final long idleTimeoutMs;
+  private final long validationTimeoutMs;
+  private final long connectionTimeoutMs;
+
+  /**
+   * Create settings for a connection pool.
+   *
+   * @param maxPoolSize Maximum number of connections in the pool
+   * @param minIdle Number of idle connections the pool tries to keep open
+   * @param idleTimeoutMs Time after which an idle connection above minIdle is closed
+   * @param validationTimeoutMs Time to wait for a connection to be checked before it is used
+   * @param connectionTimeoutMs Time to wait for a connection from the pool
+   */
+  public PoolSettings(int maxPoolSize, int minIdle, long idleTimeoutMs,
+                      long validationTimeoutMs, long connectionTimeoutMs) {
+    this.maxPoolSize = maxPoolSize;
+    this.minIdle = minIdle;
+    this.idleTimeoutMs = idleTimeoutMs;
+    this.validationTimeoutMs = validationTimeoutMs;
+    this.connectionTimeoutMs = connectionTimeoutMs;
+  }
+
+  public int getMaxPoolSize() {
+    return maxPoolSize;
+  }
+
+  public int getMinIdle() {
+    return minIdle;
+  }
+
+  public long getIdleTimeoutMs() {
+    return idleTimeoutMs;
+  }
+
+  public long getValidationTimeoutMs() {
+    return validationTimeoutMs;
+  }
+
+  public long getConnectionTimeoutMs() {
+    return connectionTimeoutMs;
+  }
+
+  /**
+   * Name a pool after the database of a URL, so that pools of different databases register
+   * different metrics. The parameters of the URL are left out, since they may hold a password.
+   * For e.g. jdbc:sqlite:/tmp/logs.db is named prefix.sqlite_tmp_logs_db.
+   *
+   * @param prefix Prefix of the name
+   * @param url URL of the database
+   * @return Name of the pool
+   */
+  public static String poolName(String prefix, String url) {
+    String database = url.startsWith("jdbc:") ? url.substring("jdbc:".length()) : url;
+    int end = database.length();
+    for (char separator : new char[] {'?', ';'}) {
+      int index = database.indexOf(separator);
+      if (index >= 0 && index < end) {
+        end = index;
+      }
+    }
+    String name = database.substring(0, end).replaceAll("[^A-Za-z0-9]+", "_")
+        .replaceAll("^_|_$", "");
+    return name.isEmpty() ? prefix : prefix + "." + name;
+  }
+
+  /**
+   * Create a pool of connections to a database. The pool registers gauges of its connections
+   * and a timer of the wait for a connection as poolName.pool.* in the metric registry.
+   *
+   * @param poolName Name of the pool and prefix of its metrics
+   * @param url URL of the database
+   * @param user user of the database
+   * @param password password of the database
+   * @param metricRegistry MetricRegistry to store pool metrics
+   * @return A DataSource backed by the pool
+   */
+  public HikariDataSource createDataSource(String poolName, String url, String user,
+                                           String password, MetricRegistry metricRegistry) {
+    return createDataSource(poolName, url, user, password, metricRegistry, new Properties());
+  }
+
+  /**
+   * Create a pool of connections to a database. The properties are passed to the JDBC driver
+   * when a connection is opened.
+   *
+   * @param poolName Name of the pool and prefix of its metrics
+   * @param url URL of the database
+   * @param user user of the database
+   * @param password password of the database
+   * @param metricRegistry MetricRegistry to store pool metrics
+   * @param driverProperties Properties of every connection
+   * @return A DataSource backed by the pool
+   */
+  public HikariDataSource createDataSource(String poolName, String url, String user,
+                                           String password, MetricRegistry metricRegistry,
+                                           Properties driverProperties) {
+    HikariConfig config = new HikariConfig();
+    config.setDataSourceProperties(driverProperties);
+    config.setPoolName(poolName);
+    config.setJdbcUrl(url);
+    config.setUsername(user);
+    config.setPassword(password);
+    config.setMaximumPoolSize(maxPoolSize);
+    config.setMinimumIdle(minIdle);
+    config.setIdleTimeout(idleTimeoutMs);
+    config.setValidationTimeout(validationTimeoutMs);
+    config.setConnectionTimeout(connectionTimeoutMs);
+    config.setInitializationFailTimeout(-1);
+    config.setMetricRegistry(metricRegistry);
+    return new HikariDataSource(config);
+  }
+}
@@ -0,0 +1,152 @@
+package io.dblint.mart.metricsink.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads another stream on a thread of its own and hands its bytes over in blocks. It is used
+ * to decompress a log while the previous blocks are parsed. The queue of blocks is bounded, so
+ * the reading thread waits when it is too far ahead.
+ *
+ * <p>An exception of the source stream is thrown by this stream after the blocks that were
+ * read before it.
+ */
+public class ReadAheadInputStream extends InputStream {
+  static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+  static final int DEFAULT_QUEUE_SIZE = 16;
+
+  private static final byte[] END = new byte[0];
+
+  private final InputStream source;
+  private final BlockingQueue<byte[]> queue;
+  private final Thread reader;
+
+  private volatile IOException failure;
+  private volatile boolean closed;
+
+  private byte[] block;
+  private int position;
+  private boolean ended;
+
+  public ReadAheadInputStream(InputStream source, String name) {
+    this(source, name, DEFAULT_BLOCK_SIZE, DEFAULT_QUEUE_SIZE);
+  }
+
+  ReadAheadInputStream(InputStream source, String name, int blockSize, int queueSize) {
+    this.source = source;
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    this.reader = new Thread(() -> fill(blockSize), name);
+    this.reader.setDaemon(true);
+    this.reader.start();
+  }
+
+  private int readBlock(byte[] buffer) throws IOException {
+    int length = 0;
+    while (length < buffer.length) {
+      int read = source.read(buffer, length, buffer.length - length);
+      if (read < 0) {
+        break;
+      }
+      length += read;
+    }
+    return length;
+  }
+
+  private void fill(int blockSize) {
+    try {
+      while (!closed) {
+        byte[] buffer = new byte[blockSize];
+        int length = readBlock(buffer);
+        if (length == 0) {
+          break;
+        }
+        queue.put(length == blockSize ? buffer : Arrays.copyOf(buffer, length));
+      }
+    } catch (IOException exc) {
+      failure = exc;
+    } catch (InterruptedException exc) {
+      return;
+    }
+
+    try {
+      queue.put(END);
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private boolean nextBlock() throws IOException {
+    if (ended) {
+      return false;
+    }
+    if (block != null && position < block.length) {
+      return true;
+    }
+
+    try {
+      block = queue.take();
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for " + reader.getName());
+    }
+    position = 0;
+    if (block == END) {
+      ended = true;
+      if (failure != null) {
+        throw failure;
+      }
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!nextBlock()) {
+      return -1;
+    }
+    return block[position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (!nextBlock()) {
+      return -1;
+    }
+    int count = Math.min(length, block.length - position);
+    System.arraycopy(block, position, buffer, offset, count);
+    position += count;
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return block == null ? 0 : block.length - position;
+  }
+
+  /**
+   * Stop the reading thread and close the source stream. The source is only closed after the
+   * thread has stopped, since decompressors cannot be closed while they are in use.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    reader.interrupt();
+    try {
+      reader.join();
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+    source.close();
+  }
+}
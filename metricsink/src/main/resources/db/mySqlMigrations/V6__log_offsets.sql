@@ -0,0 +1,6 @@
+create table log_offsets
+(
+    path varchar(1024) PRIMARY KEY,
+    file_key varchar(256),
+    position bigint
+);
@@ -0,0 +1,10 @@
+-- selectUserQueries looks for queries without a digest in a range of log_time.
+CREATE INDEX user_queries_digest_hash_log_time ON user_queries(digest_hash, log_time);
+CREATE INDEX user_queries_log_time ON user_queries(log_time);
+
+CREATE INDEX lock_waits_log_time ON lock_waits(log_time);
+CREATE INDEX lock_waits_waiting_id ON lock_waits(waiting_id);
+CREATE INDEX lock_waits_blocking_id ON lock_waits(blocking_id);
+
+CREATE INDEX long_txns_log_time ON long_txns(log_time);
+CREATE INDEX long_txns_transaction_id ON long_txns(transaction_id);
@@ -0,0 +1,4 @@
+-- Hash of the parsed fields of a slow query log entry. An entry that is parsed again from an
+-- overlapping or rotated log has the same fingerprint and is not inserted twice.
+ALTER TABLE user_queries ADD COLUMN fingerprint varchar(32);
+CREATE UNIQUE INDEX user_queries_fingerprint ON user_queries(fingerprint);
@@ -0,0 +1,118 @@
+package io.dblint.mart.metricsink.mysql;
+
+import io.dblint.mart.metricsink.util.MetricAgentException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkedSlowQueryLogParserTest {
+  private static final String fileHeader =
+      "/rdsdbbin/mysql/bin/mysqld, Version: 5.7.24-log (Source distribution). started with:\n"
+      + "Tcp port: 3306  Unix socket: /tmp/mysql.sock\n"
+      + "Time                 Id Command    Argument\n";
+
+  private ForkJoinPool pool;
+
+  @BeforeEach
+  void setUp() {
+    pool = new ForkJoinPool(4);
+  }
+
+  @AfterEach
+  void tearDown() {
+    pool.shutdown();
+  }
+
+  private static String entry(int id, String query) {
+    return "# User@Host: dbadmin2[dbadmin2] @  [172.16.2.208]  Id: " + id + "\n"
+        + "# Query_time: 0.000218  Lock_time: 0.000072 Rows_sent: 6  Rows_examined: 12\n"
+        + "SET timestamp=1537887930;\n"
+        + query + "\n";
+  }
+
+  private static Path writeLog(Path dir) throws IOException {
+    StringBuilder builder = new StringBuilder(fileHeader);
+    for (int i = 0; i < 200; i++) {
+      builder.append("# Time: 2019-04-10T05:00:20.766066Z\n");
+      builder.append(entry(i * 10, "SELECT `store_id` FROM `products`;"));
+      if (i % 3 == 0) {
+        builder.append(entry(i * 10 + 1, "SELECT /* ContentId:10 */ 1;"));
+      }
+      if (i % 7 == 0) {
+        // Read as the query of the entry, so it does not start a section
+        builder.append(entry(i * 10 + 2, "# Time: 2019-04-10T05:00:21.766066Z"));
+        builder.append(entry(i * 10 + 3, "SELECT 2;"));
+      }
+      if (i % 11 == 0) {
+        builder.append("/rdsdbbin/mysql/bin/mysqld, Version: 5.7.24-log. started with:\n");
+      }
+    }
+    Path path = dir.resolve("slow.log");
+    Files.write(path, builder.toString().getBytes(StandardCharsets.UTF_8));
+    return path;
+  }
+
+  private static List<String> sequential(Path path) throws IOException, MetricAgentException {
+    try (MappedLogReader reader = new MappedLogReader(path)) {
+      return SlowQueryLogParser.parseLog(reader).stream()
+          .map(query -> query.getConnectionId() + ":" + query.getQuery())
+          .collect(Collectors.toList());
+    }
+  }
+
+  @Test
+  void boundariesStartAtTimeLines(@TempDir Path tempDir) throws IOException {
+    Path path = writeLog(tempDir);
+    List<Long> boundaries = ChunkedSlowQueryLogParser.boundaries(path, 256);
+    assertTrue(boundaries.size() > 10);
+    byte[] bytes = Files.readAllBytes(path);
+    for (long boundary : boundaries.subList(1, boundaries.size())) {
+      String line = new String(bytes, (int) boundary, 7, StandardCharsets.UTF_8);
+      assertEquals("# Time:", line);
+    }
+  }
+
+  @Test
+  void sameAsSequential(@TempDir Path tempDir) throws IOException, MetricAgentException {
+    Path path = writeLog(tempDir);
+    List<String> expected = sequential(path);
+
+    List<String> queries = new ArrayList<>();
+    new ChunkedSlowQueryLogParser(pool, 128, null).parseLog(path,
+        query -> queries.add(query.getConnectionId() + ":" + query.getQuery()));
+    assertEquals(expected, queries);
+  }
+
+  @Test
+  void smallFile(@TempDir Path tempDir) throws IOException, MetricAgentException {
+    Path path = tempDir.resolve("none.log");
+    Files.write(path, "None\n".getBytes(StandardCharsets.UTF_8));
+    List<UserQuery> queries = new ArrayList<>();
+    new ChunkedSlowQueryLogParser(pool, 128, null).parseLog(path, queries::add);
+    assertEquals(0, queries.size());
+  }
+
+  @Test
+  void truncatedEntry(@TempDir Path tempDir) throws IOException {
+    Path path = tempDir.resolve("truncated.log");
+    String log = fileHeader + "# Time: 2019-04-10T05:00:20.766066Z\n"
+        + "# User@Host: dbadmin2[dbadmin2] @  [172.16.2.208]  Id: 1\n";
+    Files.write(path, log.getBytes(StandardCharsets.UTF_8));
+    assertThrows(MetricAgentException.class, () ->
+        new ChunkedSlowQueryLogParser(pool, 128, null).parseLog(path, query -> { }));
+  }
+}
@@ -0,0 +1,93 @@
+package io.dblint.mart.metricsink.mysql;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DayPartitionsTest {
+  private final MetricRegistry registry = new MetricRegistry();
+  private DayPartitions partitions;
+
+  @BeforeEach
+  void setPartitions(@TempDir Path tempDir) {
+    partitions = new DayPartitions(tempDir.resolve("partitions"), registry, 2);
+  }
+
+  @AfterEach
+  void shutdown() {
+    partitions.shutdown();
+  }
+
+  private void insert(String connectionId, ZonedDateTime logTime) throws IOException {
+    UserQuery query = new UserQuery();
+    query.setConnectionId(connectionId);
+    query.setZonedLogTime(logTime);
+    Sink sink = partitions.partition(DayPartitions.dayOf(logTime));
+    sink.useHandle(handle -> sink.insertUserQuery(handle, query));
+  }
+
+  @Test
+  void dayOfStoredLogTime() {
+    // 20:00 UTC is the next day at +05:30.
+    assertEquals(LocalDate.of(2019, 4, 11), DayPartitions.dayOf(
+        ZonedDateTime.of(LocalDateTime.of(2019, 4, 10, 20, 0), ZoneOffset.UTC)));
+  }
+
+  @Test
+  void rangeReadsOnlyItsDays() throws IOException {
+    ZoneOffset offset = ZoneOffset.ofHoursMinutes(5, 30);
+    insert("1", ZonedDateTime.of(LocalDateTime.of(2019, 4, 10, 10, 0), offset));
+    insert("2", ZonedDateTime.of(LocalDateTime.of(2019, 4, 11, 10, 0), offset));
+    insert("3", ZonedDateTime.of(LocalDateTime.of(2019, 4, 11, 23, 0), offset));
+    insert("4", ZonedDateTime.of(LocalDateTime.of(2019, 4, 13, 10, 0), offset));
+    Files.createFile(partitions.getDirectory().resolve("notes.sqlite"));
+    partitions.shutdown();
+
+    assertEquals(Arrays.asList(LocalDate.of(2019, 4, 11), LocalDate.of(2019, 4, 13)),
+        partitions.days(LocalDate.of(2019, 4, 11), LocalDate.of(2019, 4, 30)));
+
+    List<UserQuery> queries = partitions.selectUserQueries(
+        LocalDateTime.of(2019, 4, 11, 0, 0), LocalDateTime.of(2019, 4, 11, 12, 0));
+    assertEquals(Arrays.asList("2"),
+        queries.stream().map(UserQuery::getConnectionId).collect(Collectors.toList()));
+    assertTrue(Files.exists(partitions.getDirectory().resolve("2019-04-11.sqlite")));
+    assertFalse(Files.exists(partitions.getDirectory().resolve("2019-04-12.sqlite")));
+  }
+
+  @Test
+  void leastRecentPartitionsAreClosed() throws IOException {
+    ZoneOffset offset = ZoneOffset.ofHoursMinutes(5, 30);
+    for (int day = 1; day <= 5; day++) {
+      insert(String.valueOf(day), ZonedDateTime.of(LocalDateTime.of(2019, 4, day, 10, 0), offset));
+      assertTrue(partitions.openPartitions() <= 2);
+    }
+    assertTrue(registry.getNames().stream()
+        .noneMatch(name -> name.startsWith("inviscid.partition.2019-04-01")));
+    assertTrue(registry.getNames().stream()
+        .anyMatch(name -> name.startsWith("inviscid.partition.2019-04-05")));
+
+    // A closed partition is opened again
+    List<UserQuery> queries = partitions.selectUserQueries(
+        LocalDateTime.of(2019, 4, 1, 0, 0), LocalDateTime.of(2019, 4, 5, 23, 0));
+    assertEquals(Arrays.asList("1", "2", "3", "4", "5"),
+        queries.stream().map(UserQuery::getConnectionId).collect(Collectors.toList()));
+    assertEquals(2, partitions.openPartitions());
+  }
+}
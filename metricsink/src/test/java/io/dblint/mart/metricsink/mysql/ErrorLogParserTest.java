@@ -13,6 +13,7 @@ import java.io.StringReader;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -144,4 +145,25 @@ class ErrorLogParserTest {
     List<Deadlock> deadlocks = ErrorLogParser.parse(reader);
     assertEquals(2, deadlocks.size());
   }
-}
\ No newline at end of file
+
+  @Test
+  void testErrorLogInWindow() throws IOException, MetricAgentException {
+    ZoneOffset offset = ZoneOffset.ofHoursMinutes(5, 30);
+    TimeWindow before = new TimeWindow(null,
+        ZonedDateTime.of(LocalDateTime.of(2019, 2, 25, 7, 58), offset), true);
+    TimeWindow around = new TimeWindow(
+        ZonedDateTime.of(LocalDateTime.of(2019, 2, 25, 7, 58), offset),
+        ZonedDateTime.of(LocalDateTime.of(2019, 2, 25, 7, 59), offset), true);
+
+    List<Deadlock> deadlocks = new ArrayList<>();
+    ErrorLogParser.parse(new RewindBufferedReader(new InputStreamReader(
+        this.getClass().getClassLoader().getResourceAsStream("error_logs/errorlog_01"))),
+        before, deadlocks::add);
+    assertEquals(0, deadlocks.size());
+
+    ErrorLogParser.parse(new RewindBufferedReader(new InputStreamReader(
+        this.getClass().getClassLoader().getResourceAsStream("error_logs/errorlog_01"))),
+        around, deadlocks::add);
+    assertEquals(2, deadlocks.size());
+  }
+}
@@ -0,0 +1,286 @@
+package io.dblint.mart.metricsink.mysql;
+
+import io.dblint.mart.metricsink.util.MetricAgentException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExtendedSlowQueryLogParserTest {
+  private List<ExtendedUserQuery> parseResource(String file)
+      throws IOException, MetricAgentException {
+    RewindBufferedReader reader = new RewindBufferedReader(new InputStreamReader(
+        this.getClass().getClassLoader().getResourceAsStream(file)));
+    return new ExtendedSlowQueryLogParser().parseLog(reader);
+  }
+
+  @Test
+  void perconaFields() throws IOException, MetricAgentException {
+    List<ExtendedUserQuery> queries = parseResource("slow_logs/slowlog_03");
+    assertEquals(3, queries.size());
+
+    ExtendedUserQuery query = queries.get(0);
+    assertEquals("app[app]", query.getUserHost());
+    assertEquals("localhost", query.getHost());
+    assertEquals("localhost", query.getIpAddress());
+    assertEquals("12", query.getConnectionId());
+    assertEquals("shop", query.getSchema());
+    assertEquals(0.250218, query.getQueryTime().doubleValue());
+    assertEquals(6L, query.getRowsSent());
+    assertEquals(12L, query.getRowsExamined());
+    assertEquals(0L, query.getRowsAffected().longValue());
+    assertEquals(421L, query.getBytesSent().longValue());
+    assertEquals(1L, query.getTmpTables().longValue());
+    assertEquals(Boolean.TRUE, query.getFullScan());
+    assertEquals(Boolean.FALSE, query.getFilesortOnDisk());
+    assertEquals(3L, query.getInnodbIoReadOps().longValue());
+    assertEquals(49152L, query.getInnodbIoReadBytes().longValue());
+    assertEquals(0.001234, query.getInnodbIoReadWait().doubleValue());
+    assertEquals(7L, query.getInnodbPagesDistinct().longValue());
+    assertEquals("0", query.getExtraFields().get("InnoDB_trx_id"));
+    assertEquals("No", query.getExtraFields().get("QC_Hit"));
+    assertEquals("2019-04-10 10:30:20", query.getLogTime());
+    assertEquals("SELECT `store_id`, `category_id`\n"
+        + "  FROM `products` \n"
+        + " WHERE `store_id` = 12\n"
+        + " ORDER BY `category_id`;", query.getQuery());
+    assertFalse(query.isTruncated());
+  }
+
+  @Test
+  void useStatementAndEmptySchema() throws IOException, MetricAgentException {
+    ExtendedUserQuery query = parseResource("slow_logs/slowlog_03").get(1);
+    assertEquals("web-01.internal", query.getHost());
+    assertEquals("10.0.3.17", query.getIpAddress());
+    assertEquals("reports", query.getSchema());
+    assertEquals(3L, query.getRowsAffected().longValue());
+    assertEquals("UPDATE `orders`\n"
+        + "   SET `status` = 'shipped'\n"
+        + " WHERE `id` IN (1, 2, 3);", query.getQuery());
+  }
+
+  @Test
+  void mysql8Fields() throws IOException, MetricAgentException {
+    ExtendedUserQuery query = parseResource("slow_logs/slowlog_03").get(2);
+    assertEquals(8L, query.getThreadId().longValue());
+    assertEquals(1024L, query.getBytesSent().longValue());
+    assertEquals(0L, query.getLastErrno().longValue());
+    assertEquals("77", query.getExtraFields().get("Bytes_received"));
+    assertEquals("2019-04-10T05:00:25.500000Z", query.getExtraFields().get("End"));
+    assertNull(query.getSchema());
+    // No SET statement, so the time of the section is used
+    assertEquals("2019-04-10 10:30:25", query.getLogTime());
+    assertEquals("SELECT 1;", query.getQuery());
+  }
+
+  @Test
+  void sameCoreFieldsAsSlowQueryLogParser() throws IOException, MetricAgentException {
+    List<UserQuery> expected = SlowQueryLogParser.parseLog(new RewindBufferedReader(
+        new InputStreamReader(this.getClass().getClassLoader()
+            .getResourceAsStream("slow_logs/slowlog_02"))));
+    // The sequential parser skips entries with a host name outside the brackets
+    List<ExtendedUserQuery> all = parseResource("slow_logs/slowlog_02");
+    assertEquals(5, all.size());
+    List<ExtendedUserQuery> queries = all.stream()
+        .filter(query -> query.getHost().isEmpty())
+        .collect(Collectors.toList());
+
+    assertEquals(expected.size(), queries.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getUserHost(), queries.get(i).getUserHost());
+      assertEquals(expected.get(i).getConnectionId(), queries.get(i).getConnectionId());
+      assertEquals(expected.get(i).getQueryTime(), queries.get(i).getQueryTime());
+      assertEquals(expected.get(i).getRowsExamined(), queries.get(i).getRowsExamined());
+      assertEquals(expected.get(i).getLogTime(), queries.get(i).getLogTime());
+      assertEquals(expected.get(i).getQuery(), queries.get(i).getQuery());
+    }
+  }
+
+  private static String longEntry(String query) {
+    return "# Time: 2019-04-10T05:00:20.766066Z\n"
+        + "# User@Host: app[app] @ localhost []  Id: 1\n"
+        + "# Query_time: 0.000218  Lock_time: 0.000072 Rows_sent: 6  Rows_examined: 12\n"
+        + "SET timestamp=1554872420;\n"
+        + query + "\n"
+        + "# User@Host: app[app] @ localhost []  Id: 2\n"
+        + "# Query_time: 0.000218  Lock_time: 0.000072 Rows_sent: 6  Rows_examined: 12\n"
+        + "SET timestamp=1554872420;\n"
+        + "SELECT 2;\n";
+  }
+
+  @Test
+  void truncateLongQuery() throws IOException, MetricAgentException {
+    StringBuilder insert = new StringBuilder("INSERT INTO t VALUES\n");
+    for (int i = 0; i < 1000; i++) {
+      insert.append("(").append(i).append(", 'value'),\n");
+    }
+    insert.append("(1000, 'value');");
+
+    List<ExtendedUserQuery> queries = new ExtendedSlowQueryLogParser(64).parseLog(
+        new RewindBufferedReader(new StringReader(longEntry(insert.toString()))));
+    assertEquals(2, queries.size());
+    assertTrue(queries.get(0).isTruncated());
+    assertEquals(insert.substring(0, 64) + ExtendedSlowQueryLogParser.TRUNCATION_MARKER,
+        queries.get(0).getQuery());
+    assertFalse(queries.get(1).isTruncated());
+    assertEquals("SELECT 2;", queries.get(1).getQuery());
+  }
+
+  @Test
+  void truncateLongLine() throws IOException, MetricAgentException {
+    // The cut at 1000 chars falls between the two chars of an emoji
+    StringBuilder insert = new StringBuilder("INSERT INTO face VALUES ");
+    for (int i = 0; i < 100000; i++) {
+      insert.append("('\ud83d\ude00'),");
+    }
+    insert.append("('end');");
+
+    RewindBufferedReader reader = new RewindBufferedReader(
+        new StringReader(longEntry(insert.toString()) + "SELECT 3;\n"));
+    List<ExtendedUserQuery> queries = new ExtendedSlowQueryLogParser(1000).parseLog(reader);
+    assertEquals(2, queries.size());
+    String query = queries.get(0).getQuery();
+    String kept = query.substring(0,
+        query.length() - ExtendedSlowQueryLogParser.TRUNCATION_MARKER.length());
+    assertTrue(kept.length() <= 1000);
+    assertFalse(Character.isHighSurrogate(kept.charAt(kept.length() - 1)));
+    assertTrue(insert.toString().startsWith(kept));
+    assertEquals("SELECT 2;\nSELECT 3;", queries.get(1).getQuery());
+    assertEquals(10, reader.getLineNumber());
+  }
+
+  @Test
+  void truncateLongLineInMappedFile(@TempDir Path tempDir)
+      throws IOException, MetricAgentException {
+    StringBuilder insert = new StringBuilder("INSERT INTO t VALUES ");
+    for (int i = 0; i < 100000; i++) {
+      insert.append("('\u00c5sa'),");
+    }
+    insert.append("('end');");
+    Path path = tempDir.resolve("slow.log");
+    Files.write(path, longEntry(insert.toString()).getBytes(StandardCharsets.UTF_8));
+
+    List<ExtendedUserQuery> queries;
+    try (MappedLogReader reader = new MappedLogReader(path, 4096)) {
+      queries = new ExtendedSlowQueryLogParser(1000).parseLog(reader);
+    }
+    assertEquals(2, queries.size());
+    String query = queries.get(0).getQuery();
+    assertTrue(query.endsWith(ExtendedSlowQueryLogParser.TRUNCATION_MARKER));
+    String kept = query.substring(0,
+        query.length() - ExtendedSlowQueryLogParser.TRUNCATION_MARKER.length());
+    assertTrue(kept.length() <= 1000);
+    assertTrue(insert.toString().startsWith(kept));
+    assertEquals("SELECT 2;", queries.get(1).getQuery());
+  }
+
+  @Test
+  void chunkedSameAsSequential(@TempDir Path tempDir) throws IOException, MetricAgentException {
+    StringBuilder log = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      log.append("# Time: 2019-04-10T05:00:20.766066Z\n")
+          .append("# User@Host: app[app] @ localhost []  Id: ").append(i).append('\n')
+          .append("# Query_time: 0.1  Lock_time: 0.0 Rows_sent: 1  Rows_examined: 1\n")
+          .append("SET timestamp=1554872420;\n")
+          .append("SELECT ").append(i).append("\n  FROM dual;\n");
+    }
+    Path path = tempDir.resolve("slow.log");
+    Files.write(path, log.toString().getBytes(StandardCharsets.UTF_8));
+
+    ExtendedSlowQueryLogParser parser = new ExtendedSlowQueryLogParser();
+    List<String> expected;
+    try (MappedLogReader reader = new MappedLogReader(path)) {
+      expected = parser.parseLog(reader).stream()
+          .map(query -> query.getConnectionId() + ":" + query.getQuery())
+          .collect(Collectors.toList());
+    }
+    assertEquals(100, expected.size());
+
+    List<String> queries = new ArrayList<>();
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      new ChunkedSlowQueryLogParser(pool, 128, parser).parseLog(path,
+          query -> queries.add(query.getConnectionId() + ":" + query.getQuery()));
+    } finally {
+      pool.shutdown();
+    }
+    assertEquals(expected, queries);
+  }
+
+  @Test
+  void queriesThatStartInWindow() throws IOException, MetricAgentException {
+    String log = "# Time: 2019-04-10T05:00:20Z\n"
+        + "# User@Host: app[app] @  [127.0.0.1]  Id: 8\n"
+        + "# Query_time: 0.300012  Lock_time: 0.000050 Rows_sent: 20  Rows_examined: 20\n"
+        + "SET timestamp=1554872420;\n"
+        + "SELECT 1;\n"
+        + "# Time: 2019-04-10T05:00:30Z\n"
+        + "# User@Host: app[app] @  [127.0.0.1]  Id: 9\n"
+        + "# Query_time: 6.000012  Lock_time: 0.000050 Rows_sent: 20  Rows_examined: 20\n"
+        + "SET timestamp=1554872424;\n"
+        + "SELECT 2;\n"
+        + "# Time: 2019-04-10T05:00:40Z\n"
+        + "# User@Host: app[app] @  [127.0.0.1]  Id: 10\n"
+        + "# Query_time: 0.300012  Lock_time: 0.000050 Rows_sent: 20  Rows_examined: 20\n"
+        + "SET timestamp=1554872440;\n"
+        + "SELECT 3;\n"
+        + "# Time: 2019-04-10T05:00:50Z\n"
+        + "# User@Host: nobody\n";
+    ZoneId utc = ZoneId.of("UTC");
+    TimeWindow window = new TimeWindow(ZonedDateTime.of(2019, 4, 10, 5, 0, 15, 0, utc),
+        ZonedDateTime.of(2019, 4, 10, 5, 0, 25, 0, utc), true, Duration.ofSeconds(10));
+    List<String> queries = new ArrayList<>();
+    new ExtendedSlowQueryLogParser().parseLog(new RewindBufferedReader(new StringReader(log)),
+        window, query -> queries.add(query.getQuery()));
+    assertEquals(Arrays.asList("SELECT 1;", "SELECT 2;"), queries);
+  }
+
+  @Test
+  void longQueryLoggedAfterLaterShortQuery() throws IOException, MetricAgentException {
+    String log = "# Time: 2019-04-10T05:00:26Z\n"
+        + "# User@Host: app[app] @  [127.0.0.1]  Id: 11\n"
+        + "# Query_time: 0.100012  Lock_time: 0.000050 Rows_sent: 1  Rows_examined: 1\n"
+        + "SET timestamp=1554872426;\n"
+        + "SELECT 4;\n"
+        + "# Time: 2019-04-10T05:00:30Z\n"
+        + "# User@Host: app[app] @  [127.0.0.1]  Id: 9\n"
+        + "# Query_time: 10.000012  Lock_time: 0.000050 Rows_sent: 20  Rows_examined: 20\n"
+        + "SET timestamp=1554872420;\n"
+        + "SELECT 2;\n";
+    ZoneId utc = ZoneId.of("UTC");
+    TimeWindow window = new TimeWindow(ZonedDateTime.of(2019, 4, 10, 5, 0, 15, 0, utc),
+        ZonedDateTime.of(2019, 4, 10, 5, 0, 25, 0, utc), true, Duration.ofSeconds(10));
+    List<String> queries = new ArrayList<>();
+    new ExtendedSlowQueryLogParser().parseLog(new RewindBufferedReader(new StringReader(log)),
+        window, query -> queries.add(query.getQuery()));
+    assertEquals(Arrays.asList("SELECT 2;"), queries);
+  }
+
+  @Test
+  void badUserHost() {
+    String log = "# User@Host: nobody\n"
+        + "SET timestamp=1554872420;\n"
+        + "SELECT 1;\n";
+    assertThrows(MetricAgentException.class, () -> new ExtendedSlowQueryLogParser().parseLog(
+        new RewindBufferedReader(new StringReader(log))));
+  }
+}
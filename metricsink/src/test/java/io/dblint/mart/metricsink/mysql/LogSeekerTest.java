@@ -0,0 +1,133 @@
+package io.dblint.mart.metricsink.mysql;
+
+import io.dblint.mart.metricsink.util.MetricAgentException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogSeekerTest {
+  private static final String fileHeader =
+      "/rdsdbbin/mysql/bin/mysqld, Version: 5.7.24-log (Source distribution). started with:\n"
+      + "Tcp port: 3306  Unix socket: /tmp/mysql.sock\n"
+      + "Time                 Id Command    Argument\n";
+
+  private static final long BASE = 1554872400L;
+  private static final int ENTRIES = 5000;
+
+  private static String entry(int id) {
+    // Some queries are "# Time:" lines, which do not start a section.
+    String query = id % 7 == 0 ? "# Time: 2030-01-01T00:00:00.000000Z" : "SELECT " + id + ";";
+    return "# Time: " + Instant.ofEpochSecond(BASE + id) + "\n"
+        + "# User@Host: dbadmin2[dbadmin2] @  [172.16.2.208]  Id: " + id + "\n"
+        + "# Query_time: 0.000218  Lock_time: 0.000072 Rows_sent: 6  Rows_examined: 12\n"
+        + "SET timestamp=" + (BASE + id) + ";\n"
+        + query + "\n";
+  }
+
+  /*
+   * Write a slow log and return the offset of every entry.
+   */
+  private static long[] writeSlowLog(Path path) throws IOException {
+    long[] offsets = new long[ENTRIES];
+    StringBuilder builder = new StringBuilder(fileHeader);
+    for (int i = 0; i < ENTRIES; i++) {
+      offsets[i] = builder.length();
+      builder.append(entry(i));
+    }
+    Files.write(path, builder.toString().getBytes(StandardCharsets.UTF_8));
+    return offsets;
+  }
+
+  private static ZonedDateTime time(long seconds) {
+    return ZonedDateTime.ofInstant(Instant.ofEpochSecond(seconds), ZoneId.of("UTC"));
+  }
+
+  @Test
+  void slowLog(@TempDir Path tempDir) throws IOException, MetricAgentException {
+    Path path = tempDir.resolve("slow.log");
+    long[] offsets = writeSlowLog(path);
+    LogSeeker seeker = LogSeeker.slowLog(path);
+
+    for (int id : new int[] {1, 6, 7, 2500, 3333, 4998}) {
+      assertEquals(offsets[id + 1], seeker.seek(time(BASE + id)), "Seek after " + id);
+    }
+    assertEquals(0, seeker.seek(time(BASE - 1)));
+    assertEquals(Files.size(path), seeker.seek(time(BASE + ENTRIES)));
+  }
+
+  @Test
+  void parseAfterSeek(@TempDir Path tempDir) throws IOException, MetricAgentException {
+    Path path = tempDir.resolve("slow.log");
+    writeSlowLog(path);
+    TimeWindow window = new TimeWindow(time(BASE + 1000), time(BASE + 1100), true);
+
+    List<UserQuery> expected = new ArrayList<>();
+    try (MappedLogReader reader = new MappedLogReader(path)) {
+      SlowQueryLogParser.parseLog(reader, window, expected::add);
+    }
+
+    List<UserQuery> queries = new ArrayList<>();
+    long offset = LogSeeker.slowLog(path).seek(window.getStart());
+    try (MappedLogReader reader = new MappedLogReader(path, offset, -1)) {
+      SlowQueryLogParser.parseSections(reader, window, queries::add);
+    }
+    assertEquals(99, queries.size());
+    assertEquals(expected.size(), queries.size());
+    assertEquals(expected.get(0).getConnectionId(), queries.get(0).getConnectionId());
+
+    List<UserQuery> chunked = new ArrayList<>();
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      new ChunkedSlowQueryLogParser(pool, 1024, null).parseLog(path, offset, window, chunked::add);
+    } finally {
+      pool.shutdown();
+    }
+    assertEquals(expected.size(), chunked.size());
+    assertEquals(expected.get(98).getConnectionId(), chunked.get(98).getConnectionId());
+  }
+
+  @Test
+  void oldFormatIsParsedFromStart(@TempDir Path tempDir) throws IOException {
+    Path path = tempDir.resolve("slow.log");
+    try (InputStream stream = this.getClass().getClassLoader()
+        .getResourceAsStream("slow_logs/slowlog_01")) {
+      Files.copy(stream, path);
+    }
+    assertEquals(0, LogSeeker.slowLog(path).seek(time(BASE)));
+  }
+
+  @Test
+  void rowLog(@TempDir Path tempDir) throws IOException, MetricAgentException {
+    Path path = tempDir.resolve("snapshot");
+    try (InputStream stream = this.getClass().getClassLoader()
+        .getResourceAsStream("longtxns/snapshot_02")) {
+      Files.copy(stream, path);
+    }
+    ZonedDateTime start = ZonedDateTime.of(LocalDateTime.of(2019, 4, 24, 13, 13, 30),
+        ZoneOffset.ofHoursMinutes(5, 30));
+    long offset = LogSeeker.rowLog(path).seek(start);
+    assertTrue(offset > 0);
+
+    List<LongTxnParser.LongTxn> longTxns = new ArrayList<>();
+    try (MappedLogReader reader = new MappedLogReader(path, offset, -1)) {
+      new LongTxnParser().parse(reader, longTxns::add);
+    }
+    assertEquals(2, longTxns.size());
+  }
+}
@@ -0,0 +1,119 @@
+package io.dblint.mart.metricsink.mysql;
+
+import io.dblint.mart.metricsink.util.MetricAgentException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LogTailerTest {
+  private static final String fileHeader =
+      "/rdsdbbin/mysql/bin/mysqld, Version: 5.7.24-log (Source distribution). started with:\n"
+      + "Tcp port: 3306  Unix socket: /tmp/mysql.sock\n"
+      + "Time                 Id Command    Argument\n";
+
+  private static String entry(int id, String query) {
+    return "# Time: 2019-04-10T05:00:20.766066Z\n"
+        + "# User@Host: dbadmin2[dbadmin2] @  [172.16.2.208]  Id: " + id + "\n"
+        + "# Query_time: 0.000218  Lock_time: 0.000072 Rows_sent: 6  Rows_examined: 12\n"
+        + "SET timestamp=1537887930;\n"
+        + query + "\n";
+  }
+
+  private static void append(Path path, String text) throws IOException {
+    Files.write(path, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+        StandardOpenOption.APPEND);
+  }
+
+  private static LogOffset poll(LogTailer tailer, LogOffset offset, List<String> ids)
+      throws IOException, MetricAgentException {
+    return tailer.poll(offset, reader -> SlowQueryLogParser.parseSections(reader,
+        query -> ids.add(query.getConnectionId())));
+  }
+
+  @Test
+  void lastEntryIsParsedWhenNextStarts(@TempDir Path tempDir)
+      throws IOException, MetricAgentException {
+    Path path = tempDir.resolve("slow.log");
+    append(path, fileHeader + entry(1, "SELECT 1;") + entry(2, "SELECT 2;"));
+    LogTailer tailer = LogTailer.slowLog(path);
+    List<String> ids = new ArrayList<>();
+
+    LogOffset offset = poll(tailer, new LogOffset(path.toString(), null, 0), ids);
+    assertEquals(List.of("1"), ids);
+
+    offset = poll(tailer, offset, ids);
+    assertEquals(List.of("1"), ids);
+
+    // A "# Time:" line that is the text of a query does not start an entry
+    append(path, entry(3, "# Time: 2019-04-10T05:00:21.766066Z") + entry(4, "SELECT 4;"));
+    offset = poll(tailer, offset, ids);
+    assertEquals(List.of("1", "2", "3"), ids);
+
+    append(path, entry(5, "SELECT 5;"));
+    offset = poll(tailer, offset, ids);
+    assertEquals(List.of("1", "2", "3", "4"), ids);
+    assertEquals(Files.size(path) - entry(5, "SELECT 5;").length(), offset.getPosition());
+  }
+
+  @Test
+  void rotatedLog(@TempDir Path tempDir) throws IOException, MetricAgentException {
+    Path path = tempDir.resolve("slow.log");
+    append(path, fileHeader + entry(1, "SELECT 1;") + entry(2, "SELECT 2;")
+        + entry(3, "SELECT 3;"));
+    LogTailer tailer = LogTailer.slowLog(path);
+    List<String> ids = new ArrayList<>();
+    LogOffset offset = poll(tailer, new LogOffset(path.toString(), null, 0), ids);
+    assertEquals(List.of("1", "2"), ids);
+
+    Files.move(path, tempDir.resolve("slow.log.1"));
+    append(path, fileHeader + entry(4, "SELECT 4;") + entry(5, "SELECT 5;"));
+    offset = poll(tailer, offset, ids);
+    // The last entry of the rotated file is parsed before the new file
+    assertEquals(List.of("1", "2", "3", "4"), ids);
+  }
+
+  @Test
+  void truncatedLog(@TempDir Path tempDir) throws IOException, MetricAgentException {
+    Path path = tempDir.resolve("slow.log");
+    append(path, fileHeader + entry(1, "SELECT 1;") + entry(2, "SELECT 2;")
+        + entry(3, "SELECT 3;"));
+    LogTailer tailer = LogTailer.slowLog(path);
+    List<String> ids = new ArrayList<>();
+    LogOffset offset = poll(tailer, new LogOffset(path.toString(), null, 0), ids);
+
+    Files.write(path, (entry(6, "SELECT 6;") + entry(7, "SELECT 7;"))
+        .getBytes(StandardCharsets.UTF_8), StandardOpenOption.TRUNCATE_EXISTING);
+    offset = poll(tailer, offset, ids);
+    assertEquals(List.of("1", "2", "6"), ids);
+  }
+
+  @Test
+  void errorLogDeadlocks(@TempDir Path tempDir) throws IOException, MetricAgentException {
+    Path path = tempDir.resolve("error.log");
+    try (InputStream stream = this.getClass().getClassLoader()
+        .getResourceAsStream("error_logs/errorlog_01")) {
+      Files.copy(stream, path);
+    }
+    LogTailer tailer = LogTailer.errorLog(path);
+    List<Deadlock> deadlocks = new ArrayList<>();
+
+    // The second deadlock ends the file, so it may not be complete yet
+    LogOffset offset = tailer.poll(new LogOffset(path.toString(), null, 0),
+        reader -> ErrorLogParser.parse(reader, deadlocks::add));
+    assertEquals(1, deadlocks.size());
+
+    append(path, "2019-02-25 07:58:52 7313 [Warning] Event Scheduler: Out of range value\n");
+    tailer.poll(offset, reader -> ErrorLogParser.parse(reader, deadlocks::add));
+    assertEquals(2, deadlocks.size());
+  }
+}
@@ -8,6 +8,7 @@ import java.io.InputStreamReader;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -70,4 +71,16 @@ public class LongTxnParserTest {
     assertEquals(3, longTxns.size());
   }
 
+  @Test
+  void parseSnapshotInWindow() throws IOException, MetricAgentException {
+    RewindBufferedReader reader = new RewindBufferedReader(new InputStreamReader(
+        this.getClass().getClassLoader().getResourceAsStream("longtxns/snapshot_02")));
+    TimeWindow window = new TimeWindow(
+        ZonedDateTime.of(LocalDateTime.of(2019, 4, 24, 13, 14), ZoneOffset.ofHoursMinutes(5, 30)),
+        null, true);
+
+    List<LongTxnParser.LongTxn> longTxns = new ArrayList<>();
+    new LongTxnParser().parse(reader, window, longTxns::add);
+    assertEquals(2, longTxns.size());
+  }
 }
@@ -0,0 +1,107 @@
+package io.dblint.mart.metricsink.mysql;
+
+import io.dblint.mart.metricsink.util.MetricAgentException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedLogReaderTest {
+  private Path write(Path dir, String content) throws IOException {
+    Path path = dir.resolve("log");
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    return path;
+  }
+
+  @Test
+  void readLines(@TempDir Path tempDir) throws IOException {
+    Path path = write(tempDir, "first\nsecond\r\nthird\rfourth");
+    try (MappedLogReader reader = new MappedLogReader(path)) {
+      assertEquals("first", reader.readLine());
+      assertEquals("second", reader.readLine());
+      assertEquals("third", reader.readLine());
+      assertTrue(reader.ready());
+      assertEquals("fourth", reader.readLine());
+      assertFalse(reader.ready());
+      assertNull(reader.readLine());
+      assertEquals(4, reader.getLineNumber());
+    }
+  }
+
+  @Test
+  void readLinesAcrossWindows(@TempDir Path tempDir) throws IOException {
+    Path path = write(tempDir, "a\r\nlonger than the window\nbc\n\n\u00c5sa\n");
+    try (MappedLogReader reader = new MappedLogReader(path, 3)) {
+      assertEquals("a", reader.readLine());
+      assertEquals("longer than the window", reader.readLine());
+      assertEquals("bc", reader.readLineSequence().toString());
+      assertEquals("", reader.readLine());
+      assertEquals("\u00c5sa", reader.readLine());
+      assertFalse(reader.ready());
+    }
+  }
+
+  @Test
+  void nonAsciiLineSequence(@TempDir Path tempDir) throws IOException {
+    Path path = write(tempDir, "select '\u00c5sa \ud83d\ude00' from t\nplain\n");
+    try (MappedLogReader reader = new MappedLogReader(path)) {
+      String expected = "select '\u00c5sa \ud83d\ude00' from t";
+      CharSequence line = reader.peekLine(10);
+      assertEquals(expected.substring(0, 10), line.toString());
+      line = reader.readLineSequence();
+      assertEquals(expected.length(), line.length());
+      assertEquals('\u00c5', line.charAt(8));
+      assertEquals("\ud83d\ude00", line.subSequence(12, 14).toString());
+      assertEquals(expected, line.toString());
+      line = reader.readLineSequence();
+      assertEquals(5, line.length());
+      assertEquals("lai", line.subSequence(1, 4).toString());
+    }
+  }
+
+  @Test
+  void rewind(@TempDir Path tempDir) throws IOException {
+    Path path = write(tempDir, "# Time: 190410\nselect 1;\n");
+    try (MappedLogReader reader = new MappedLogReader(path)) {
+      CharSequence line = reader.readLineSequence();
+      assertTrue(SlowQueryLogParser.newSection(line));
+      assertEquals(1, reader.getLineNumber());
+      reader.rewind(line);
+      assertEquals(0, reader.getLineNumber());
+      assertEquals("# Time: 190410", reader.readLine());
+      assertEquals("select 1;", reader.readLine());
+      assertEquals(2, reader.getLineNumber());
+    }
+  }
+
+  @Test
+  void sameDeadlocksAsBufferedReader() throws IOException, MetricAgentException,
+      URISyntaxException {
+    Path path = Paths.get(this.getClass().getClassLoader()
+        .getResource("error_logs/errorlog_01").toURI());
+    List<Deadlock> expected = ErrorLogParser.parse(new RewindBufferedReader(
+        new InputStreamReader(Files.newInputStream(path))));
+
+    try (MappedLogReader reader = new MappedLogReader(path, 512)) {
+      List<Deadlock> deadlocks = ErrorLogParser.parse(reader);
+      assertEquals(expected.size(), deadlocks.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals(expected.get(i).getLogTime(), deadlocks.get(i).getLogTime());
+        assertEquals(expected.get(i).transactions.size(),
+            deadlocks.get(i).transactions.size());
+      }
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package io.dblint.mart.metricsink.mysql;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.column.Encoding;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParquetLogWriterTest {
+  private static final ZonedDateTime start = ZonedDateTime.of(
+      LocalDateTime.of(2019, 4, 10, 10, 0), ZoneOffset.ofHoursMinutes(5, 30));
+
+  private static List<UserQuery> userQueries(int count) {
+    List<UserQuery> queries = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      UserQuery query = new UserQuery();
+      query.setZonedLogTime(start.plusSeconds(i));
+      query.setUserHost("app_user[app_user] @ app-server-" + (i % 4) + " []");
+      query.setIpAddress("10.0.0." + (i % 4));
+      query.setConnectionId(String.valueOf(1000 + i % 16));
+      query.setQueryTime(0.5);
+      query.setLockTime(0.001);
+      query.setRowsSent(i % 10);
+      query.setRowsExamined(100);
+      query.setQuery("select * from orders where customer_id = " + i % 50
+          + " and status = 'open' order by created_at desc limit 10");
+      query.setDigestHash(i % 3 == 0 ? null : "digest" + (i % 5));
+      queries.add(query);
+    }
+    return queries;
+  }
+
+  private static org.apache.hadoop.fs.Path hadoopPath(Path path) {
+    return new org.apache.hadoop.fs.Path(path.toAbsolutePath().toUri());
+  }
+
+  @Test
+  void userQueriesRoundTrip(@TempDir Path tempDir) throws IOException {
+    Path path = tempDir.resolve("user_queries.parquet");
+    List<UserQuery> queries = userQueries(10000);
+    try (ParquetLogWriter<UserQuery> writer =
+             new ParquetLogWriter<>(path, ParquetLayout.USER_QUERIES, 1024 * 1024)) {
+      queries.forEach(writer);
+      assertEquals(10000, writer.getRowsWritten());
+    }
+
+    int rows = 0;
+    try (ParquetReader<Group> reader =
+             ParquetReader.builder(new GroupReadSupport(), hadoopPath(path)).build()) {
+      Group row = reader.read();
+      assertEquals(start.toInstant().toEpochMilli(), row.getLong("log_time", 0));
+      assertEquals("app_user[app_user] @ app-server-0 []", row.getString("user_host", 0));
+      assertEquals(0, row.getFieldRepetitionCount("digest_hash"));
+      for (; row != null; row = reader.read()) {
+        rows++;
+      }
+    }
+    assertEquals(10000, rows);
+
+    ParquetMetadata footer = ParquetFileReader.readFooter(new Configuration(), hadoopPath(path));
+    for (ColumnChunkMetaData column : footer.getBlocks().get(0).getColumns()) {
+      String name = column.getPath().toDotString();
+      if (name.equals("user_host") || name.equals("digest_hash")) {
+        assertTrue(column.getEncodings().contains(Encoding.PLAIN_DICTIONARY), name);
+      }
+    }
+
+    Path json = tempDir.resolve("user_queries.json");
+    new ObjectMapper().writeValue(json.toFile(), queries);
+    assertTrue(Files.size(json) > 5 * Files.size(path));
+  }
+
+  @Test
+  void lockWaitsWithoutTransaction(@TempDir Path tempDir) throws IOException {
+    Path path = tempDir.resolve("lock_waits.parquet");
+    Transaction waiting = new Transaction();
+    waiting.setId("1001");
+    waiting.setZonedStartTime(start);
+    try (ParquetLogWriter<InnodbLockWait> writer =
+             new ParquetLogWriter<>(path, ParquetLayout.LOCK_WAITS, 1024 * 1024)) {
+      writer.accept(new InnodbLockWait(waiting, null, start));
+    }
+
+    try (ParquetReader<Group> reader =
+             ParquetReader.builder(new GroupReadSupport(), hadoopPath(path)).build()) {
+      Group row = reader.read();
+      assertEquals("1001", row.getGroup("waiting", 0).getString("id", 0));
+      assertEquals(0, row.getFieldRepetitionCount("blocking"));
+      assertEquals(1, row.getGroup("waiting", 0).getFieldRepetitionCount("start_time"));
+      assertNull(reader.read());
+    }
+  }
+}
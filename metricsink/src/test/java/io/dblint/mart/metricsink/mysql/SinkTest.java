@@ -1,6 +1,8 @@
 package io.dblint.mart.metricsink.mysql;
 
 import com.codahale.metrics.MetricRegistry;
+import io.dblint.mart.metricsink.util.PoolSettings;
+import org.jdbi.v3.core.Handle;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.io.TempDir;
 import org.slf4j.Logger;
@@ -10,10 +12,16 @@ import java.nio.file.Path;
 import java.sql.*;
 import java.time.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class SinkTest {
@@ -81,12 +89,14 @@ class SinkTest {
 
   @AfterEach
   void closeConnection() throws SQLException {
+    sink.shutdown();
     Statement statement = connection.createStatement();
     statement.execute("DELETE from user_queries");
     statement.execute("DELETE from query_attributes");
     statement.execute("DELETE from transactions");
     statement.execute("DELETE from lock_waits");
     statement.execute("DELETE from long_txns");
+    statement.execute("DELETE from log_offsets");
     connection.close();
   }
 
@@ -105,6 +115,7 @@ class SinkTest {
     expected.add("holding_locks");
     expected.add("lock_waits");
     expected.add("locks");
+    expected.add("log_offsets");
     expected.add("long_txns");
     expected.add("query_attributes");
     expected.add("transactions");
@@ -135,6 +146,146 @@ class SinkTest {
     assertEquals("2019-03-17 04:30:35", resultSet.getString("log_time"));
   }
 
+  @Test
+  void insertUserQueries() throws SQLException {
+    List<UserQuery> queries = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      queries.add(testQuery);
+    }
+    sink.useHandle(handle -> sink.insertUserQuery(handle, testQuery));
+    List<Integer> ids = sink.withHandle(handle -> sink.insertUserQueries(handle, queries));
+
+    Statement statement = connection.createStatement();
+    ResultSet resultSet = statement.executeQuery("select id from user_queries order by id");
+    List<Integer> stored = new ArrayList<>();
+    while (resultSet.next()) {
+      stored.add(resultSet.getInt("id"));
+    }
+    assertEquals(6, stored.size());
+    assertEquals(stored.subList(1, 6), ids);
+  }
+
+  @Test
+  void sinksOnOneRegistry() {
+    String otherUrl = "jdbc:sqlite:" + sharedTempDir.resolve("other_sqldb");
+    Sink other = new Sink(otherUrl, "", "", metricRegistry);
+    other.initialize();
+    assertTrue(metricRegistry.getNames().contains(
+        PoolSettings.poolName("inviscid.db_sink", url) + ".pool.Wait"));
+    assertTrue(metricRegistry.getNames().contains(
+        PoolSettings.poolName("inviscid.db_sink", otherUrl) + ".pool.Wait"));
+    other.shutdown();
+    assertEquals("inviscid.db_sink.mysql_localhost_3306_db",
+        PoolSettings.poolName("inviscid.db_sink", "jdbc:mysql://localhost:3306/db?password=x"));
+  }
+
+  @Test
+  void sqlitePragmas() {
+    assertEquals("wal", sink.withHandle(handle -> handle.createQuery("pragma journal_mode")
+        .mapTo(String.class).findOnly()));
+    // NORMAL
+    assertEquals(1, sink.withHandle(handle -> handle.createQuery("pragma synchronous")
+        .mapTo(int.class).findOnly()).intValue());
+  }
+
+  @Test
+  void insertBatchesOnOneHandle() throws SQLException {
+    List<UserQuery> queries = Arrays.asList(testQuery, testQuery, testQuery);
+    List<Integer> ids = new ArrayList<>();
+    // Like LogParser, commit between batches on one handle.
+    try (Handle handle = sink.open()) {
+      handle.begin();
+      for (int i = 0; i < 3; i++) {
+        ids.addAll(sink.insertUserQueries(handle, queries));
+        handle.commit();
+        handle.begin();
+      }
+      handle.commit();
+    }
+
+    Statement statement = connection.createStatement();
+    ResultSet resultSet = statement.executeQuery("select id from user_queries order by id");
+    List<Integer> stored = new ArrayList<>();
+    while (resultSet.next()) {
+      stored.add(resultSet.getInt("id"));
+    }
+    assertEquals(9, stored.size());
+    assertEquals(stored, ids);
+  }
+
+  private static UserQuery copyOf(UserQuery query, String connectionId) {
+    UserQuery copy = new UserQuery();
+    copy.setUserHost(query.getUserHost());
+    copy.setIpAddress(query.getIpAddress());
+    copy.setConnectionId(connectionId);
+    copy.setQueryTime(query.getQueryTime());
+    copy.setLockTime(query.getLockTime());
+    copy.setRowsSent(query.getRowsSent());
+    copy.setRowsExamined(query.getRowsExamined());
+    copy.setZonedLogTime(query.getZonedLogTime());
+    return copy;
+  }
+
+  @Test
+  void insertNewUserQueries() throws SQLException {
+    UserQuery other = copyOf(testQuery, "311270894");
+    assertEquals(testQuery.fingerprint(), copyOf(testQuery, "311270893").fingerprint());
+    assertFalse(testQuery.fingerprint().equals(other.fingerprint()));
+
+    assertEquals(1, sink.withHandle(handle ->
+        sink.insertNewUserQueries(handle, Arrays.asList(testQuery))).intValue());
+    assertEquals(1, sink.withHandle(handle ->
+        sink.insertNewUserQueries(handle, Arrays.asList(testQuery, other, other))).intValue());
+
+    Statement statement = connection.createStatement();
+    ResultSet resultSet = statement.executeQuery(
+        "select connection_id, fingerprint from user_queries order by id");
+    resultSet.next();
+    assertEquals("311270893", resultSet.getString("connection_id"));
+    assertEquals(testQuery.fingerprint(), resultSet.getString("fingerprint"));
+    resultSet.next();
+    assertEquals("311270894", resultSet.getString("connection_id"));
+    assertFalse(resultSet.next());
+  }
+
+  @Test
+  void fingerprintFilter() {
+    UserQuery first = copyOf(testQuery, "1");
+    UserQuery second = copyOf(testQuery, "2");
+    UserQuery third = copyOf(testQuery, "3");
+    sink.useHandle(handle -> sink.insertNewUserQueries(handle, Arrays.asList(first)));
+
+    List<UserQuery> unseen = sink.withHandle(handle -> {
+      FingerprintFilter filter = FingerprintFilter.load(sink, handle);
+      List<UserQuery> batch = filter.unseen(sink, handle,
+          Arrays.asList(first, second, second, third));
+      assertEquals(Arrays.asList(first.fingerprint()), new ArrayList<>(sink.getFingerprints(
+          handle, Arrays.asList(first.fingerprint(), third.fingerprint()))));
+      // Rows of a batch that were inserted are found by the next batch
+      sink.insertNewUserQueries(handle, batch);
+      assertTrue(filter.unseen(sink, handle, batch).isEmpty());
+      return batch;
+    });
+    assertEquals(Arrays.asList("2", "3"),
+        unseen.stream().map(UserQuery::getConnectionId).collect(Collectors.toList()));
+  }
+
+  @Test
+  void fingerprintFilterGrows() {
+    List<UserQuery> queries = new ArrayList<>();
+    for (int i = 0; i < FingerprintFilter.MIN_EXPECTED_FINGERPRINTS + 10; i++) {
+      queries.add(copyOf(testQuery, String.valueOf(i)));
+    }
+    sink.useHandle(handle -> {
+      FingerprintFilter filter = FingerprintFilter.load(sink, handle);
+      assertEquals(FingerprintFilter.MIN_EXPECTED_FINGERPRINTS, filter.getExpectedFingerprints());
+      sink.insertNewUserQueries(handle, filter.unseen(sink, handle, queries));
+      List<UserQuery> next = Arrays.asList(copyOf(testQuery, "next"), queries.get(0));
+      assertEquals(Arrays.asList(next.get(0)), filter.unseen(sink, handle, next));
+      assertEquals(2 * queries.size(), filter.getExpectedFingerprints());
+    });
+  }
+
   @Test
   void selectUserQuery() {
     long id = sink.withHandle(handle -> sink.insertUserQuery(handle, testQuery)).longValue();
@@ -193,6 +344,69 @@ class SinkTest {
     statement.close();
   }
 
+  @Test
+  void setQueryAttributes() throws SQLException {
+    QueryAttribute first = new QueryAttribute("SELECT `A`\nFROM `D`");
+    QueryAttribute second = new QueryAttribute("SELECT `B`\nFROM `D`");
+
+    List<UserQuery> queries = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      long id = sink.withHandle(handle -> sink.insertUserQuery(handle, testQuery));
+      UserQuery query = sink.selectUserQuery(id).get();
+      query.setDigestHash(i == 1 ? second.digestHash : first.digestHash);
+      queries.add(query);
+    }
+
+    Set<String> newDigests = new HashSet<>();
+    assertEquals(2, (int) sink.inTransaction(handle -> sink.setQueryAttributes(handle, queries,
+        Arrays.asList(first, second, first), newDigests)));
+    assertEquals(Set.of(first.digestHash, second.digestHash), newDigests);
+    sink.addKnownDigests(newDigests);
+    assertEquals(0, (int) sink.inTransaction(handle -> sink.setQueryAttributes(handle, queries,
+        Arrays.asList(first, second), new HashSet<>())));
+
+    // A new sink does not know the digests, and the inserts are ignored.
+    Sink other = new Sink(url, "", "", new MetricRegistry());
+    assertEquals(0, (int) other.inTransaction(handle -> other.setQueryAttributes(handle,
+        queries.subList(0, 1), Arrays.asList(first), new HashSet<>())));
+    other.shutdown();
+
+    Statement statement = connection.createStatement();
+    ResultSet resultSet = statement.executeQuery("select count(*) from query_attributes");
+    resultSet.next();
+    assertEquals(2, resultSet.getInt(1));
+
+    resultSet = statement.executeQuery("select digest_hash from user_queries order by id");
+    List<String> hashes = new ArrayList<>();
+    while (resultSet.next()) {
+      hashes.add(resultSet.getString("digest_hash"));
+    }
+    assertEquals(Arrays.asList(first.digestHash, second.digestHash, first.digestHash), hashes);
+    statement.close();
+  }
+
+  @Test
+  void rolledBackDigestsAreInsertedAgain() throws SQLException {
+    QueryAttribute attribute = new QueryAttribute("SELECT `A`\nFROM `D`");
+    long id = sink.withHandle(handle -> sink.insertUserQuery(handle, testQuery));
+    UserQuery query = sink.selectUserQuery(id).get();
+    query.setDigestHash(attribute.digestHash);
+
+    Set<String> newDigests = new HashSet<>();
+    assertThrows(IllegalStateException.class, () -> sink.useTransaction(handle -> {
+      sink.setQueryAttributes(handle, List.of(query), List.of(attribute), newDigests);
+      throw new IllegalStateException("rollback");
+    }));
+    assertEquals(1, (int) sink.inTransaction(handle -> sink.setQueryAttributes(handle,
+        List.of(query), List.of(attribute), new HashSet<>())));
+
+    Statement statement = connection.createStatement();
+    ResultSet resultSet = statement.executeQuery("select count(*) from query_attributes");
+    resultSet.next();
+    assertEquals(1, resultSet.getInt(1));
+    statement.close();
+  }
+
   @Test
   void updateUserQuery() throws SQLException {
     sink.useHandle(handle -> sink.insertUserQuery(handle, testQuery));
@@ -222,6 +436,24 @@ class SinkTest {
     assertEquals(1, queries.size());
   }
 
+  @Test
+  void streamUserQueries() {
+    List<Integer> ids = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      ids.add(sink.withHandle(handle -> sink.insertUserQuery(handle, testQuery)));
+    }
+    LocalDateTime start = LocalDateTime.of(2019, 3,17,4,0,0);
+    LocalDateTime end = LocalDateTime.of(2019, 3,17,5,0,0);
+
+    assertEquals(ids, sink.streamUserQueries(start, end, 0, 2)
+        .map(UserQuery::getId)
+        .collect(Collectors.toList()));
+    assertEquals(ids.subList(2, 5), sink.streamUserQueries(start, end, ids.get(1), 3)
+        .map(UserQuery::getId)
+        .collect(Collectors.toList()));
+    assertEquals(0, sink.streamUserQueries(start, end, ids.get(4), 2).count());
+  }
+
   @Test
   void selectBeforeRange() {
     sink.useHandle(handle -> sink.insertUserQuery(handle, testQuery));
@@ -309,6 +541,37 @@ class SinkTest {
     assertEquals("285543496076", resultSet.getString("waiting_id"));
   }
 
+  @Test
+  void getTransactionIdsInParts() {
+    sink.useHandle(handle -> sink.insertTransactions(handle, List.of(testTransaction)));
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < 2 * Sink.VALUES_PER_QUERY; i++) {
+      ids.add(String.valueOf(i));
+    }
+    ids.add(testTransaction.id);
+    assertEquals(Set.of(testTransaction.id),
+        sink.withHandle(handle -> sink.getTransactionIds(handle, ids)));
+  }
+
+  @Test
+  void insertLockWaits() throws SQLException {
+    assertTrue(sink.withHandle(handle -> sink.getTransactionIds(handle,
+        List.of(testTransaction.id))).isEmpty());
+    sink.useHandle(handle -> sink.insertTransactions(handle, List.of(testTransaction)));
+    assertEquals(Set.of(testTransaction.id), sink.withHandle(handle ->
+        sink.getTransactionIds(handle, List.of(testTransaction.id, "1"))));
+
+    List<Integer> ids = sink.withHandle(handle ->
+        sink.insertLockWaits(handle, List.of(testLockWait, testLockWait)));
+    assertEquals(2, ids.size());
+    assertEquals(ids.get(0) + 1, ids.get(1).intValue());
+
+    Statement statement = connection.createStatement();
+    ResultSet resultSet = statement.executeQuery("select count(*) from lock_waits");
+    resultSet.next();
+    assertEquals(2, resultSet.getInt(1));
+  }
+
   @Test
   void insertLongTxn() throws SQLException {
     sink.useHandle(handle -> sink.insertTransaction(handle, testTransaction));
@@ -324,4 +587,21 @@ class SinkTest {
     assertEquals("2019-03-13 22:02:01", resultSet.getString("log_time"));
     assertEquals("285543496076", resultSet.getString("transaction_id"));
   }
+
+  @Test
+  void logOffset() {
+    assertFalse(sink.withHandle(handle -> sink.getLogOffset(handle, "/var/log/slow.log"))
+        .isPresent());
+
+    sink.useHandle(handle -> sink.setLogOffset(handle,
+        new LogOffset("/var/log/slow.log", "(dev=801,ino=42)", 1024)));
+    sink.useHandle(handle -> sink.setLogOffset(handle,
+        new LogOffset("/var/log/slow.log", "(dev=801,ino=42)", 2048)));
+
+    Optional<LogOffset> offset =
+        sink.withHandle(handle -> sink.getLogOffset(handle, "/var/log/slow.log"));
+    assertTrue(offset.isPresent());
+    assertEquals("(dev=801,ino=42)", offset.get().getFileKey());
+    assertEquals(2048L, offset.get().getPosition());
+  }
 }
@@ -0,0 +1,121 @@
+package io.dblint.mart.metricsink.mysql;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+/**
+ * Compares the regular expressions used to parse the header lines of slow query log entries
+ * with SlowLogScanner, on the sample logs in src/test/resources/slow_logs.
+ * Run main() with the test classpath of this module.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SlowLogScannerBenchmark {
+  private static final ZoneId UTC = ZoneId.of("UTC");
+
+  private List<String> lines;
+
+  /**
+   * Read the lines of the sample slow query logs.
+   */
+  @Setup
+  public void setUp() throws IOException {
+    lines = new ArrayList<>();
+    for (String file : Arrays.asList("slow_logs/slowlog_01", "slow_logs/slowlog_02")) {
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+          getClass().getClassLoader().getResourceAsStream(file)))) {
+        String line = reader.readLine();
+        while (line != null) {
+          lines.add(line);
+          line = reader.readLine();
+        }
+      }
+    }
+  }
+
+  /**
+   * The regular expression path that SlowLogScanner replaced.
+   */
+  @Benchmark
+  public void regex(Blackhole blackhole) {
+    for (String line : lines) {
+      UserQuery userQuery = new UserQuery();
+      Matcher matcher = SlowLogScannerTest.uhLine.matcher(line);
+      if (matcher.find()) {
+        userQuery.setUserHost(matcher.group(1));
+        userQuery.setIpAddress(matcher.group(2));
+        userQuery.setConnectionId(matcher.group(3));
+      }
+      matcher = SlowLogScannerTest.queryMetadata.matcher(line);
+      if (matcher.find()) {
+        userQuery.setQueryTime(Double.parseDouble(matcher.group(1)));
+        userQuery.setLockTime(Double.parseDouble(matcher.group(2)));
+        userQuery.setRowsSent(Long.parseLong(matcher.group(3)));
+        userQuery.setRowsExamined(Long.parseLong(matcher.group(4)));
+      }
+      matcher = SlowLogScannerTest.setStatement.matcher(line);
+      if (matcher.find()) {
+        userQuery.setZonedLogTime(ZonedDateTime.ofInstant(
+            Instant.ofEpochSecond(Long.parseLong(matcher.group(1))), UTC));
+      }
+      blackhole.consume(SlowLogScannerTest.useStatement.matcher(line).find());
+      blackhole.consume(line.replaceAll("/\\*.*?\\*/", ""));
+      blackhole.consume(userQuery);
+    }
+  }
+
+  /**
+   * The same work done by SlowLogScanner.
+   */
+  @Benchmark
+  public void scanner(Blackhole blackhole) {
+    for (String line : lines) {
+      UserQuery userQuery = new UserQuery();
+      SlowLogScanner.scanUserHost(line, userQuery, false);
+      SlowLogScanner.scanQueryMetadata(line, userQuery);
+      long timestamp = SlowLogScanner.scanSetTimestamp(line);
+      if (timestamp >= 0) {
+        userQuery.setZonedLogTime(ZonedDateTime.ofInstant(Instant.ofEpochSecond(timestamp), UTC));
+      }
+      blackhole.consume(SlowLogScanner.isUseStatement(line));
+      blackhole.consume(SlowLogScanner.removeComments(line));
+      blackhole.consume(userQuery);
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(SlowLogScannerBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+  }
+}
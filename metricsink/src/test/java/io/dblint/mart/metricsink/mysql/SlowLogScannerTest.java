@@ -0,0 +1,122 @@
+package io.dblint.mart.metricsink.mysql;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SlowLogScannerTest {
+  // The regular expressions that SlowLogScanner replaced.
+  static final Pattern tsLine = Pattern.compile("^# Time: ");
+  static final Pattern uhLine = Pattern.compile("# User@Host: (.*\\[.*\\])\\s*@\\s*"
+      + "\\[(.*)\\]\\s*Id:\\s*(\\d+)");
+  static final Pattern queryMetadata = Pattern.compile("# Query_time: ([\\d\\.]+)\\s*"
+      + "Lock_time: ([\\d\\.]+)\\s*Rows_sent: (\\d+)\\s*Rows_examined: (\\d+)");
+  static final Pattern setStatement = Pattern.compile("SET\\s+timestamp=([0-9]+)[,|;]");
+  static final Pattern useStatement = Pattern.compile("^use\\s+.+;");
+
+  private static final List<String> edgeCases = Arrays.asList(
+      "# User@Host: [] @  []  Id: 33549154",
+      "# User@Host: a[b] @ [c] @ [d]  Id: 12 trailing",
+      "# User@Host: a[b] @ host [10.0.0.1]  Id:",
+      "prefix # User@Host: a[b]@[c]Id:7",
+      "# User@Host: a[b] @ [c]  Id: 99999999999999999999",
+      "# Query_time: 1.5  Lock_time: 0 Rows_sent: 1  Rows_examined: 2",
+      "# Query_time: .5  Lock_time: 5. Rows_sent: 1 Rows_examined: 2",
+      "# Query_time: 0.1234567890123456789  Lock_time: 0.0 Rows_sent: 0  Rows_examined: 0",
+      "# Query_time: 1  Lock_time:  0 Rows_sent: 1  Rows_examined: 2",
+      "SET timestamp=1551308403;",
+      "SET  timestamp=1551308403,",
+      "SET timestamp=1551308403",
+      "SETtimestamp=1551308403;",
+      "x SET a; SET timestamp=42|",
+      "use schema;",
+      "use  ;;",
+      "use x;",
+      "use\tdb;",
+      "user s;",
+      "# Time: 190227 23:00:03",
+      " # Time: 190227 23:00:03",
+      "select /* a */ 1 /* b */ from /* c",
+      "select /*/ 1 */ /**/ x",
+      "select /* a  */ 1 /* b */"
+  );
+
+  private static List<String> sampleLines() throws IOException {
+    List<String> lines = new ArrayList<>(edgeCases);
+    for (String file : Arrays.asList("slow_logs/slowlog_01", "slow_logs/slowlog_02")) {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(
+          SlowLogScannerTest.class.getClassLoader().getResourceAsStream(file)));
+      String line = reader.readLine();
+      while (line != null) {
+        lines.add(line);
+        line = reader.readLine();
+      }
+    }
+    return lines;
+  }
+
+  @Test
+  void userHost() throws IOException {
+    for (String line : sampleLines()) {
+      Matcher matcher = uhLine.matcher(line);
+      UserQuery userQuery = new UserQuery();
+      boolean found = matcher.find();
+      assertEquals(found, SlowLogScanner.scanUserHost(line, userQuery, false), line);
+      if (found) {
+        assertEquals(matcher.group(1), userQuery.getUserHost());
+        assertEquals(matcher.group(2), userQuery.getIpAddress());
+        assertEquals(matcher.group(3), userQuery.getConnectionId());
+      }
+      assertEquals(uhLine.matcher(line).matches(),
+          SlowLogScanner.scanUserHost(line, null, true), line);
+    }
+  }
+
+  @Test
+  void queryMetadata() throws IOException {
+    for (String line : sampleLines()) {
+      Matcher matcher = queryMetadata.matcher(line);
+      UserQuery userQuery = new UserQuery();
+      boolean found = matcher.find();
+      assertEquals(found, SlowLogScanner.scanQueryMetadata(line, userQuery), line);
+      if (found) {
+        assertEquals(Double.parseDouble(matcher.group(1)), userQuery.getQueryTime().doubleValue());
+        assertEquals(Double.parseDouble(matcher.group(2)), userQuery.getLockTime().doubleValue());
+        assertEquals(Long.parseLong(matcher.group(3)), userQuery.getRowsSent());
+        assertEquals(Long.parseLong(matcher.group(4)), userQuery.getRowsExamined());
+      }
+    }
+  }
+
+  @Test
+  void statements() throws IOException {
+    for (String line : sampleLines()) {
+      Matcher matcher = setStatement.matcher(line);
+      long expected = matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+      assertEquals(expected, SlowLogScanner.scanSetTimestamp(line), line);
+      assertEquals(useStatement.matcher(line).find(), SlowLogScanner.isUseStatement(line), line);
+      assertEquals(tsLine.matcher(line).find(), SlowLogScanner.isTimeLine(line), line);
+      assertEquals(line.replaceAll("/\\*.*?\\*/", ""), SlowLogScanner.removeComments(line));
+    }
+  }
+
+  @Test
+  void parseDouble() {
+    for (String number : Arrays.asList("0", "0.000218", "12.232073", "1.", ".5", "3.14159265358",
+        "123456789012.345", "0.30000000000000004", "1234567890123456789.5")) {
+      assertEquals(Double.parseDouble(number),
+          SlowLogScanner.parseDouble(number, 0, number.length()));
+    }
+    assertThrows(NumberFormatException.class, () -> SlowLogScanner.parseDouble("1.2.3", 0, 5));
+  }
+}
@@ -5,6 +5,12 @@ import static org.junit.jupiter.api.Assertions.*;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import io.dblint.mart.metricsink.util.MetricAgentException;
@@ -85,6 +91,95 @@ class SlowQueryLogParserTest {
     assertEquals(2, queries.size());
   }
 
+  @Test
+  void parseLogConsumerTest() throws IOException, MetricAgentException {
+    String file = fileHeader + timeSectionHeader + querySection;
+    String doubleFile = file + file;
+    RewindBufferedReader bufferedReader = new RewindBufferedReader(
+        new InputStreamReader(new ByteArrayInputStream(doubleFile.getBytes()))
+    );
+    List<String> connections = new ArrayList<>();
+    SlowQueryLogParser.parseLog(bufferedReader,
+        userQuery -> connections.add(userQuery.getConnectionId()));
+    assertEquals(2, connections.size());
+    assertEquals("311270893", connections.get(0));
+  }
+
+  String windowEntry =
+      "# User@Host: app[app] @  [127.0.0.1]  Id: 8\n"
+      + "# Query_time: 0.300012  Lock_time: 0.000050 Rows_sent: 20  Rows_examined: 20\n"
+      + "SET timestamp=1554872420;\n"
+      + "SELECT 1;\n";
+
+  // Started in the window and logged after it
+  String lateEntry =
+      "# User@Host: app[app] @  [127.0.0.1]  Id: 9\n"
+      + "# Query_time: 6.000012  Lock_time: 0.000050 Rows_sent: 20  Rows_examined: 20\n"
+      + "SET timestamp=1554872424;\n"
+      + "SELECT 2;\n";
+
+  String afterEntry =
+      "# User@Host: app[app] @  [127.0.0.1]  Id: 10\n"
+      + "# Query_time: 0.300012  Lock_time: 0.000050 Rows_sent: 20  Rows_examined: 20\n"
+      + "SET timestamp=1554872440;\n"
+      + "SELECT 3;\n";
+
+  String brokenEntry =
+      "# User@Host: app[app] @  [127.0.0.1]  Id: 8\n"
+      + "# Query_time: broken\n";
+
+  private List<UserQuery> parseWindow(Duration maxQueryDuration)
+      throws IOException, MetricAgentException {
+    String file = "# Time: 2019-04-10T05:00:10Z\n" + brokenEntry
+        + "# Time: 2019-04-10T05:00:20Z\n" + windowEntry
+        + "# Time: 2019-04-10T05:00:30Z\n" + lateEntry
+        + "# Time: 2019-04-10T05:00:40Z\n" + afterEntry
+        + "# Time: 2019-04-10T05:00:50Z\n" + brokenEntry;
+    RewindBufferedReader bufferedReader = new RewindBufferedReader(
+        new InputStreamReader(new ByteArrayInputStream(file.getBytes()))
+    );
+    ZoneId utc = ZoneId.of("UTC");
+    TimeWindow window = new TimeWindow(ZonedDateTime.of(2019, 4, 10, 5, 0, 15, 0, utc),
+        ZonedDateTime.of(2019, 4, 10, 5, 0, 25, 0, utc), true, maxQueryDuration);
+    List<UserQuery> queries = new ArrayList<>();
+    SlowQueryLogParser.parseSections(bufferedReader, window, queries::add);
+    return queries;
+  }
+
+  @Test
+  void parseSectionsInWindowTest() throws IOException, MetricAgentException {
+    List<UserQuery> queries = parseWindow(Duration.ofSeconds(10));
+    assertEquals(2, queries.size());
+    assertEquals("SELECT 1;", queries.get(0).getQuery());
+    assertEquals("SELECT 2;", queries.get(1).getQuery());
+  }
+
+  @Test
+  void parseSectionsToEndWithoutMaxQueryDurationTest() {
+    assertThrows(MetricAgentException.class, () -> parseWindow(null));
+  }
+
+  @Test
+  void longQueryLoggedAfterLaterShortQueryTest() throws IOException, MetricAgentException {
+    // The short query starts after the window and ends before the long query that started in it
+    String file = "# Time: 2019-04-10T05:00:26Z\n"
+        + "# User@Host: app[app] @  [127.0.0.1]  Id: 11\n"
+        + "# Query_time: 0.100012  Lock_time: 0.000050 Rows_sent: 1  Rows_examined: 1\n"
+        + "SET timestamp=1554872426;\n"
+        + "SELECT 4;\n"
+        + "# Time: 2019-04-10T05:00:30Z\n" + lateEntry;
+    ZoneId utc = ZoneId.of("UTC");
+    for (Duration maxQueryDuration : Arrays.asList(null, Duration.ofSeconds(10))) {
+      TimeWindow window = new TimeWindow(ZonedDateTime.of(2019, 4, 10, 5, 0, 15, 0, utc),
+          ZonedDateTime.of(2019, 4, 10, 5, 0, 25, 0, utc), true, maxQueryDuration);
+      List<UserQuery> queries = new ArrayList<>();
+      SlowQueryLogParser.parseSections(new RewindBufferedReader(new StringReader(file)), window,
+          queries::add);
+      assertEquals(1, queries.size());
+      assertEquals("SELECT 2;", queries.get(0).getQuery());
+    }
+  }
+
   @Test
   void testNoneFile() throws IOException, MetricAgentException {
     RewindBufferedReader bufferedReader = new RewindBufferedReader(
@@ -0,0 +1,126 @@
+package io.dblint.mart.metricsink.mysql;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dblint.mart.metricsink.util.MetricAgentException;
+import org.jdbi.v3.core.Handle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures rows per second inserted into a SQLite Sink the way LogParser ingests a slow query
+ * log: batches of batchSize rows on one handle, committed every commitSize rows. The rows are
+ * the sample logs in src/test/resources/slow_logs repeated to ROWS rows.
+ * Run main() with the test classpath of this module.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SqliteIngestBenchmark {
+  private static final int ROWS = 20000;
+
+  @Param({"1000"})
+  public int batchSize;
+
+  @Param({"1000", "50000"})
+  public int commitSize;
+
+  private List<UserQuery> queries;
+  private Path directory;
+  private Sink sink;
+
+  /**
+   * Parse the sample slow query logs and repeat their queries to ROWS rows.
+   */
+  @Setup
+  public void setUp() throws IOException, MetricAgentException {
+    List<UserQuery> parsed = new ArrayList<>();
+    for (String file : Arrays.asList("slow_logs/slowlog_01", "slow_logs/slowlog_02",
+        "slow_logs/slowlog_03")) {
+      try (RewindBufferedReader reader = new RewindBufferedReader(new InputStreamReader(
+          getClass().getClassLoader().getResourceAsStream(file)))) {
+        parsed.addAll(SlowQueryLogParser.parseLog(reader));
+      }
+    }
+    queries = new ArrayList<>(ROWS);
+    while (queries.size() < ROWS) {
+      queries.add(parsed.get(queries.size() % parsed.size()));
+    }
+  }
+
+  /**
+   * Start every iteration with an empty database.
+   */
+  @Setup(Level.Iteration)
+  public void createSink() throws IOException {
+    directory = Files.createTempDirectory("sqlite_ingest");
+    sink = new Sink("jdbc:sqlite:" + directory.resolve("ingest.sqlite"), "", "",
+        new MetricRegistry());
+    sink.initialize();
+  }
+
+  /**
+   * Close the pool and delete the database.
+   */
+  @TearDown(Level.Iteration)
+  public void deleteSink() throws IOException {
+    sink.shutdown();
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void ingest() {
+    try (Handle handle = sink.open()) {
+      handle.begin();
+      int uncommitted = 0;
+      for (int start = 0; start < ROWS; start += batchSize) {
+        List<UserQuery> batch = queries.subList(start, Math.min(start + batchSize, ROWS));
+        sink.insertUserQueries(handle, batch);
+        uncommitted += batch.size();
+        if (uncommitted >= commitSize) {
+          handle.commit();
+          handle.begin();
+          uncommitted = 0;
+        }
+      }
+      handle.commit();
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(SqliteIngestBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+}
@@ -0,0 +1,146 @@
+package io.dblint.mart.metricsink.redshift;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dblint.mart.metricsink.util.PoolSettings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AsyncMySqlSinkTest {
+  private static final String url = "jdbc:h2:mem:io.dblint.metricsink.sinks.AsyncMySqlSinkTest";
+
+  private MetricRegistry metricRegistry;
+  private Connection h2db;
+  private AsyncMySqlSink asyncSink;
+
+  @BeforeEach
+  void setH2() throws SQLException {
+    h2db = DriverManager.getConnection(url);
+    metricRegistry = new MetricRegistry();
+  }
+
+  @AfterEach
+  void dropAllObjects() throws SQLException {
+    if (asyncSink != null) {
+      asyncSink.shutdown();
+    }
+    Statement statement = h2db.createStatement();
+    statement.execute("DROP ALL OBJECTS");
+    statement.close();
+    h2db.close();
+  }
+
+  private AsyncMySqlSink sink(int queueSize, int batchSize, long flushIntervalMs) {
+    return sink(queueSize, batchSize, flushIntervalMs, 10);
+  }
+
+  private AsyncMySqlSink sink(int queueSize, int batchSize, long flushIntervalMs,
+                              long offerTimeoutMs) {
+    AsyncMySqlSink sink = new AsyncMySqlSink(url, "", "", metricRegistry, queueSize, batchSize,
+        flushIntervalMs, offerTimeoutMs, PoolSettings.DEFAULT);
+    sink.initialize();
+    asyncSink = sink;
+    return sink;
+  }
+
+  private int count(String table) throws SQLException {
+    try (Statement statement = h2db.createStatement();
+         ResultSet resultSet = statement.executeQuery("select count(*) from " + table)) {
+      resultSet.next();
+      return resultSet.getInt(1);
+    }
+  }
+
+  private static UserConnection connection(int process) {
+    UserConnection userConnection = new UserConnection(LocalDateTime.now(),
+        process, "user", "168.9.1.1", "26");
+    userConnection.pollTime = LocalDateTime.now();
+    return userConnection;
+  }
+
+  @Test
+  void stopWritesQueuedRows() throws SQLException, InterruptedException {
+    AsyncMySqlSink sink = sink(10000, 100, 60000);
+    sink.start();
+    for (int i = 0; i < 1050; i++) {
+      sink.insertQueryStats(new QueryStats("db", "user", "user_group", LocalDateTime.now(),
+          0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 0.9, 0.999, i));
+    }
+    sink.insertConnections(connection(101));
+    RunningQuery query = new RunningQuery(1, 1, 101, "label", 10001, 909,
+        LocalDateTime.now(), false);
+    query.pollTime = LocalDateTime.now();
+    sink.insertRunningQueries(query);
+    sink.stop();
+
+    assertEquals(1050, count("query_stats"));
+    assertEquals(1, count("user_connections"));
+    assertEquals(1, count("running_queries"));
+    assertEquals(1052, sink.getRowsWritten());
+    assertEquals(0, metricRegistry.getGauges().get("inviscid.mysql_sink.queue_depth").getValue());
+    assertTrue(metricRegistry.timer("inviscid.mysql_sink.flush").getCount() >= 11);
+  }
+
+  @Test
+  void partialBatchIsWrittenAfterInterval() throws SQLException, InterruptedException {
+    AsyncMySqlSink sink = sink(100, 1000, 50);
+    sink.start();
+    for (int i = 0; i < 3; i++) {
+      sink.insertConnections(connection(i));
+    }
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (sink.getRowsWritten() < 3 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(3, count("user_connections"));
+    sink.stop();
+  }
+
+  @Test
+  void fullQueueDropsRows() throws SQLException, InterruptedException {
+    AsyncMySqlSink sink = sink(2, 100, 50);
+    for (int i = 0; i < 3; i++) {
+      sink.insertConnections(connection(i));
+    }
+    assertEquals(1, sink.getDroppedRows());
+
+    sink.start();
+    sink.stop();
+    assertEquals(2, count("user_connections"));
+  }
+
+  @Test
+  void burstIntoFullQueueWaitsOnce() throws SQLException, InterruptedException {
+    AsyncMySqlSink sink = sink(2, 100, 50, 500);
+    long start = System.nanoTime();
+    for (int i = 0; i < 100; i++) {
+      sink.insertConnections(connection(i));
+    }
+    long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertEquals(98, sink.getDroppedRows());
+    assertTrue(elapsedMs < 2 * 500, "A burst took " + elapsedMs + " ms");
+
+    sink.start();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (sink.getRowsWritten() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    // Rows are queued again once the writer has caught up
+    sink.insertConnections(connection(100));
+    sink.stop();
+    assertEquals(98, sink.getDroppedRows());
+    assertEquals(3, count("user_connections"));
+  }
+}
@@ -1,6 +1,7 @@
 package io.dblint.mart.metricsink.redshift;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
@@ -13,6 +14,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.SortedMap;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import org.junit.jupiter.api.AfterEach;
@@ -37,6 +39,7 @@ class MySqlSinkTest {
 
   @AfterEach
   void dropAllObjects() throws SQLException {
+    mySqlSink.shutdown();
     Statement statement = h2db.createStatement();
     statement.execute("DROP ALL OBJECTS");
     statement.close();
@@ -172,8 +175,9 @@ class MySqlSinkTest {
     mySqlSink.insertQueryStats(queryStats);
     SortedMap<String, Timer> timers = metricRegistry.getTimers();
 
-    assertEquals(1, timers.size());
-    assertEquals("inviscid.query.raw", timers.firstKey());
+    assertEquals(2, timers.size());
+    assertEquals("inviscid.mysql_sink.pool.Wait", timers.firstKey());
+    assertEquals("inviscid.query.raw", timers.lastKey());
   }
 
   @Test
@@ -185,8 +189,9 @@ class MySqlSinkTest {
 
     SortedMap<String, Timer> timers = metricRegistry.getTimers();
 
-    assertEquals(1, timers.size());
-    assertEquals("inviscid.query.raw", timers.firstKey());
+    assertEquals(2, timers.size());
+    assertEquals("inviscid.mysql_sink.pool.Wait", timers.firstKey());
+    assertEquals("inviscid.query.raw", timers.lastKey());
   }
 
   @Test
@@ -200,7 +205,24 @@ class MySqlSinkTest {
 
     SortedMap<String, Timer> timers = metricRegistry.getTimers();
 
-    assertEquals(1, timers.size());
-    assertEquals("inviscid.query.raw", timers.firstKey());
+    assertEquals(2, timers.size());
+    assertEquals("inviscid.mysql_sink.pool.Wait", timers.firstKey());
+    assertEquals("inviscid.query.raw", timers.lastKey());
   }
-}
\ No newline at end of file
+
+  @Test
+  void poolMetricsTest() {
+    UserConnection userConnection
+        = new UserConnection(LocalDateTime.now(),
+        101, "user", "168.9.1.1", "26" );
+    userConnection.pollTime = LocalDateTime.now();
+
+    mySqlSink.insertConnections(userConnection);
+
+    SortedMap<String, Gauge> gauges = metricRegistry.getGauges();
+    assertEquals(0, gauges.get("inviscid.mysql_sink.pool.ActiveConnections").getValue());
+    assertTrue((Integer) gauges.get("inviscid.mysql_sink.pool.TotalConnections").getValue() > 0);
+    assertEquals(10, gauges.get("inviscid.mysql_sink.pool.MaxConnections").getValue());
+    assertTrue(metricRegistry.timer("inviscid.mysql_sink.pool.Wait").getCount() > 0);
+  }
+}
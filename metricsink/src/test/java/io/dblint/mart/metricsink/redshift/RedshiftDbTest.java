@@ -24,6 +24,7 @@ class RedshiftDbTest {
   private static final String url = "jdbc:h2:mem:RedshiftDbTest";
 
   private Connection h2db;
+  private RedshiftDb redshiftDb;
 
   @BeforeEach
   void setH2db(TestInfo testInfo) throws SQLException {
@@ -39,6 +40,10 @@ class RedshiftDbTest {
 
   @AfterEach
   void tearDownH2db() throws SQLException {
+    // The pool keeps the in-memory database open for the next test.
+    if (redshiftDb != null) {
+      redshiftDb.shutdown();
+    }
     h2db.close();
   }
 
@@ -61,8 +66,7 @@ class RedshiftDbTest {
   @Test
   void queryStatsTest() {
     MetricRegistry metricRegistry = new MetricRegistry();
-    RedshiftDb redshiftDb = new RedshiftDb(url, "", "",
-        metricRegistry);
+    redshiftDb = new RedshiftDb(url, "", "", metricRegistry);
 
     List<QueryStats> queryStatsList = redshiftDb.getQueryStats(true,
         LocalDateTime.of(2018, 9, 13, 12, 0, 0),
@@ -91,8 +95,7 @@ class RedshiftDbTest {
   @Test
   void userQueryTest() {
     MetricRegistry metricRegistry = new MetricRegistry();
-    RedshiftDb redshiftDb = new RedshiftDb(url, "", "",
-        metricRegistry);
+    redshiftDb = new RedshiftDb(url, "", "", metricRegistry);
 
     List<UserQuery> userQueries = redshiftDb.getQueries(
         LocalDateTime.of(2018, 9, 19, 11, 0, 0),
@@ -128,8 +131,7 @@ class RedshiftDbTest {
   @Test
   void connectionTest() {
     MetricRegistry metricRegistry = new MetricRegistry();
-    RedshiftDb redshiftDb = new RedshiftDb(url, "", "",
-        metricRegistry);
+    redshiftDb = new RedshiftDb(url, "", "", metricRegistry);
 
     List<UserConnection> userConnections = redshiftDb.getUserConnections();
 
@@ -147,8 +149,7 @@ class RedshiftDbTest {
   @Test
   void runningQueriesTest() {
     MetricRegistry metricRegistry = new MetricRegistry();
-    RedshiftDb redshiftDb = new RedshiftDb(url, "", "",
-        metricRegistry);
+    redshiftDb = new RedshiftDb(url, "", "", metricRegistry);
 
     List<RunningQuery> queries = redshiftDb.getRunningQueries();
 
@@ -0,0 +1,119 @@
+package io.dblint.mart.metricsink.util;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CompressedLogsTest {
+  private static byte[] log() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      builder.append("# Time: 2019-04-10T05:00:20.766066Z\n")
+          .append("SELECT ").append(i).append(";\n");
+    }
+    return builder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] readAll(InputStream stream) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[7000];
+    int read;
+    while ((read = stream.read(buffer)) >= 0) {
+      output.write(buffer, 0, read);
+    }
+    return output.toByteArray();
+  }
+
+  @Test
+  void plainLog(@TempDir Path tempDir) throws IOException {
+    Path path = tempDir.resolve("slow.log");
+    Files.write(path, log());
+    assertEquals(CompressedLogs.Compression.NONE, CompressedLogs.detect(path));
+    try (InputStream stream = CompressedLogs.open(path)) {
+      assertArrayEquals(log(), readAll(stream));
+    }
+  }
+
+  @Test
+  void gzipLog(@TempDir Path tempDir) throws IOException {
+    Path path = tempDir.resolve("slow.log.1");
+    try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(path))) {
+      output.write(log());
+    }
+    assertEquals(CompressedLogs.Compression.GZIP, CompressedLogs.detect(path));
+    try (InputStream stream = CompressedLogs.open(path)) {
+      assertArrayEquals(log(), readAll(stream));
+    }
+  }
+
+  @Test
+  void zstdLog(@TempDir Path tempDir) throws IOException {
+    Path path = tempDir.resolve("slow.log.zst");
+    try (OutputStream output = new ZstdOutputStream(Files.newOutputStream(path))) {
+      output.write(log());
+    }
+    assertEquals(CompressedLogs.Compression.ZSTD, CompressedLogs.detect(path));
+    try (InputStream stream = CompressedLogs.open(path)) {
+      assertArrayEquals(log(), readAll(stream));
+    }
+  }
+
+  @Test
+  void shortFile(@TempDir Path tempDir) throws IOException {
+    Path path = tempDir.resolve("empty.log");
+    Files.write(path, new byte[] {0x1f});
+    assertEquals(CompressedLogs.Compression.NONE, CompressedLogs.detect(path));
+  }
+
+  @Test
+  void readAheadInSmallBlocks() throws IOException {
+    try (InputStream stream = new ReadAheadInputStream(new ByteArrayInputStream(log()),
+        "test", 100, 2)) {
+      assertArrayEquals(log(), readAll(stream));
+      assertEquals(-1, stream.read());
+    }
+  }
+
+  @Test
+  void readAheadFailure() throws IOException {
+    InputStream failing = new FilterInputStream(new ByteArrayInputStream(log())) {
+      private int count = 0;
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (++count > 3) {
+          throw new IOException("Corrupt input");
+        }
+        return super.read(buffer, offset, length);
+      }
+    };
+    try (InputStream stream = new ReadAheadInputStream(failing, "test", 100, 2)) {
+      assertEquals(300, stream.read(new byte[300]) + stream.read(new byte[300])
+          + stream.read(new byte[300]));
+      assertThrows(IOException.class, () -> stream.read(new byte[300]));
+    }
+  }
+
+  @Test
+  void closeBeforeEnd() throws IOException {
+    InputStream stream = new ReadAheadInputStream(new ByteArrayInputStream(log()), "test", 100,
+        2);
+    assertEquals('#', stream.read());
+    stream.close();
+  }
+}
@@ -6,6 +6,7 @@ import io.dblint.mart.metricsink.redshift.MySqlSink;
 import io.dblint.mart.metricsink.redshift.RedshiftDb;
 import io.dblint.mart.metricsink.redshift.UserQuery;
 import io.dblint.mart.sqlplanner.AnalyticsClassifier;
+import io.dblint.mart.sqlplanner.BatchRunner;
 import io.dblint.mart.sqlplanner.enums.AnalyticsEnum;
 import io.dblint.mart.sqlplanner.enums.EnumContext;
 import io.dblint.mart.sqlplanner.enums.QueryType;
@@ -15,21 +16,29 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 public class BadQueriesCron extends Cron {
   private static Logger logger = LoggerFactory.getLogger(BadQueriesCron.class);
 
   AnalyticsClassifier redshiftClassier;
+  BatchRunner runner;
   Counter numQueriesProcessed;
   Counter numBadQueries;
   Counter parseExceptions;
 
   BadQueriesCron(int frequency, MetricRegistry metricRegistry,
                  RedshiftDb redshiftDb, MySqlSink mySqlSink) {
+    this(frequency, metricRegistry, redshiftDb, mySqlSink, new BatchRunner());
+  }
+
+  BadQueriesCron(int frequency, MetricRegistry metricRegistry,
+                 RedshiftDb redshiftDb, MySqlSink mySqlSink, BatchRunner runner) {
     super(mySqlSink, redshiftDb, frequency, metricRegistry, "badQueriesCron");
 
     redshiftClassier = new AnalyticsClassifier();
+    this.runner = runner;
     numQueriesProcessed = metricRegistry.counter("inviscid.bad_queries_cron.num_queries_processed");
     numBadQueries = metricRegistry.counter("inviscid.bad_queries_cron.num_bad_queries");
     parseExceptions = metricRegistry.counter("inviscid.bad_queries_cron.num_parse_exception");
@@ -53,18 +62,25 @@ public class BadQueriesCron extends Cron {
       logger.info("Processing " + userQueryList.size() + " queries" );
 
       long prevFound = numBadQueries.getCount();
-      for (UserQuery userQuery : userQueryList) {
-        try {
-          List<QueryType> queryTypes = redshiftClassier.classify(userQuery.query,
-              EnumContext.EMPTY_CONTEXT);
-          if (queryTypes.contains(AnalyticsEnum.BAD_TOOMANYJOINS)) {
+      List<String> queries = new ArrayList<>(userQueryList.size());
+      userQueryList.forEach(userQuery -> queries.add(userQuery.query));
+      // The classifier is thread-safe, so the threads share it.
+      List<BatchRunner.Outcome<List<QueryType>>> outcomes = runner.classifyAll(
+          () -> redshiftClassier, queries, EnumContext.EMPTY_CONTEXT);
+      for (int i = 0; i < userQueryList.size(); i++) {
+        UserQuery userQuery = userQueryList.get(i);
+        BatchRunner.Outcome<List<QueryType>> outcome = outcomes.get(i);
+        if (outcome.isSuccess()) {
+          if (outcome.getResult().contains(AnalyticsEnum.BAD_TOOMANYJOINS)) {
             numBadQueries.inc();
             mySqlSink.insertBadQueries(userQuery);
           }
-        } catch (SqlParseException parseExc) {
+        } else if (outcome.getFailure() instanceof SqlParseException) {
           parseExceptions.inc();
           logger.warn(userQuery.query);
-          logger.warn("Query ID: " + userQuery.queryId + " ", parseExc);
+          logger.warn("Query ID: " + userQuery.queryId + " ", outcome.getFailure());
+        } else {
+          throw outcome.getFailure();
         }
       }
 
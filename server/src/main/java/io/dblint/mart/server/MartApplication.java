@@ -3,17 +3,21 @@ package io.dblint.mart.server;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
-import io.dblint.mart.metricsink.redshift.MySqlSink;
+import io.dblint.mart.metricsink.redshift.AsyncMySqlSink;
 import io.dblint.mart.metricsink.redshift.RedshiftDb;
 import io.dblint.mart.server.commands.MySqlCommands;
 import io.dblint.mart.server.configuration.JdbcConfiguration;
+import io.dblint.mart.server.configuration.SinkWriterConfiguration;
 import io.dblint.mart.server.pojo.GitState;
 import io.dblint.mart.server.resources.DbLintResource;
 import io.dblint.mart.server.resources.RedshiftResource;
 import io.dblint.mart.server.resources.RootResource;
+import io.dblint.mart.sqlplanner.BatchRunner;
+import io.dblint.mart.sqlplanner.planner.DigestCache;
 import io.dblint.mart.sqlplanner.planner.Parser;
 import io.dropwizard.Application;
 import io.dropwizard.jackson.Jackson;
+import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.lifecycle.setup.ExecutorServiceBuilder;
 import io.dropwizard.lifecycle.setup.ScheduledExecutorServiceBuilder;
 import io.dropwizard.setup.Bootstrap;
@@ -52,10 +56,25 @@ public class MartApplication extends Application<MartConfiguration> {
 
     if (redShift != null && mySql != null) {
       RedshiftDb redshiftDb = new RedshiftDb(redShift.getUrl(), redShift.getUser(),
-          redShift.getPassword(), environment.metrics());
-      MySqlSink mySqlSink = new MySqlSink(mySql.getUrl(), mySql.getUser(),
-          mySql.getPassword(), environment.metrics());
+          redShift.getPassword(), environment.metrics(), redShift.getPoolSettings());
+      SinkWriterConfiguration writer = configuration.mySqlWriter;
+      AsyncMySqlSink mySqlSink = new AsyncMySqlSink(mySql.getUrl(), mySql.getUser(),
+          mySql.getPassword(), environment.metrics(), writer.queueSize, writer.batchSize,
+          writer.flushIntervalMs, writer.offerTimeoutMs, mySql.getPoolSettings());
       mySqlSink.initialize();
+      environment.lifecycle().manage(new Managed() {
+        @Override
+        public void start() {
+          mySqlSink.start();
+        }
+
+        @Override
+        public void stop() throws InterruptedException {
+          mySqlSink.stop();
+          mySqlSink.shutdown();
+          redshiftDb.shutdown();
+        }
+      });
 
       ScheduledExecutorServiceBuilder serviceBuilder = environment.lifecycle()
           .scheduledExecutorService("mart_application");
@@ -76,8 +95,14 @@ public class MartApplication extends Application<MartConfiguration> {
       }
 
       if (configuration.badQueriesCron != null) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService batchExecutor = environment.lifecycle().executorService("mart_batch")
+            .minThreads(threads)
+            .maxThreads(threads)
+            .build();
         BadQueriesCron cron = new BadQueriesCron(configuration.badQueriesCron.frequencyMin,
-            environment.metrics(), redshiftDb, mySqlSink);
+            environment.metrics(), redshiftDb, mySqlSink,
+            new BatchRunner(batchExecutor, threads));
 
         scheduledExecutorService.scheduleAtFixedRate(cron,
             configuration.badQueriesCron.delayMin, configuration.badQueriesCron.frequencyMin,
@@ -109,7 +134,10 @@ public class MartApplication extends Application<MartConfiguration> {
       GitState gitState = new ObjectMapper().readValue(stream, GitState.class);
 
       RootResource rootResource = new RootResource();
-      DbLintResource resource = new DbLintResource(new Parser(), gitState);
+      Parser parser = new Parser();
+      DigestCache digestCache = new DigestCache(parser);
+      digestCache.registerMetrics(environment.metrics(), "io.dblint.dbLint.digestCache");
+      DbLintResource resource = new DbLintResource(parser, digestCache, gitState);
       environment.jersey().register(resource);
       environment.jersey().register(rootResource);
       environment.jersey().register(new SqlParseExceptionMapper());
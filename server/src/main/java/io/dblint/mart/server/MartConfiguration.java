@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 import io.dblint.mart.server.configuration.CronConfiguration;
 import io.dblint.mart.server.configuration.JdbcConfiguration;
+import io.dblint.mart.server.configuration.SinkWriterConfiguration;
 import io.dropwizard.Configuration;
 
 public class MartConfiguration extends Configuration {
@@ -13,6 +14,9 @@ public class MartConfiguration extends Configuration {
   @JsonProperty
   JdbcConfiguration mySql;
 
+  @JsonProperty
+  SinkWriterConfiguration mySqlWriter = new SinkWriterConfiguration();
+
   @JsonProperty
   CronConfiguration queryStatsCron;
 
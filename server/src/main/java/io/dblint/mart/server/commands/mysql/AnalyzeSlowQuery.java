@@ -1,21 +1,35 @@
 package io.dblint.mart.server.commands.mysql;
 
 import io.dblint.mart.analyses.mysql.SlowQuery;
+import io.dblint.mart.metricsink.mysql.DayPartitions;
 import io.dblint.mart.metricsink.mysql.QueryAttribute;
 import io.dblint.mart.metricsink.mysql.Sink;
 import io.dblint.mart.metricsink.mysql.UserQuery;
+import io.dblint.mart.metricsink.util.MetricAgentException;
+import io.dblint.mart.sqlplanner.BatchRunner;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.Namespace;
 import net.sourceforge.argparse4j.inf.Subparser;
-import org.apache.calcite.sql.parser.SqlParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class AnalyzeSlowQuery extends TimeRange {
   private static Logger logger = LoggerFactory.getLogger(AnalyzeSlowQuery.class);
 
+  static final int DEFAULT_FETCH_SIZE = 1000;
+
   public AnalyzeSlowQuery() {
     super("analyze-slow-query", "Analyze Slow Queries and augment with more information");
   }
@@ -28,6 +42,25 @@ public class AnalyzeSlowQuery extends TimeRange {
         .type(String.class)
         .help("Connection String to Database");
 
+    subparser.addArgument("--partition-by-day")
+        .action(Arguments.storeTrue())
+        .help("Treat --connection as a directory with one sqlite database for every day");
+
+    subparser.addArgument("--after-id")
+        .type(Long.class)
+        .setDefault(0L)
+        .help("Only analyze queries with a larger id, to resume an earlier run");
+
+    subparser.addArgument("--fetch-size")
+        .type(Integer.class)
+        .setDefault(DEFAULT_FETCH_SIZE)
+        .help("Number of queries read and analyzed in one transaction");
+
+    subparser.addArgument("--threads")
+        .type(Integer.class)
+        .setDefault(Runtime.getRuntime().availableProcessors())
+        .help("Number of threads that analyze queries");
+
   }
 
   /**
@@ -35,28 +68,89 @@ public class AnalyzeSlowQuery extends TimeRange {
    * @param namespace Namespace with arguments
    */
   @Override
-  public void run(Namespace namespace) {
-    String startTime = namespace.getString("startTime");
-    String endTime = namespace.getString("endTime");
-
-    Sink sink = new Sink("jdbc:sqlite:" + namespace.getString("connection"), "", "", registry);
-    sink.initialize();
-
-    List<UserQuery> queryList = sink.selectUserQueries(
-        LocalDateTime.parse(startTime, dateFormat),
-        LocalDateTime.parse(endTime, dateFormat)
-    );
-
-    sink.useTransaction(handle -> queryList.forEach(userQuery -> {
-      SlowQuery slowQuery = new SlowQuery(this.registry);
-      try {
-        QueryAttribute attribute = slowQuery.analyze(userQuery.getQuery());
-        sink.setQueryAttribute(handle, userQuery, attribute);
-      } catch (SqlParseException | UnsupportedOperationException | NullPointerException
-        | IndexOutOfBoundsException exc) {
-        logger.error("Failed to analyze query '" + userQuery.getId() + "'." + exc.getMessage());
+  public void run(Namespace namespace) throws IOException, MetricAgentException {
+    LocalDateTime start = LocalDateTime.parse(namespace.getString("startTime"), dateFormat);
+    LocalDateTime end = LocalDateTime.parse(namespace.getString("endTime"), dateFormat);
+    long afterId = namespace.getLong("after_id");
+    int fetchSize = namespace.getInt("fetch_size");
+    SlowQuery slowQuery = new SlowQuery(this.registry);
+
+    if (Boolean.TRUE.equals(namespace.getBoolean("partition_by_day")) && afterId > 0) {
+      throw new MetricAgentException("--after-id cannot be used with --partition-by-day");
+    }
+    try (BatchRunner runner = new BatchRunner(namespace.getInt("threads"))) {
+      if (Boolean.TRUE.equals(namespace.getBoolean("partition_by_day"))) {
+        DayPartitions partitions = new DayPartitions(
+            Paths.get(namespace.getString("connection")), this.registry);
+        try {
+          for (LocalDate day : partitions.days(start.toLocalDate(), end.toLocalDate())) {
+            logger.info("Analyze partition " + day);
+            analyze(partitions.partition(day), slowQuery, runner, start, end, 0, fetchSize);
+          }
+        } finally {
+          partitions.shutdown();
+        }
+      } else {
+        Sink sink = new Sink("jdbc:sqlite:" + namespace.getString("connection"), "", "",
+            registry);
+        try {
+          sink.initialize();
+          analyze(sink, slowQuery, runner, start, end, afterId, fetchSize);
+        } finally {
+          sink.shutdown();
+        }
       }
-    }));
+    }
     super.logRegistry();
   }
+
+  /*
+   * Analyze the queries of a sink a page at a time. Every page is stored in its own
+   * transaction, so a run that stops can resume after the last id that was logged.
+   */
+  private void analyze(Sink sink, SlowQuery slowQuery, BatchRunner runner,
+                       LocalDateTime start, LocalDateTime end, long afterId, int fetchSize) {
+    Iterator<UserQuery> queries = sink.streamUserQueries(start, end, afterId, fetchSize)
+        .iterator();
+    List<UserQuery> page = new ArrayList<>(fetchSize);
+    while (queries.hasNext()) {
+      page.add(queries.next());
+      if (page.size() == fetchSize || !queries.hasNext()) {
+        analyzePage(sink, slowQuery, runner, page);
+        logger.info("Analyzed queries up to id " + page.get(page.size() - 1).getId());
+        page.clear();
+      }
+    }
+  }
+
+  private void analyzePage(Sink sink, SlowQuery slowQuery, BatchRunner runner,
+                           List<UserQuery> page) {
+    List<String> sqls = new ArrayList<>(page.size());
+    page.forEach(userQuery -> sqls.add(userQuery.getQuery()));
+    List<BatchRunner.Outcome<QueryAttribute>> outcomes = slowQuery.analyzeAll(sqls, runner);
+
+    // Most queries share a few digests, so each digest is stored once.
+    List<UserQuery> analyzed = new ArrayList<>();
+    Map<String, QueryAttribute> attributes = new LinkedHashMap<>();
+    for (int i = 0; i < page.size(); i++) {
+      UserQuery userQuery = page.get(i);
+      BatchRunner.Outcome<QueryAttribute> outcome = outcomes.get(i);
+      if (outcome.isSuccess()) {
+        QueryAttribute attribute = outcome.getResult();
+        userQuery.setDigestHash(attribute.digestHash);
+        attributes.putIfAbsent(attribute.digestHash, attribute);
+        analyzed.add(userQuery);
+      } else {
+        logger.error("Failed to analyze query '" + userQuery.getId() + "'."
+            + outcome.getFailure().getMessage());
+      }
+    }
+
+    Set<String> newDigests = new HashSet<>();
+    int inserted = sink.inTransaction(handle ->
+        sink.setQueryAttributes(handle, analyzed, attributes.values(), newDigests));
+    sink.addKnownDigests(newDigests);
+    logger.debug("Analyzed " + analyzed.size() + " queries with " + attributes.size()
+        + " digests, " + inserted + " new");
+  }
 }
@@ -0,0 +1,222 @@
+package io.dblint.mart.server.commands.mysql;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.dblint.mart.metricsink.mysql.Logged;
+import io.dblint.mart.metricsink.util.MetricAgentException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Parses the files of a log directory on a pool of workers and passes the entries to a single
+ * writer on the calling thread. Every worker parses one file and hands its entries over in
+ * batches through a bounded queue, so a slow writer holds back the workers.
+ *
+ * <p>The writer merges the files that are parsed at the same time by log time. Each file keeps
+ * its own order. Files are started in order of their modification time, so rotated segments of
+ * a log are written in time order.
+ *
+ * <p>A file that fails with a MetricAgentException is logged and skipped, as before. The
+ * entries it produced before the failure are kept. Any other exception stops the ingestion.
+ */
+class DirectoryIngester<LoggedT extends Logged> {
+  private static Logger logger = LoggerFactory.getLogger(DirectoryIngester.class);
+
+  static final int BATCH_SIZE = 256;
+  static final int QUEUE_BATCHES = 16;
+
+  interface FileParser<T> {
+    void parse(Path path, Consumer<T> consumer) throws IOException, MetricAgentException;
+  }
+
+  private final FileParser<LoggedT> parser;
+  private final int workers;
+  private final MetricRegistry registry;
+
+  DirectoryIngester(FileParser<LoggedT> parser, int workers, MetricRegistry registry) {
+    this.parser = parser;
+    this.workers = workers;
+    this.registry = registry;
+  }
+
+  private static class Cancelled extends RuntimeException {
+    Cancelled(InterruptedException cause) {
+      super(cause);
+    }
+  }
+
+  private class FileTask implements Runnable {
+    private final File file;
+    private final BlockingQueue<List<LoggedT>> queue = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+    private final Meter parsed;
+    private final Timer parseTime;
+    private volatile Exception failure;
+
+    private List<LoggedT> batch = new ArrayList<>(BATCH_SIZE);
+    private List<LoggedT> head;
+    private int index;
+
+    FileTask(File file) {
+      this.file = file;
+      this.parsed = registry.meter(MetricRegistry.name("logParser", file.getName(), "parsed"));
+      this.parseTime = registry.timer(
+          MetricRegistry.name("logParser", file.getName(), "parseTime"));
+    }
+
+    private void flush() {
+      if (!batch.isEmpty()) {
+        try {
+          queue.put(batch);
+        } catch (InterruptedException exc) {
+          Thread.currentThread().interrupt();
+          throw new Cancelled(exc);
+        }
+        batch = new ArrayList<>(BATCH_SIZE);
+      }
+    }
+
+    @Override
+    public void run() {
+      logger.info("Processing " + file.getName());
+      long start = System.nanoTime();
+      try {
+        parser.parse(file.toPath(), item -> {
+          batch.add(item);
+          parsed.mark();
+          if (batch.size() == BATCH_SIZE) {
+            flush();
+          }
+        });
+        flush();
+      } catch (MetricAgentException exc) {
+        logger.error("Failed to parse " + file.getName(), exc);
+        flush();
+      } catch (Cancelled exc) {
+        return;
+      } catch (IOException | RuntimeException exc) {
+        failure = exc;
+      } finally {
+        long elapsed = System.nanoTime() - start;
+        parseTime.update(elapsed, TimeUnit.NANOSECONDS);
+        logger.info("Parsed " + parsed.getCount() + " from " + file.getName() + " in "
+            + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms");
+      }
+
+      try {
+        queue.put(Collections.emptyList());
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /*
+     * Make sure that the next entry of the file is at the head. Returns false once the file is
+     * done.
+     */
+    boolean fillHead() throws IOException, MetricAgentException {
+      if (head != null && index < head.size()) {
+        return true;
+      }
+      try {
+        head = queue.take();
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+        throw new MetricAgentException(exc);
+      }
+      index = 0;
+      if (head.isEmpty()) {
+        rethrow();
+        return false;
+      }
+      return true;
+    }
+
+    ZonedDateTime headTime() {
+      return head.get(index).getZonedLogTime();
+    }
+
+    LoggedT take() {
+      return head.get(index++);
+    }
+
+    private void rethrow() throws IOException {
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      } else if (failure != null) {
+        throw (RuntimeException) failure;
+      }
+    }
+  }
+
+  private static boolean isBefore(ZonedDateTime time, ZonedDateTime other) {
+    return time == null ? other != null : other != null && time.isBefore(other);
+  }
+
+  /**
+   * Parse files and pass their entries to a writer.
+   * @param files Files to parse
+   * @param writer Called on the calling thread for every entry
+   * @throws IOException Thrown if a file cannot be read
+   * @throws MetricAgentException Thrown if the calling thread is interrupted
+   */
+  void ingest(List<File> files, Consumer<LoggedT> writer)
+      throws IOException, MetricAgentException {
+    List<File> ordered = new ArrayList<>(files);
+    ordered.sort((first, second) -> first.lastModified() != second.lastModified()
+        ? Long.compare(first.lastModified(), second.lastModified())
+        : first.getName().compareTo(second.getName()));
+    Deque<File> pending = new ArrayDeque<>(ordered);
+
+    AtomicInteger threadNumber = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(workers, runnable -> {
+      Thread thread = new Thread(runnable, "log-ingester-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    List<FileTask> active = new ArrayList<>();
+    try {
+      while (!pending.isEmpty() || !active.isEmpty()) {
+        while (active.size() < workers && !pending.isEmpty()) {
+          FileTask task = new FileTask(pending.poll());
+          executor.execute(task);
+          active.add(task);
+        }
+
+        FileTask next = null;
+        for (Iterator<FileTask> iterator = active.iterator(); iterator.hasNext(); ) {
+          FileTask task = iterator.next();
+          if (!task.fillHead()) {
+            iterator.remove();
+          } else if (next == null || isBefore(task.headTime(), next.headTime())) {
+            next = task;
+          }
+        }
+        if (next != null) {
+          writer.accept(next.take());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
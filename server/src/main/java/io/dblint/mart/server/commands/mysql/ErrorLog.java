@@ -1,17 +1,17 @@
 package io.dblint.mart.server.commands.mysql;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.dblint.mart.metricsink.mysql.Deadlock;
 import io.dblint.mart.metricsink.mysql.ErrorLogParser;
+import io.dblint.mart.metricsink.mysql.ParquetLayout;
 import io.dblint.mart.metricsink.mysql.RewindBufferedReader;
 import io.dblint.mart.metricsink.mysql.Sink;
 import io.dblint.mart.metricsink.util.MetricAgentException;
+import net.sourceforge.argparse4j.inf.Subparser;
 import org.jdbi.v3.core.Handle;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class ErrorLog extends LogParser<ErrorLogParser, Deadlock> {
 
@@ -19,19 +19,32 @@ public class ErrorLog extends LogParser<ErrorLogParser, Deadlock> {
     super("errorlog", "Analyze Error Log for deadlocks in innodb");
   }
 
+  /*
+   * Deadlocks are not stored in sqlite, so the log cannot be followed and the output is JSON
+   * unless parquet is asked for.
+   */
   @Override
-  protected List<Deadlock> parse(RewindBufferedReader reader)
+  public void configure(Subparser subparser) {
+    super.configure(subparser);
+    subparser.setDefault("output_type", "json");
+  }
+
+  @Override
+  protected boolean hasSqlOutput() {
+    return false;
+  }
+
+  @Override
+  protected void parse(RewindBufferedReader reader, Consumer<Deadlock> consumer)
       throws IOException, MetricAgentException {
-    return ErrorLogParser.parse(new RewindBufferedReader(reader));
+    ErrorLogParser.parse(reader, this.window, consumer);
   }
 
   @Override
-  protected void output(OutputStream os) throws IOException {
-    Collections.sort(this.list);
-    ObjectMapper mapper = new ObjectMapper();
-    mapper.writeValue(os, this.list);
+  ParquetLayout<Deadlock> parquetLayout() {
+    return ParquetLayout.DEADLOCKS;
   }
 
   @Override
-  void outputSql(Sink sink, Handle handle, Deadlock item) {}
+  void outputSql(Sink sink, Handle handle, List<Deadlock> items) {}
 }
@@ -1,16 +1,22 @@
 package io.dblint.mart.server.commands.mysql;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.dblint.mart.metricsink.mysql.InnodbLockWait;
 import io.dblint.mart.metricsink.mysql.InnodbLockWaitsParser;
+import io.dblint.mart.metricsink.mysql.LogSeeker;
+import io.dblint.mart.metricsink.mysql.ParquetLayout;
 import io.dblint.mart.metricsink.mysql.RewindBufferedReader;
 import io.dblint.mart.metricsink.mysql.Sink;
+import io.dblint.mart.metricsink.mysql.Transaction;
 import io.dblint.mart.metricsink.util.MetricAgentException;
+import net.sourceforge.argparse4j.inf.Subparser;
 import org.jdbi.v3.core.Handle;
 
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public class InnodbLockWaitLog extends LogParser<InnodbLockWaitsParser, InnodbLockWait> {
   /**
@@ -22,27 +28,36 @@ public class InnodbLockWaitLog extends LogParser<InnodbLockWaitsParser, InnodbLo
   }
 
   @Override
-  protected List<InnodbLockWait> parse(RewindBufferedReader reader)
-      throws IOException, MetricAgentException {
-    return this.parserT.parse(reader);
+  public void configure(Subparser subparser) {
+    super.configure(subparser);
+    addSeekArgument(subparser);
   }
 
   @Override
-  protected void output(OutputStream os) throws IOException {
-    ObjectMapper mapper = new ObjectMapper();
-    mapper.writeValue(os, this.list);
+  protected LogSeeker seeker(Path path) {
+    return LogSeeker.rowLog(path);
   }
 
   @Override
-  void outputSql(Sink sink, Handle handle, InnodbLockWait item) {
-    if (!sink.getTransaction(handle, item.blocking.getId()).isPresent()) {
-      sink.insertTransaction(handle, item.blocking);
-    }
+  protected void parse(RewindBufferedReader reader, Consumer<InnodbLockWait> consumer)
+      throws IOException, MetricAgentException {
+    this.parserT.parse(reader, this.window, consumer);
+  }
 
-    if (!sink.getTransaction(handle, item.waiting.getId()).isPresent()) {
-      sink.insertTransaction(handle, item.waiting);
-    }
+  @Override
+  ParquetLayout<InnodbLockWait> parquetLayout() {
+    return ParquetLayout.LOCK_WAITS;
+  }
 
-    sink.insertLockWait(handle, item);
+  @Override
+  void outputSql(Sink sink, Handle handle, List<InnodbLockWait> items) {
+    Map<String, Transaction> transactions = new LinkedHashMap<>();
+    for (InnodbLockWait item : items) {
+      transactions.putIfAbsent(item.blocking.getId(), item.blocking);
+      transactions.putIfAbsent(item.waiting.getId(), item.waiting);
+    }
+    transactions.keySet().removeAll(sink.getTransactionIds(handle, transactions.keySet()));
+    sink.insertTransactions(handle, transactions.values());
+    sink.insertLockWaits(handle, items);
   }
 }
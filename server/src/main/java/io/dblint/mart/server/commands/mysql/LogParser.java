@@ -1,10 +1,21 @@
 package io.dblint.mart.server.commands.mysql;
 
 import com.codahale.metrics.Counter;
+import io.dblint.mart.metricsink.mysql.DayPartitions;
+import io.dblint.mart.metricsink.mysql.JsonLogWriter;
+import io.dblint.mart.metricsink.mysql.LogOffset;
+import io.dblint.mart.metricsink.mysql.LogSeeker;
+import io.dblint.mart.metricsink.mysql.LogTailer;
 import io.dblint.mart.metricsink.mysql.Logged;
+import io.dblint.mart.metricsink.mysql.MappedLogReader;
+import io.dblint.mart.metricsink.mysql.ParquetLayout;
+import io.dblint.mart.metricsink.mysql.ParquetLogWriter;
 import io.dblint.mart.metricsink.mysql.RewindBufferedReader;
 import io.dblint.mart.metricsink.mysql.Sink;
+import io.dblint.mart.metricsink.mysql.TimeWindow;
+import io.dblint.mart.metricsink.util.CompressedLogs;
 import io.dblint.mart.metricsink.util.MetricAgentException;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.MutuallyExclusiveGroup;
 import net.sourceforge.argparse4j.inf.Namespace;
 import net.sourceforge.argparse4j.inf.Subparser;
@@ -14,27 +25,42 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 abstract class LogParser<ParserT, LoggedT extends Logged> extends TimeRange {
   private static Logger logger = LoggerFactory.getLogger(LogParser.class);
 
-  protected List<LoggedT> list;
+  static final int DEFAULT_BATCH_SIZE = 1000;
+  static final int DEFAULT_COMMIT_SIZE = 50000;
+
   protected ParserT parserT;
   protected Counter numParsed;
   protected Counter numInserted;
+  protected TimeWindow window = TimeWindow.ALL;
+  protected boolean seek;
+  protected int batchSize = DEFAULT_BATCH_SIZE;
+  protected int commitSize = DEFAULT_COMMIT_SIZE;
+  private int uncommitted = 0;
 
   LogParser(String name, String description) {
     super(name, description);
-    this.list = new ArrayList<>();
     this.numParsed = this.registry.counter("logParser.numParsed");
     this.numInserted = this.registry.counter("logParser.numInserted");
   }
@@ -53,6 +79,11 @@ abstract class LogParser<ParserT, LoggedT extends Logged> extends TimeRange {
         .type(String.class)
         .help("Path to Error Log directory");
 
+    subparser.addArgument("--workers")
+        .type(Integer.class)
+        .setDefault(1)
+        .help("Number of files of --log-dir that are parsed at the same time");
+
     subparser.addArgument("-o", "--output")
         .metavar("output")
         .type(String.class)
@@ -61,77 +92,375 @@ abstract class LogParser<ParserT, LoggedT extends Logged> extends TimeRange {
     subparser.addArgument("--output-type")
         .metavar("outputType")
         .type(String.class)
-        .choices("json", "sqlite")
+        .choices("json", "sqlite", "parquet")
         .setDefault("sqlite")
         .help("Output Type");
+
+    subparser.addArgument("--batch-size")
+        .type(Integer.class)
+        .setDefault(DEFAULT_BATCH_SIZE)
+        .help("Number of rows inserted into the database in one batch");
+
+    subparser.addArgument("--commit-size")
+        .type(Integer.class)
+        .setDefault(DEFAULT_COMMIT_SIZE)
+        .help("Number of rows inserted into a sqlite database in one transaction");
+
+    subparser.addArgument("--row-group-size")
+        .type(Integer.class)
+        .setDefault(ParquetLogWriter.DEFAULT_ROW_GROUP_SIZE / (1024 * 1024))
+        .help("Megabytes of rows buffered before a row group of parquet output is written");
+
+    subparser.addArgument("--partition-by-day")
+        .action(Arguments.storeTrue())
+        .help("Treat --output as a directory with one sqlite database for every day of log time");
+
+    subparser.addArgument("--unordered")
+        .action(Arguments.storeTrue())
+        .help("Read logs to the end even after --endTime, for logs whose times are not in order");
+
+    subparser.addArgument("--max-query-duration")
+        .type(Integer.class)
+        .help("Stop reading a slow log at a \"# Time:\" line this many seconds after --endTime."
+            + " A query that ran longer may be missed. Slow logs are read to the end without it");
+  }
+
+  /**
+   * Add the arguments to follow a log as it grows. Only commands that return a
+   * {@link LogTailer} from {@link #tailer(Path)} should add them.
+   * @param subparser Subparser of the command
+   */
+  protected void addFollowArguments(Subparser subparser) {
+    subparser.addArgument("--follow")
+        .action(Arguments.storeTrue())
+        .help("Keep parsing the log as it grows. Needs --log and sqlite output");
+
+    subparser.addArgument("--poll-interval")
+        .type(Integer.class)
+        .setDefault(5)
+        .help("Seconds to wait between reads of a followed log");
   }
 
-  abstract List<LoggedT> parse(RewindBufferedReader reader)
+  protected LogTailer tailer(Path path) {
+    return null;
+  }
+
+  /**
+   * Whether {@link #outputSql} stores the items of the command. Commands that cannot store
+   * their items do not accept sqlite output and should not add the arguments of
+   * {@link #addFollowArguments(Subparser)}.
+   */
+  protected boolean hasSqlOutput() {
+    return true;
+  }
+
+  /**
+   * Add the argument to find the start time by a binary search. Only commands that return a
+   * {@link LogSeeker} from {@link #seeker(Path)} should add it.
+   * @param subparser Subparser of the command
+   */
+  protected void addSeekArgument(Subparser subparser) {
+    subparser.addArgument("--seek")
+        .action(Arguments.storeTrue())
+        .help("Find --startTime by a binary search of the log. Needs a log in time order");
+  }
+
+  protected LogSeeker seeker(Path path) {
+    return null;
+  }
+
+  /**
+   * Find the offset in a log to parse from. It is 0 unless --seek and --startTime are set.
+   */
+  protected long seekOffset(Path path) throws IOException {
+    LogSeeker seeker = this.seek && window.getStart() != null ? seeker(path) : null;
+    if (seeker == null) {
+      return 0;
+    }
+    long offset = seeker.seek(window.getStart());
+    logger.info("Parsing " + path + " from offset " + offset);
+    return offset;
+  }
+
+  abstract void parse(RewindBufferedReader reader, Consumer<LoggedT> consumer)
       throws IOException, MetricAgentException;
 
-  protected void filter(ZonedDateTime start, ZonedDateTime end) {
-    this.list = this.list.stream()
-        .filter(lt -> lt.getZonedLogTime().isAfter(start) && lt.getZonedLogTime().isBefore(end))
-        .collect(Collectors.toList());
+  /**
+   * Parse a log file. Files compressed with gzip or zstd are decompressed on another thread
+   * while they are parsed. Other files are memory mapped and parsing may start at the offset
+   * of {@link #seekOffset(Path)}.
+   */
+  void parse(Path path, Consumer<LoggedT> consumer)
+      throws IOException, MetricAgentException {
+    if (CompressedLogs.isCompressed(path)) {
+      try (RewindBufferedReader reader = new RewindBufferedReader(
+          new InputStreamReader(CompressedLogs.open(path), StandardCharsets.UTF_8))) {
+        this.parse(reader, consumer);
+      }
+    } else {
+      long offset = seekOffset(path);
+      try (MappedLogReader reader = new MappedLogReader(path, offset, -1)) {
+        if (offset > 0) {
+          this.parseRange(reader, consumer);
+        } else {
+          this.parse(reader, consumer);
+        }
+      }
+    }
+  }
+
+  /**
+   * Parse a range of a log that starts at an entry. The range may not start at the beginning
+   * of the file.
+   */
+  void parseRange(RewindBufferedReader reader, Consumer<LoggedT> consumer)
+      throws IOException, MetricAgentException {
+    this.parse(reader, consumer);
   }
 
-  @Override
-  public void run(Namespace namespace)
+  private TimeWindow timeWindow(Namespace namespace) {
+    String startTime = namespace.getString("startTime");
+    String endTime = namespace.getString("endTime");
+    if (startTime == null && endTime == null) {
+      return TimeWindow.ALL;
+    }
+    Integer maxQueryDuration = namespace.getInt("max_query_duration");
+    return new TimeWindow(parseTime(startTime), parseTime(endTime),
+        !Boolean.TRUE.equals(namespace.getBoolean("unordered")),
+        maxQueryDuration == null ? null : Duration.ofSeconds(maxQueryDuration));
+  }
+
+  private static ZonedDateTime parseTime(String time) {
+    return time == null ? null : ZonedDateTime.of(LocalDateTime.parse(time, dateFormat),
+        ZoneOffset.ofHoursMinutes(5, 30));
+  }
+
+  private void parseFile(File file, Consumer<LoggedT> consumer)
+      throws IOException, MetricAgentException {
+    long parsed = numParsed.getCount();
+    this.parse(file.toPath(), item -> {
+      numParsed.inc();
+      consumer.accept(item);
+    });
+    logger.info("Parsed " + (numParsed.getCount() - parsed));
+  }
+
+  private void parseInput(Namespace namespace, Consumer<LoggedT> consumer)
       throws IOException, MetricAgentException {
-    logger.debug(namespace.toString());
     if (namespace.getString("log") != null) {
       logger.info(namespace.getString("log"));
-      List<LoggedT> newItems = this.parse(new RewindBufferedReader(
-          new FileReader(namespace.getString("log"))));
-      logger.info("Parsed " + newItems.size());
-      numParsed.inc(newItems.size());
-      this.list.addAll(newItems);
+      parseFile(new File(namespace.getString("log")), consumer);
     } else {
       logger.info(namespace.getString("log_dir"));
       File folder = new File(namespace.getString("log_dir"));
-      for (File f : folder.listFiles()) {
-        logger.info("Processing " + f.getName());
+      DirectoryIngester<LoggedT> ingester = new DirectoryIngester<>(this::parse,
+          namespace.getInt("workers"), this.registry);
+      ingester.ingest(Arrays.asList(folder.listFiles()), item -> {
+        numParsed.inc();
+        consumer.accept(item);
+      });
+    }
+  }
+
+  private void follow(Path path, Sink sink, int pollInterval)
+      throws IOException, MetricAgentException {
+    if (CompressedLogs.isCompressed(path)) {
+      throw new MetricAgentException("Cannot follow compressed log " + path);
+    }
+    LogTailer tailer = tailer(path);
+    String key = path.toAbsolutePath().toString();
+    LogOffset offset = sink.withHandle(handle -> sink.getLogOffset(handle, key))
+        .orElse(new LogOffset(key, null, 0));
+    logger.info("Following " + key + " from offset " + offset.getPosition());
+
+    while (!Thread.currentThread().isInterrupted()) {
+      try (Handle handle = sink.open()) {
+        handle.begin();
         try {
-          List<LoggedT> newItems = this.parse(new RewindBufferedReader(new FileReader(f)));
-          logger.info("Parsed " + newItems.size());
-          numParsed.inc(newItems.size());
-          this.list.addAll(newItems);
-        } catch (MetricAgentException me) {
-          logger.error("Failed to parse " + f.getName(), me);
+          final long parsed = numParsed.getCount();
+          final BatchInsert insert = new BatchInsert(items -> outputSql(sink, handle, items));
+          LogOffset next = tailer.poll(offset, reader -> parseRange(reader, item -> {
+            numParsed.inc();
+            insert.accept(item);
+          }));
+          insert.flush();
+          if (next.getPosition() != offset.getPosition()
+              || !Objects.equals(next.getFileKey(), offset.getFileKey())) {
+            sink.setLogOffset(handle, next);
+          }
+          handle.commit();
+          offset = next;
+          if (numParsed.getCount() > parsed) {
+            logger.info("Parsed " + (numParsed.getCount() - parsed));
+          }
+        } catch (IOException | MetricAgentException | RuntimeException exc) {
+          handle.rollback();
+          throw exc;
         }
       }
+
+      try {
+        TimeUnit.SECONDS.sleep(pollInterval);
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
     }
+  }
 
-    String startTime = namespace.getString("startTime");
-    String endTime = namespace.getString("endTime");
+  @Override
+  public void run(Namespace namespace)
+      throws IOException, MetricAgentException {
+    logger.debug(namespace.toString());
+
+    if (!hasSqlOutput() && namespace.getString("output_type").equals("sqlite")) {
+      throw new MetricAgentException(getName() + " cannot write sqlite output");
+    }
+    boolean follow = Boolean.TRUE.equals(namespace.getBoolean("follow"));
+    if (follow && (namespace.getString("log") == null
+        || !namespace.getString("output_type").equals("sqlite"))) {
+      throw new MetricAgentException("--follow needs --log and sqlite output");
+    }
+    boolean partitioned = Boolean.TRUE.equals(namespace.getBoolean("partition_by_day"));
+    if (partitioned && (follow || !namespace.getString("output_type").equals("sqlite"))) {
+      throw new MetricAgentException("--partition-by-day needs sqlite output without --follow");
+    }
 
-    if (startTime != null && endTime != null) {
-      filter(ZonedDateTime.of(LocalDateTime.parse(startTime, dateFormat),
-          ZoneOffset.ofHoursMinutes(5, 30)),
-          ZonedDateTime.of(LocalDateTime.parse(endTime, dateFormat),
-              ZoneOffset.ofHoursMinutes(5, 30)));
+    this.window = timeWindow(namespace);
+    this.seek = Boolean.TRUE.equals(namespace.getBoolean("seek"));
+    this.batchSize = namespace.getInt("batch_size");
+    this.commitSize = namespace.getInt("commit_size");
+    if (this.seek && Boolean.TRUE.equals(namespace.getBoolean("unordered"))) {
+      throw new MetricAgentException("--seek needs a log in time order");
     }
 
-    if (namespace.getString("output_type").equals("sqlite")) {
+    if (partitioned) {
+      logger.info("Insert queries into partitions in " + namespace.getString("output"));
+      DayPartitions partitions = new DayPartitions(Paths.get(namespace.getString("output")),
+          this.registry);
+      try {
+        BatchInsert insert = new BatchInsert(items -> outputPartitions(partitions, items));
+        parseInput(namespace, insert);
+        insert.flush();
+      } finally {
+        partitions.shutdown();
+      }
+    } else if (namespace.getString("output_type").equals("sqlite")) {
       logger.info("Insert queries into database " + namespace.getString("output"));
       Sink sink = new Sink("jdbc:sqlite:" + namespace.getString("output"), "", "", this.registry);
-      sink.initialize();
-      sink.useTransaction(handle ->
-          this.list.forEach(item -> {
+      try {
+        sink.initialize();
+        if (follow) {
+          follow(Paths.get(namespace.getString("log")), sink, namespace.getInt("poll_interval"));
+        } else {
+          try (Handle handle = sink.open()) {
+            handle.begin();
             try {
-              outputSql(sink, handle, item);
-              numInserted.inc();
-            } catch (IOException exp) {
-              logger.error("Insert failed", exp);
+              BatchInsert insert = new BatchInsert(items -> {
+                outputSql(sink, handle, items);
+                commitIfFull(handle, items.size());
+              });
+              parseInput(namespace, insert);
+              insert.flush();
+              handle.commit();
+            } catch (IOException | MetricAgentException | RuntimeException exc) {
+              handle.rollback();
+              throw exc;
             }
-          }));
+          }
+        }
+      } finally {
+        sink.shutdown();
+      }
+    } else if (namespace.getString("output_type").equals("parquet")) {
+      logger.info("Write entries to parquet file " + namespace.getString("output"));
+      try (ParquetLogWriter<LoggedT> writer = new ParquetLogWriter<>(
+          Paths.get(namespace.getString("output")), parquetLayout(),
+          namespace.getInt("row_group_size") * 1024 * 1024)) {
+        parseInput(namespace, writer);
+        numInserted.inc(writer.getRowsWritten());
+      }
     } else {
-      output(new FileOutputStream(namespace.getString("output")));
+      logger.info("Write entries as JSON lines to " + namespace.getString("output"));
+      try (JsonLogWriter<LoggedT> writer = new JsonLogWriter<>(
+          new FileOutputStream(namespace.getString("output")))) {
+        parseInput(namespace, writer);
+        numInserted.inc(writer.getRowsWritten());
+      }
     }
     super.logRegistry();
   }
 
-  abstract void output(OutputStream os) throws IOException;
+  /*
+   * Commit the rows inserted so far once there are commitSize of them, so that a large log is
+   * not written in one transaction and a failure only rolls back the last rows.
+   */
+  private void commitIfFull(Handle handle, int rows) {
+    uncommitted += rows;
+    if (uncommitted >= commitSize) {
+      handle.commit();
+      handle.begin();
+      uncommitted = 0;
+    }
+  }
+
+  /*
+   * Insert the items of a batch into the partitions of their days, each in one transaction.
+   */
+  private void outputPartitions(DayPartitions partitions, List<LoggedT> items)
+      throws IOException {
+    Map<LocalDate, List<LoggedT>> days = new LinkedHashMap<>();
+    for (LoggedT item : items) {
+      if (item.getZonedLogTime() == null) {
+        logger.warn("Skipped an entry without a log time");
+        continue;
+      }
+      days.computeIfAbsent(DayPartitions.dayOf(item.getZonedLogTime()), day -> new ArrayList<>())
+          .add(item);
+    }
+    for (Map.Entry<LocalDate, List<LoggedT>> entry : days.entrySet()) {
+      Sink sink = partitions.partition(entry.getKey());
+      sink.useTransaction(handle -> outputSql(sink, handle, entry.getValue()));
+    }
+  }
+
+  private interface BatchWriter<T> {
+    void write(List<T> items) throws IOException;
+  }
+
+  /*
+   * Collects parsed items and writes them once a batch is full.
+   */
+  private class BatchInsert implements Consumer<LoggedT> {
+    private final BatchWriter<LoggedT> writer;
+    private List<LoggedT> batch = new ArrayList<>();
+
+    BatchInsert(BatchWriter<LoggedT> writer) {
+      this.writer = writer;
+    }
+
+    @Override
+    public void accept(LoggedT item) {
+      batch.add(item);
+      if (batch.size() >= batchSize) {
+        flush();
+      }
+    }
+
+    void flush() {
+      if (batch.isEmpty()) {
+        return;
+      }
+      try {
+        writer.write(batch);
+        numInserted.inc(batch.size());
+      } catch (IOException exp) {
+        logger.error("Insert failed", exp);
+      }
+      batch = new ArrayList<>();
+    }
+  }
+
+  abstract ParquetLayout<LoggedT> parquetLayout();
 
-  abstract void outputSql(Sink sink, Handle handle, LoggedT item) throws IOException;
+  abstract void outputSql(Sink sink, Handle handle, List<LoggedT> items) throws IOException;
 }
@@ -1,14 +1,21 @@
 package io.dblint.mart.server.commands.mysql;
 
+import io.dblint.mart.metricsink.mysql.LogSeeker;
 import io.dblint.mart.metricsink.mysql.LongTxnParser;
+import io.dblint.mart.metricsink.mysql.ParquetLayout;
 import io.dblint.mart.metricsink.mysql.RewindBufferedReader;
 import io.dblint.mart.metricsink.mysql.Sink;
+import io.dblint.mart.metricsink.mysql.Transaction;
 import io.dblint.mart.metricsink.util.MetricAgentException;
+import net.sourceforge.argparse4j.inf.Subparser;
 import org.jdbi.v3.core.Handle;
 
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public class LongTxnLog extends LogParser<LongTxnParser, LongTxnParser.LongTxn> {
 
@@ -18,19 +25,36 @@ public class LongTxnLog extends LogParser<LongTxnParser, LongTxnParser.LongTxn>
   }
 
   @Override
-  List<LongTxnParser.LongTxn> parse(RewindBufferedReader reader)
+  public void configure(Subparser subparser) {
+    super.configure(subparser);
+    addSeekArgument(subparser);
+  }
+
+  @Override
+  protected LogSeeker seeker(Path path) {
+    return LogSeeker.rowLog(path);
+  }
+
+  @Override
+  void parse(RewindBufferedReader reader, Consumer<LongTxnParser.LongTxn> consumer)
       throws IOException, MetricAgentException {
-    return this.parserT.parse(reader);
+    this.parserT.parse(reader, this.window, consumer);
   }
 
   @Override
-  void output(OutputStream os) throws IOException {}
+  ParquetLayout<LongTxnParser.LongTxn> parquetLayout() {
+    return ParquetLayout.LONG_TXNS;
+  }
 
   @Override
-  void outputSql(Sink sink, Handle handle, LongTxnParser.LongTxn item) throws IOException {
-    if (!sink.getTransaction(handle, item.transaction.getId()).isPresent()) {
-      sink.insertTransaction(handle, item.transaction);
+  void outputSql(Sink sink, Handle handle, List<LongTxnParser.LongTxn> items)
+      throws IOException {
+    Map<String, Transaction> transactions = new LinkedHashMap<>();
+    for (LongTxnParser.LongTxn item : items) {
+      transactions.putIfAbsent(item.transaction.getId(), item.transaction);
     }
-    sink.insertLongTxn(handle, item);
+    transactions.keySet().removeAll(sink.getTransactionIds(handle, transactions.keySet()));
+    sink.insertTransactions(handle, transactions.values());
+    sink.insertLongTxns(handle, items);
   }
 }
@@ -1,42 +1,136 @@
 package io.dblint.mart.server.commands.mysql;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.codahale.metrics.Counter;
+import io.dblint.mart.metricsink.mysql.ChunkedSlowQueryLogParser;
+import io.dblint.mart.metricsink.mysql.ExtendedSlowQueryLogParser;
+import io.dblint.mart.metricsink.mysql.FingerprintFilter;
+import io.dblint.mart.metricsink.mysql.LogSeeker;
+import io.dblint.mart.metricsink.mysql.LogTailer;
+import io.dblint.mart.metricsink.mysql.ParquetLayout;
 import io.dblint.mart.metricsink.mysql.RewindBufferedReader;
 import io.dblint.mart.metricsink.mysql.Sink;
 import io.dblint.mart.metricsink.mysql.SlowQueryLogParser;
 import io.dblint.mart.metricsink.mysql.UserQuery;
+import io.dblint.mart.metricsink.util.CompressedLogs;
 import io.dblint.mart.metricsink.util.MetricAgentException;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
 import org.jdbi.v3.core.Handle;
 
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
 public class SlowQueryLog extends LogParser<SlowQueryLogParser, UserQuery> {
+  private ForkJoinPool pool;
+  private ExtendedSlowQueryLogParser extendedParser;
+  // One filter for every database, since partitions by day have a database each. The filter
+  // of a partition is dropped with its sink once the partition is closed.
+  private final Map<Sink, FingerprintFilter> filters = new WeakHashMap<>();
+  private final Counter numDuplicates;
+
   /**
    * A command to parse slow query logs.
    */
   public SlowQueryLog() {
     super("parse-slow-query", "Parse MySQL slow query log");
+    this.numDuplicates = this.registry.counter("logParser.numDuplicates");
+  }
+
+  @Override
+  public void configure(Subparser subparser) {
+    super.configure(subparser);
+    subparser.addArgument("--threads")
+        .type(Integer.class)
+        .setDefault(1)
+        .help("Number of threads used to parse a log file");
+    subparser.addArgument("--extended")
+        .action(Arguments.storeTrue())
+        .help("Read multi-line queries and the extra fields of Percona Server and MySQL 8");
+    subparser.addArgument("--max-query-length")
+        .type(Integer.class)
+        .setDefault(ExtendedSlowQueryLogParser.DEFAULT_MAX_QUERY_LENGTH)
+        .help("Longer queries are truncated when --extended is set");
+    addFollowArguments(subparser);
+    addSeekArgument(subparser);
+  }
+
+  @Override
+  public void run(Namespace namespace) throws IOException, MetricAgentException {
+    if (namespace.getBoolean("extended")) {
+      this.extendedParser =
+          new ExtendedSlowQueryLogParser(namespace.getInt("max_query_length"));
+    }
+    int threads = namespace.getInt("threads");
+    if (threads > 1) {
+      this.pool = new ForkJoinPool(threads);
+    }
+    try {
+      super.run(namespace);
+    } finally {
+      if (this.pool != null) {
+        this.pool.shutdown();
+      }
+    }
+  }
+
+  @Override
+  protected void parse(RewindBufferedReader reader, Consumer<UserQuery> consumer)
+      throws IOException, MetricAgentException {
+    if (this.extendedParser == null) {
+      SlowQueryLogParser.parseLog(reader, this.window, consumer);
+    } else {
+      this.extendedParser.parseLog(reader, this.window, consumer);
+    }
+  }
+
+  @Override
+  void parse(Path path, Consumer<UserQuery> consumer)
+      throws IOException, MetricAgentException {
+    if (this.pool == null || CompressedLogs.isCompressed(path)) {
+      super.parse(path, consumer);
+    } else {
+      new ChunkedSlowQueryLogParser(this.pool, this.extendedParser)
+          .parseLog(path, seekOffset(path), this.window, consumer);
+    }
   }
 
   @Override
-  protected List<UserQuery> parse(RewindBufferedReader reader)
+  void parseRange(RewindBufferedReader reader, Consumer<UserQuery> consumer)
       throws IOException, MetricAgentException {
+    if (this.extendedParser == null) {
+      SlowQueryLogParser.parseSections(reader, this.window, consumer);
+    } else {
+      this.extendedParser.parseLog(reader, this.window, consumer);
+    }
+  }
 
-    return this.parserT.parseLog(
-        new RewindBufferedReader(reader)
-    );
+  @Override
+  protected LogTailer tailer(Path path) {
+    return LogTailer.slowLog(path);
+  }
+
+  @Override
+  protected LogSeeker seeker(Path path) {
+    return LogSeeker.slowLog(path);
   }
 
   @Override
-  protected void output(OutputStream os) throws IOException {
-    ObjectMapper mapper = new ObjectMapper();
-    mapper.writeValue(os, this.list);
+  ParquetLayout<UserQuery> parquetLayout() {
+    return ParquetLayout.USER_QUERIES;
   }
 
   @Override
-  protected void outputSql(Sink sink, Handle handle, UserQuery userQuery) {
-    sink.insertUserQuery(handle, userQuery);
+  protected void outputSql(Sink sink, Handle handle, List<UserQuery> userQueries) {
+    FingerprintFilter filter = filters.computeIfAbsent(sink,
+        key -> FingerprintFilter.load(key, handle));
+    List<UserQuery> unseen = filter.unseen(sink, handle, userQueries);
+    int inserted = sink.insertNewUserQueries(handle, unseen);
+    numDuplicates.inc(userQueries.size() - inserted);
   }
 }
@@ -6,6 +6,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
 
 public abstract class TimeRange extends Command {
   private static Logger logger = LoggerFactory.getLogger(TimeRange.class);
@@ -38,5 +39,12 @@ public abstract class TimeRange extends Command {
     registry.getCounters().forEach((name, counter) -> {
       logger.info(name + ":" + counter.getCount());
     });
+    registry.getMeters().forEach((name, meter) -> {
+      logger.info(name + ":" + meter.getCount());
+    });
+    registry.getTimers().forEach((name, timer) -> {
+      logger.info(name + ":" + TimeUnit.NANOSECONDS.toMillis(timer.getSnapshot().getMax())
+          + " ms");
+    });
   }
 }
@@ -1,6 +1,7 @@
 package io.dblint.mart.server.configuration;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dblint.mart.metricsink.util.PoolSettings;
 import io.dropwizard.Configuration;
 import org.hibernate.validator.constraints.NotEmpty;
 
@@ -17,6 +18,21 @@ public class JdbcConfiguration extends Configuration {
   @NotEmpty
   private String password;
 
+  @JsonProperty
+  private int maxPoolSize = PoolSettings.DEFAULT.getMaxPoolSize();
+
+  @JsonProperty
+  private int minIdle = PoolSettings.DEFAULT.getMinIdle();
+
+  @JsonProperty
+  private long idleTimeoutMs = PoolSettings.DEFAULT.getIdleTimeoutMs();
+
+  @JsonProperty
+  private long validationTimeoutMs = PoolSettings.DEFAULT.getValidationTimeoutMs();
+
+  @JsonProperty
+  private long connectionTimeoutMs = PoolSettings.DEFAULT.getConnectionTimeoutMs();
+
   public String getUrl() {
     return url;
   }
@@ -40,4 +56,9 @@ public class JdbcConfiguration extends Configuration {
   public void setPassword(String password) {
     this.password = password;
   }
+
+  public PoolSettings getPoolSettings() {
+    return new PoolSettings(maxPoolSize, minIdle, idleTimeoutMs, validationTimeoutMs,
+        connectionTimeoutMs);
+  }
 }
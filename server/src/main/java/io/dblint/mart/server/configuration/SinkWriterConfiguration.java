@@ -0,0 +1,11 @@
+package io.dblint.mart.server.configuration;
+
+public class SinkWriterConfiguration {
+  public int queueSize = 10000;
+
+  public int batchSize = 500;
+
+  public long flushIntervalMs = 5000;
+
+  public long offerTimeoutMs = 1000;
+}
@@ -6,6 +6,7 @@ import io.dblint.mart.server.pojo.GitState;
 import io.dblint.mart.server.pojo.QueryResponse;
 import io.dblint.mart.server.pojo.RegisterInfo;
 import io.dblint.mart.server.pojo.SqlQuery;
+import io.dblint.mart.sqlplanner.planner.DigestCache;
 import io.dblint.mart.sqlplanner.planner.Parser;
 import org.apache.calcite.sql.SqlDialect;
 import org.slf4j.Logger;
@@ -23,13 +24,25 @@ import javax.ws.rs.core.MediaType;
 public class DbLintResource {
   private static final Logger logger = LoggerFactory.getLogger(DbLintResource.class);
   final Parser parser;
+  final DigestCache digestCache;
   final GitState gitState;
 
-  public DbLintResource(Parser parser, GitState gitState) {
+  /**
+   * A resource to lint SQL queries.
+   * @param parser Parser of the queries
+   * @param digestCache Cache of the digests of the parser
+   * @param gitState Version of the service
+   */
+  public DbLintResource(Parser parser, DigestCache digestCache, GitState gitState) {
     this.parser = parser;
+    this.digestCache = digestCache;
     this.gitState = gitState;
   }
 
+  public DbLintResource(Parser parser, GitState gitState) {
+    this(parser, new DigestCache(parser), gitState);
+  }
+
   /**
    * Return a digest of the Sql Query.
    * @param sql SqlQuery object with SQL string and other properties
@@ -41,8 +54,8 @@ public class DbLintResource {
   @ExceptionMetered
   public QueryResponse digest(SqlQuery sql) {
     try {
-      String digest = parser.digest(sql.sql,
-              SqlDialect.DatabaseProduct.valueOf(sql.dialect.toUpperCase()).getDialect());
+      String digest = digestCache.digest(sql.sql,
+              SqlDialect.DatabaseProduct.valueOf(sql.dialect.toUpperCase()).getDialect()).digest;
       return new QueryResponse(digest, true);
     } catch (Exception exc) {
       return new QueryResponse(exc.getMessage(), false);
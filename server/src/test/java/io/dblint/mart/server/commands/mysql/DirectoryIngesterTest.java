@@ -0,0 +1,106 @@
+package io.dblint.mart.server.commands.mysql;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dblint.mart.metricsink.mysql.UserQuery;
+import io.dblint.mart.metricsink.util.MetricAgentException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DirectoryIngesterTest {
+  /*
+   * Every line of a test file is the epoch second of one query.
+   */
+  private static void parse(Path path, Consumer<UserQuery> consumer)
+      throws IOException, MetricAgentException {
+    for (String line : Files.readAllLines(path)) {
+      if (line.equals("bad")) {
+        throw new MetricAgentException("Bad line in " + path);
+      } else if (line.equals("unreadable")) {
+        throw new IOException("Cannot read " + path);
+      }
+      UserQuery query = new UserQuery();
+      query.setConnectionId(path.getFileName() + ":" + line);
+      query.setZonedLogTime(ZonedDateTime.ofInstant(
+          Instant.ofEpochSecond(Long.parseLong(line)), ZoneOffset.UTC));
+      consumer.accept(query);
+    }
+  }
+
+  private static File write(Path dir, String name, long modified, long... seconds)
+      throws IOException {
+    Path path = dir.resolve(name);
+    Files.write(path, Arrays.stream(seconds).mapToObj(Long::toString)
+        .collect(Collectors.toList()));
+    path.toFile().setLastModified(modified);
+    return path.toFile();
+  }
+
+  private static List<Long> ingest(int workers, List<File> files, MetricRegistry registry)
+      throws IOException, MetricAgentException {
+    List<Long> seconds = new ArrayList<>();
+    new DirectoryIngester<UserQuery>(DirectoryIngesterTest::parse, workers, registry)
+        .ingest(files, query -> seconds.add(query.getZonedLogTime().toEpochSecond()));
+    return seconds;
+  }
+
+  @Test
+  void mergedByLogTime(@TempDir Path tempDir) throws IOException, MetricAgentException {
+    List<File> files = new ArrayList<>();
+    List<Long> expected = new ArrayList<>();
+    for (int file = 0; file < 4; file++) {
+      long[] seconds = new long[2000];
+      for (int i = 0; i < seconds.length; i++) {
+        seconds[i] = i * 4L + file;
+        expected.add(seconds[i]);
+      }
+      files.add(write(tempDir, "slow.log." + file, 1000000L, seconds));
+    }
+    expected.sort(Long::compare);
+
+    MetricRegistry registry = new MetricRegistry();
+    assertEquals(expected, ingest(4, files, registry));
+    assertEquals(2000L, registry.meter("logParser.slow.log.2.parsed").getCount());
+  }
+
+  @Test
+  void rotatedFilesInModificationOrder(@TempDir Path tempDir)
+      throws IOException, MetricAgentException {
+    List<File> files = Arrays.asList(
+        write(tempDir, "a.log", 3000000L, 5, 6),
+        write(tempDir, "b.log", 1000000L, 1, 2),
+        write(tempDir, "c.log", 2000000L, 3, 4));
+    assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L), ingest(1, files, new MetricRegistry()));
+  }
+
+  @Test
+  void failedFileIsSkipped(@TempDir Path tempDir) throws IOException, MetricAgentException {
+    File bad = tempDir.resolve("bad.log").toFile();
+    Files.write(bad.toPath(), Arrays.asList("1", "bad", "2"));
+    List<File> files = Arrays.asList(bad, write(tempDir, "good.log", 1000000L, 3, 4));
+    assertEquals(Arrays.asList(1L, 3L, 4L), ingest(2, files, new MetricRegistry()));
+  }
+
+  @Test
+  void readErrorStops(@TempDir Path tempDir) throws IOException {
+    File unreadable = tempDir.resolve("unreadable.log").toFile();
+    Files.write(unreadable.toPath(), Arrays.asList("1", "unreadable"));
+    List<File> files = Arrays.asList(unreadable, write(tempDir, "good.log", 1000000L, 3, 4));
+    assertThrows(IOException.class, () -> ingest(2, files, new MetricRegistry()));
+  }
+}
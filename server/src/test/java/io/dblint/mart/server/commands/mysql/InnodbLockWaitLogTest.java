@@ -1,9 +1,13 @@
 package io.dblint.mart.server.commands.mysql;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -19,4 +23,21 @@ public class InnodbLockWaitLogTest extends ParserTest {
     assertEquals("", stdErr.toString());
     assertTrue(success);
   }
+
+  @Test
+  void outputIsJsonLines(@TempDir Path tempDir) throws Exception {
+    Path output = tempDir.resolve("lockWaits.json");
+    String input = getClass().getClassLoader().getResource("innodblwlog_01").getPath();
+    assertTrue(cli.run("mysql", "innodb_lock_waits", "--log",
+        input, "--output", output.toString(), "--output-type", "json"));
+
+    List<String> lines = Files.readAllLines(output);
+    assertTrue(lines.size() > 0);
+    ObjectMapper mapper = new ObjectMapper();
+    for (String line : lines) {
+      JsonNode node = mapper.readTree(line);
+      assertTrue(node.isObject());
+      assertTrue(node.has("waitingId"));
+    }
+  }
 }
@@ -4,6 +4,10 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -21,4 +25,27 @@ public class SlowQueryLogTest extends ParserTest {
     assertEquals("", stdErr.toString());
     assertTrue(success);
   }
+
+  private static int countUserQueries(Path database) throws Exception {
+    try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+         Statement statement = connection.createStatement();
+         ResultSet resultSet = statement.executeQuery("select count(*) from user_queries")) {
+      resultSet.next();
+      return resultSet.getInt(1);
+    }
+  }
+
+  @Test
+  void parseAgainSkipsDuplicates(@TempDir Path tempDir) throws Exception {
+    Path output = tempDir.resolve("slow_queries.sqlite");
+    String input = getClass().getClassLoader().getResource("slowlog_01").getPath();
+    assertTrue(cli.run("mysql", "parse-slow-query", "--log", input,
+        "--output", output.toString(), "--output-type", "sqlite"));
+    int parsed = countUserQueries(output);
+    assertTrue(parsed > 0);
+
+    assertTrue(cli.run("mysql", "parse-slow-query", "--log", input,
+        "--output", output.toString(), "--output-type", "sqlite"));
+    assertEquals(parsed, countUserQueries(output));
+  }
 }
@@ -0,0 +1,226 @@
+package io.dblint.mart.sqlplanner;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.dblint.mart.sqlplanner.enums.EnumContext;
+import io.dblint.mart.sqlplanner.enums.QueryType;
+import io.dblint.mart.sqlplanner.planner.DigestCache;
+import io.dblint.mart.sqlplanner.redshift.QueryClasses;
+import io.dblint.mart.sqlplanner.redshift.RedshiftClassifier;
+import org.apache.calcite.sql.SqlDialect;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Digests and classifies lists of statements on the threads of an executor. The results are
+ * returned in the order of the statements. A statement that fails does not stop the batch, its
+ * exception is returned as its outcome.
+ *
+ * <p>Classifiers that are not thread-safe, e.g. a {@link MySqlClassifier} with its planner, are
+ * created once for every thread of the runner and supplier, and are reused by later batches
+ * with the same supplier.
+ */
+public class BatchRunner implements Closeable {
+  // Every thread gets a few chunks, so that a slow chunk does not keep the others waiting.
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  private final ExecutorService executor;
+  private final int parallelism;
+  private final boolean ownsExecutor;
+  // Values created by the suppliers of the batches, per thread. The keys are weak, so the
+  // values of a supplier that is no longer used are dropped.
+  private final ThreadLocal<Map<Supplier<?>, Object>> threadValues =
+      ThreadLocal.withInitial(WeakHashMap::new);
+
+  /**
+   * The result of one statement of a batch, or the exception it failed with.
+   * @param <T> Type of result
+   */
+  public static class Outcome<T> {
+    private final T result;
+    private final Exception failure;
+
+    private Outcome(T result, Exception failure) {
+      this.result = result;
+      this.failure = failure;
+    }
+
+    public boolean isSuccess() {
+      return failure == null;
+    }
+
+    public T getResult() {
+      return result;
+    }
+
+    public Exception getFailure() {
+      return failure;
+    }
+  }
+
+  /**
+   * Work on one statement.
+   * @param <T> Type of result
+   */
+  public interface Task<T> {
+    T apply(String sql) throws Exception;
+  }
+
+  /**
+   * Create a runner on an executor. The executor is not shut down by {@link #close()}.
+   * @param executor Executor that runs the batches. It should not run the callers of the
+   *                 runner, since they wait for the batch.
+   * @param parallelism Number of threads of the executor
+   */
+  public BatchRunner(ExecutorService executor, int parallelism) {
+    this(executor, parallelism, false);
+  }
+
+  /**
+   * Create a runner with its own pool of threads, which is shut down by {@link #close()}.
+   * @param threads Number of threads
+   */
+  public BatchRunner(int threads) {
+    this(Executors.newFixedThreadPool(threads), threads, true);
+  }
+
+  /**
+   * Create a runner that runs batches on the calling thread, one statement after another.
+   */
+  public BatchRunner() {
+    this(MoreExecutors.newDirectExecutorService(), 1, true);
+  }
+
+  private BatchRunner(ExecutorService executor, int parallelism, boolean ownsExecutor) {
+    this.executor = executor;
+    this.parallelism = Math.max(parallelism, 1);
+    this.ownsExecutor = ownsExecutor;
+  }
+
+  /**
+   * Run a task on every statement. The supplier is called once for every thread, so a task
+   * does not have to be thread-safe. Pass the same supplier to later batches to reuse the
+   * tasks of the threads.
+   * @param statements SQL statements
+   * @param tasks Supplier of a task for a thread
+   * @param <T> Type of result
+   * @return Outcomes in the order of the statements
+   */
+  public <T> List<Outcome<T>> runAll(List<String> statements,
+                                     Supplier<? extends Task<T>> tasks) {
+    return run(statements, () -> perThread(tasks));
+  }
+
+  @SuppressWarnings("unchecked")
+  private <V> V perThread(Supplier<? extends V> supplier) {
+    return (V) threadValues.get().computeIfAbsent(supplier, key -> supplier.get());
+  }
+
+  private <T> List<Outcome<T>> run(List<String> statements, Supplier<Task<T>> threadTask) {
+    final List<Outcome<T>> outcomes = new ArrayList<>(statements.size());
+    for (int i = 0; i < statements.size(); i++) {
+      outcomes.add(null);
+    }
+
+    int chunkSize = Math.max(1,
+        (statements.size() + parallelism * CHUNKS_PER_THREAD - 1)
+            / (parallelism * CHUNKS_PER_THREAD));
+    List<Future<?>> futures = new ArrayList<>();
+    for (int start = 0; start < statements.size(); start += chunkSize) {
+      final int chunkStart = start;
+      final int chunkEnd = Math.min(start + chunkSize, statements.size());
+      futures.add(executor.submit(() -> {
+        Task<T> task = threadTask.get();
+        for (int i = chunkStart; i < chunkEnd; i++) {
+          outcomes.set(i, apply(task, statements.get(i)));
+        }
+      }));
+    }
+
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException exc) {
+      futures.forEach(future -> future.cancel(true));
+      Thread.currentThread().interrupt();
+      for (int i = 0; i < outcomes.size(); i++) {
+        if (outcomes.get(i) == null) {
+          outcomes.set(i, new Outcome<>(null, exc));
+        }
+      }
+    } catch (ExecutionException exc) {
+      Throwables.throwIfUnchecked(exc.getCause());
+      throw new IllegalStateException(exc.getCause());
+    }
+    return outcomes;
+  }
+
+  private static <T> Outcome<T> apply(Task<T> task, String sql) {
+    try {
+      return new Outcome<>(task.apply(sql), null);
+    } catch (Exception exc) {
+      return new Outcome<>(null, exc);
+    }
+  }
+
+  /**
+   * Digest statements.
+   * @param digestCache Digest cache, which is shared by the threads
+   * @param statements SQL statements
+   * @param dialect SQL dialect of the digests
+   * @return Digests in the order of the statements
+   */
+  public List<Outcome<DigestCache.Digest>> digestAll(DigestCache digestCache,
+                                                    List<String> statements,
+                                                    SqlDialect dialect) {
+    return run(statements, () -> sql -> digestCache.digest(sql, dialect));
+  }
+
+  /**
+   * Classify statements.
+   * @param classifiers Supplier of a classifier for a thread. The classifiers are reused by
+   *                    later batches with the same supplier.
+   * @param statements SQL statements
+   * @param context Context of the classification
+   * @return Query types in the order of the statements
+   */
+  public List<Outcome<List<QueryType>>> classifyAll(Supplier<? extends Classifier> classifiers,
+                                                    List<String> statements,
+                                                    EnumContext context) {
+    return run(statements, () -> {
+      Classifier classifier = perThread(classifiers);
+      return sql -> classifier.classify(sql, context);
+    });
+  }
+
+  /**
+   * Classify Redshift statements.
+   * @param classifier Redshift classifier, which is shared by the threads
+   * @param statements SQL statements
+   * @return Query classes in the order of the statements
+   */
+  public List<Outcome<QueryClasses>> classifyAll(RedshiftClassifier classifier,
+                                                 List<String> statements) {
+    return run(statements, () -> classifier::classify);
+  }
+
+  /**
+   * Shut down the threads of the runner, if it created them.
+   */
+  @Override
+  public void close() {
+    if (ownsExecutor) {
+      executor.shutdown();
+    }
+  }
+}
@@ -2,8 +2,12 @@ package io.dblint.mart.sqlplanner;
 
 import io.dblint.mart.sqlplanner.enums.EnumContext;
 import io.dblint.mart.sqlplanner.enums.MySqlEnum;
+import io.dblint.mart.sqlplanner.enums.MySqlEnumContext;
 import io.dblint.mart.sqlplanner.enums.QueryType;
+import io.dblint.mart.sqlplanner.planner.LexicalDigester;
+import io.dblint.mart.sqlplanner.planner.MartSchema;
 import io.dblint.mart.sqlplanner.planner.Planner;
+import org.apache.calcite.avatica.util.Quoting;
 import org.apache.calcite.plan.RelOptUtil;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.schema.SchemaPlus;
@@ -18,14 +22,48 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 
+/**
+ * Classifies MySQL statements by their optimized plan. Planning is the expensive part, so the
+ * classification of a plan is cached by the lexical digest of the statement and the version of
+ * the schema, if the schema is a {@link MartSchema}. Statements that only differ in their
+ * literals are planned once, on the assumption that literals do not change which indices a
+ * plan uses. That is not true of predicates that compare literals, e.g. "0 = 0", which the
+ * planner reduces to true or false, so statements with such predicates are not cached.
+ *
+ * <p>A classifier is not thread-safe since its planner is not. The plan cache can be shared.
+ */
 public class MySqlClassifier extends Classifier {
   private static final Logger logger = LoggerFactory.getLogger(MySqlClassifier.class);
   public final Planner planner;
+  private final MartSchema martSchema;
+  private final PlanCache planCache;
+  private final LexicalDigester digester = new LexicalDigester(Quoting.BACK_TICK);
 
-  public MySqlClassifier(SchemaPlus schemaPlus) {
+  /**
+   * Create a classifier with a plan cache that is shared with other classifiers.
+   * @param schemaPlus Schema of the statements
+   * @param planCache Cache of the classification of plans
+   */
+  public MySqlClassifier(SchemaPlus schemaPlus, PlanCache planCache) {
     planner = new Planner(schemaPlus);
+    this.martSchema = martSchema(schemaPlus);
+    this.planCache = planCache;
+  }
+
+  public MySqlClassifier(SchemaPlus schemaPlus) {
+    this(schemaPlus, new PlanCache());
+  }
+
+  private static MartSchema martSchema(SchemaPlus schemaPlus) {
+    try {
+      return schemaPlus.unwrap(MartSchema.class);
+    } catch (ClassCastException exc) {
+      // Without a version, a change of the schema cannot be detected and plans are not cached.
+      return null;
+    }
   }
 
   @Override
@@ -36,6 +74,28 @@ public class MySqlClassifier extends Classifier {
   @Override
   public List<QueryType> classify(String sql, EnumContext context)
       throws SqlParseException, QanException {
+    String digest = martSchema == null ? null : digester.digest(sql);
+    if (digest == null || LexicalDigester.comparesLiterals(digest)) {
+      return plan(sql, context);
+    }
+
+    PlanCache.Plan plan = planCache.get(martSchema, digest);
+    if (plan == null) {
+      long version = martSchema.getVersion();
+      List<QueryType> queryTypes = plan(sql, context);
+      plan = new PlanCache.Plan(queryTypes, context instanceof MySqlEnumContext
+          ? ((MySqlEnumContext) context).getIndices() : null);
+      planCache.put(martSchema, version, digest, plan);
+    } else if (context instanceof MySqlEnumContext) {
+      // The context owns its indices and may add to them
+      ((MySqlEnumContext) context).setIndices(plan.indices == null
+          ? null : new HashSet<>(plan.indices));
+    }
+    return new ArrayList<>(plan.queryTypes);
+  }
+
+  private List<QueryType> plan(String sql, EnumContext context)
+      throws SqlParseException, QanException {
     List<QueryType> queryTypes = new ArrayList<>();
     try {
       RelNode relNode = planner.optimize(sql);
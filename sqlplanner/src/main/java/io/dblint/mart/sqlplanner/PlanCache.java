@@ -0,0 +1,100 @@
+package io.dblint.mart.sqlplanner;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.dblint.mart.sqlplanner.enums.QueryType;
+import io.dblint.mart.sqlplanner.planner.MartSchema;
+import io.dblint.mart.sqlplanner.visitors.IndexVisitor;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A cache of the classification of planned MySQL statements. An entry is keyed by the schema,
+ * its version and the lexical digest of the statement, so statements that only differ in
+ * their literals are planned once and a change of the schema invalidates its entries. A cache
+ * is thread-safe and can be shared by the classifiers of several threads.
+ */
+public class PlanCache {
+  public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+  private final Cache<Key, Plan> plans;
+
+  /**
+   * The classification of a plan and the indices that the plan needs. Both are copied, so a
+   * plan does not change when the lists of the classifier or the context do.
+   */
+  static class Plan {
+    final List<QueryType> queryTypes;
+    final Set<IndexVisitor.Index> indices;
+
+    Plan(List<QueryType> queryTypes, Set<IndexVisitor.Index> indices) {
+      this.queryTypes = ImmutableList.copyOf(queryTypes);
+      this.indices = indices == null ? null : ImmutableSet.copyOf(indices);
+    }
+  }
+
+  private static class Key {
+    final MartSchema schema;
+    final long version;
+    final String digest;
+
+    Key(MartSchema schema, long version, String digest) {
+      this.schema = schema;
+      this.version = version;
+      this.digest = digest;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return schema == other.schema && version == other.version
+          && digest.equals(other.digest);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(schema), version, digest);
+    }
+  }
+
+  public PlanCache(long maximumSize) {
+    this.plans = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .recordStats()
+        .build();
+  }
+
+  public PlanCache() {
+    this(DEFAULT_MAXIMUM_SIZE);
+  }
+
+  Plan get(MartSchema schema, String digest) {
+    return plans.getIfPresent(new Key(schema, schema.getVersion(), digest));
+  }
+
+  void put(MartSchema schema, long version, String digest, Plan plan) {
+    plans.put(new Key(schema, version, digest), plan);
+  }
+
+  public long hitCount() {
+    return plans.stats().hitCount();
+  }
+
+  public long missCount() {
+    return plans.stats().missCount();
+  }
+
+  public long size() {
+    return plans.size();
+  }
+}
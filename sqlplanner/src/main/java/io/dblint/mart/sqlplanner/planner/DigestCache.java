@@ -0,0 +1,172 @@
+package io.dblint.mart.sqlplanner.planner;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import org.apache.calcite.sql.SqlDialect;
+import org.apache.calcite.sql.parser.SqlParseException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of query digests. Workloads repeat a few thousand statement shapes that only differ
+ * in their literals, so the digest of a shape is computed by {@link Parser#digest} once.
+ *
+ * <p>The cache has two levels. A {@link LexicalDigester} with the quoting of the parser
+ * fingerprints a statement without a parse. A bounded map from the fingerprint to the digest
+ * and its hash answers statements with a known shape without Calcite.
+ *
+ * <p>Statements with the same fingerprint must have the same digest, so lists in IN are not
+ * collapsed. Statements that the lexical digester is not sure of are digested by Calcite every
+ * time. Parse errors are cached by fingerprint too, so a shape that fails to parse is only
+ * parsed once and its error is thrown again for later statements of the shape.
+ */
+public class DigestCache {
+  public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+  private final Parser parser;
+  private final Cache<Key, Digest> digests;
+  private final Cache<Key, SqlParseException> failures;
+  // A LexicalDigester reuses its buffers, so every thread has its own.
+  private final ThreadLocal<LexicalDigester> digesters;
+  private final LongAdder uncached = new LongAdder();
+
+  /**
+   * A digest of a statement and its hash.
+   */
+  public static class Digest {
+    public final String digest;
+    public final String digestHash;
+
+    Digest(String digest) {
+      this.digest = digest;
+      this.digestHash = Hashing.sha256().hashString(digest, StandardCharsets.UTF_8).toString();
+    }
+  }
+
+  private static class Key {
+    final SqlDialect dialect;
+    final String fingerprint;
+
+    Key(SqlDialect dialect, String fingerprint) {
+      this.dialect = dialect;
+      this.fingerprint = fingerprint;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return dialect == other.dialect && fingerprint.equals(other.fingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(dialect), fingerprint);
+    }
+  }
+
+  /**
+   * Create a digest cache.
+   * @param parser Parser to digest statements with an unknown shape
+   * @param maximumSize Maximum number of shapes in the cache
+   */
+  public DigestCache(Parser parser, long maximumSize) {
+    this.parser = parser;
+    this.digests = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .recordStats()
+        .build();
+    this.failures = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .recordStats()
+        .build();
+    this.digesters = ThreadLocal.withInitial(() -> new LexicalDigester(parser.quoting));
+  }
+
+  public DigestCache(Parser parser) {
+    this(parser, DEFAULT_MAXIMUM_SIZE);
+  }
+
+  /**
+   * Get the digest of a statement. Calcite only parses the statement if its shape is not in
+   * the cache.
+   * @param sql SQL statement
+   * @param dialect SQL dialect of the digest
+   * @return Digest and its hash
+   * @throws SqlParseException If the statement or an earlier one of its shape cannot be parsed
+   */
+  public Digest digest(String sql, SqlDialect dialect) throws SqlParseException {
+    String fingerprint = digesters.get().digest(sql);
+    if (fingerprint == null) {
+      uncached.increment();
+      return new Digest(parser.digest(sql, dialect));
+    }
+    Key key = new Key(dialect, fingerprint);
+    Digest digest = digests.getIfPresent(key);
+    if (digest == null) {
+      SqlParseException failure = failures.getIfPresent(key);
+      if (failure != null) {
+        throw failure;
+      }
+      try {
+        digest = new Digest(parser.digest(sql, dialect));
+      } catch (SqlParseException exc) {
+        failures.put(key, exc);
+        throw exc;
+      }
+      digests.put(key, digest);
+    }
+    return digest;
+  }
+
+  public long hitCount() {
+    return digests.stats().hitCount();
+  }
+
+  public long missCount() {
+    return digests.stats().missCount();
+  }
+
+  public long uncachedCount() {
+    return uncached.sum();
+  }
+
+  public long size() {
+    return digests.size();
+  }
+
+  public long failureHitCount() {
+    return failures.stats().hitCount();
+  }
+
+  public long failureSize() {
+    return failures.size();
+  }
+
+  /**
+   * Register gauges of the hits, misses and size of the cache, of the statements that
+   * were not looked up since the lexical digester was not sure of them, and of the cached
+   * parse errors.
+   * @param registry Metric registry
+   * @param prefix Prefix of the gauge names
+   */
+  public void registerMetrics(MetricRegistry registry, String prefix) {
+    registry.register(prefix + ".hits", (Gauge<Long>) this::hitCount);
+    registry.register(prefix + ".misses", (Gauge<Long>) this::missCount);
+    registry.register(prefix + ".uncached", (Gauge<Long>) this::uncachedCount);
+    registry.register(prefix + ".size", (Gauge<Long>) this::size);
+    registry.register(prefix + ".hitRate", (Gauge<Double>) () -> digests.stats().hitRate());
+    registry.register(prefix + ".failureHits", (Gauge<Long>) this::failureHitCount);
+    registry.register(prefix + ".failureSize", (Gauge<Long>) this::failureSize);
+  }
+}
@@ -0,0 +1,408 @@
+package io.dblint.mart.sqlplanner.planner;
+
+import org.apache.calcite.avatica.util.Quoting;
+
+/**
+ * A digester that replaces literals of a SQL statement with '?' in one pass over its
+ * characters, without a parse. It knows the quoting and comments of MySQL and Redshift:
+ * <ul>
+ *   <li>With {@link Quoting#BACK_TICK}, as in MySQL, identifiers are quoted with back ticks,
+ *   strings with single or double quotes and '#' starts a comment.</li>
+ *   <li>With {@link Quoting#DOUBLE_QUOTE}, as in Redshift, identifiers are quoted with double
+ *   quotes and strings with single quotes.</li>
+ * </ul>
+ * Runs of white space and comments are replaced with a space and escaped new lines are white
+ * space as in {@link Parser#normalize}. Quoted identifiers and all other text are kept as they
+ * are. Numbers right after '(' or ',' in parentheses that follow a word, other than IN and
+ * VALUES, are kept since they may be the precision of a type, e.g. DECIMAL(10, 2).
+ *
+ * <p>Lists of literals and parameters in IN can be collapsed to "(?+)", so that statements
+ * that only differ in the length of a list share a digest. Calcite digests keep every element
+ * of a list, so {@link DigestCache} does not collapse lists.
+ *
+ * <p>{@link #digest} returns null if it cannot be sure how Calcite splits the statement into
+ * tokens, e.g. if a quote or comment is not closed or a string has a backslash before a quote.
+ *
+ * <p>A digester reuses its buffers and is not thread-safe.
+ */
+public class LexicalDigester {
+  // Parentheses that are nested deeper are left to Calcite.
+  private static final int MAX_DEPTH = 64;
+
+  private final Quoting quoting;
+  private final boolean collapseInLists;
+
+  private final StringBuilder builder = new StringBuilder(256);
+  private final int[] listStarts = new int[MAX_DEPTH];
+  private int depth;
+  // For every open parenthesis, one bit in each mask.
+  private long keepNumbers;
+  private long inLists;
+  private long literalLists;
+
+  /**
+   * Create a lexical digester.
+   * @param quoting Quoting of identifiers. BACK_TICK for MySQL and DOUBLE_QUOTE for Redshift
+   * @param collapseInLists Replace lists of literals in IN with "(?+)"
+   */
+  public LexicalDigester(Quoting quoting, boolean collapseInLists) {
+    this.quoting = quoting;
+    this.collapseInLists = collapseInLists;
+  }
+
+  public LexicalDigester(Quoting quoting) {
+    this(quoting, false);
+  }
+
+  /**
+   * Digest a SQL statement.
+   * @param sql SQL statement
+   * @return Digest of the statement or null if the statement has to be parsed to be sure
+   */
+  public String digest(String sql) {
+    builder.setLength(0);
+    depth = 0;
+    keepNumbers = 0;
+    inLists = 0;
+    literalLists = 0;
+
+    final boolean mySql = quoting == Quoting.BACK_TICK;
+    final char identifierQuote = mySql ? '`' : '"';
+    final int length = sql.length();
+    int pos = 0;
+    boolean space = false;
+    while (pos < length) {
+      char current = sql.charAt(pos);
+      char next = pos + 1 < length ? sql.charAt(pos + 1) : 0;
+      if (current <= ' ') {
+        pos++;
+        space = true;
+        continue;
+      }
+      if (current == '\\' && next == 'n') {
+        pos += 2;
+        space = true;
+        continue;
+      }
+      if ((current == '-' && next == '-') || (mySql && current == '#')) {
+        pos = lineCommentEnd(sql, pos);
+        space = true;
+        continue;
+      }
+      if (current == '/' && next == '*') {
+        int end = sql.indexOf("*/", pos + 2);
+        if (end < 0) {
+          return null;
+        }
+        pos = end + 2;
+        space = true;
+        continue;
+      }
+      if (space && builder.length() > 0) {
+        builder.append(' ');
+      }
+      space = false;
+
+      if (current == '\'' || (mySql && current == '"')) {
+        int end = closingQuote(sql, pos, current);
+        if (end < 0 || hasEscapedQuote(sql, pos, end)) {
+          return null;
+        }
+        builder.append('?');
+        pos = end + 1;
+      } else if (current == identifierQuote || current == '`' || current == '"') {
+        int end = closingQuote(sql, pos, current);
+        if (end < 0) {
+          return null;
+        }
+        notLiteral();
+        builder.append(sql, pos, end + 1);
+        pos = end + 1;
+      } else if (isNumberStart(sql, pos) && !isNumberKept()) {
+        pos = numberEnd(sql, pos);
+        builder.append('?');
+      } else if (isIdentifierPart(current)) {
+        int end = pos + 1;
+        while (end < length && isIdentifierPart(sql.charAt(end))) {
+          end++;
+        }
+        notLiteral();
+        builder.append(sql, pos, end);
+        pos = end;
+      } else if (current == '(') {
+        if (depth == MAX_DEPTH) {
+          return null;
+        }
+        notLiteral();
+        push();
+        builder.append(current);
+        pos++;
+      } else if (current == ')') {
+        pop();
+        pos++;
+      } else {
+        if (current != ',' && current != '?') {
+          notLiteral();
+        }
+        builder.append(current);
+        pos++;
+      }
+    }
+    return builder.toString();
+  }
+
+  private void push() {
+    long bit = 1L << depth;
+    int end = builder.length();
+    if (end > 0 && builder.charAt(end - 1) == ' ') {
+      end--;
+    }
+    int start = end;
+    while (start > 0 && isIdentifierPart(builder.charAt(start - 1))) {
+      start--;
+    }
+    boolean in = isWord(start, end, "in");
+    boolean values = isWord(start, end, "values");
+    if (start < end && !in && !values) {
+      keepNumbers |= bit;
+    } else {
+      keepNumbers &= ~bit;
+    }
+    if (in) {
+      inLists |= bit;
+      literalLists |= bit;
+    } else {
+      inLists &= ~bit;
+      literalLists &= ~bit;
+    }
+    listStarts[depth] = builder.length();
+    depth++;
+  }
+
+  // Compare without copying the word out of the builder.
+  private boolean isWord(int start, int end, String word) {
+    if (end - start != word.length()) {
+      return false;
+    }
+    for (int i = 0; i < word.length(); i++) {
+      if (Character.toLowerCase(builder.charAt(start + i)) != word.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void pop() {
+    if (depth == 0) {
+      builder.append(')');
+      return;
+    }
+    depth--;
+    long bit = 1L << depth;
+    if (collapseInLists && (inLists & bit) != 0 && (literalLists & bit) != 0) {
+      builder.setLength(listStarts[depth]);
+      builder.append("(?+)");
+    } else {
+      builder.append(')');
+    }
+    // The parenthesis is not a literal of the enclosing list.
+    notLiteral();
+  }
+
+  /*
+   * Text other than '?', ',' and white space is added to the innermost parentheses.
+   */
+  private void notLiteral() {
+    if (depth > 0) {
+      literalLists &= ~(1L << (depth - 1));
+    }
+  }
+
+  /*
+   * Numbers right after '(' or ',' in parentheses that follow a word may be the precision or
+   * scale of a type. Calcite does not parse them as literals, so they are kept.
+   */
+  private boolean isNumberKept() {
+    if (depth == 0 || (keepNumbers & (1L << (depth - 1))) == 0) {
+      return false;
+    }
+    int last = builder.length() - 1;
+    if (last >= 0 && builder.charAt(last) == ' ') {
+      last--;
+    }
+    return last >= 0 && (builder.charAt(last) == '(' || builder.charAt(last) == ',');
+  }
+
+  /*
+   * A comment to the end of the line also ends at an escaped newline, which is unescaped before
+   * a statement is parsed.
+   */
+  private static int lineCommentEnd(String sql, int start) {
+    for (int pos = start; pos < sql.length(); pos++) {
+      char current = sql.charAt(pos);
+      if (current == '\n') {
+        return pos + 1;
+      }
+      if (current == '\\' && pos + 1 < sql.length() && sql.charAt(pos + 1) == 'n') {
+        return pos + 2;
+      }
+    }
+    return sql.length();
+  }
+
+  /**
+   * Check if a digest compares a literal with a literal, e.g. "? = ?", "? IS NULL" or
+   * "? IN (?)". A planner reduces such a predicate to true or false, so statements with the same
+   * digest may have different plans. Numbers that the digest kept count as literals.
+   * @param digest Digest returned by {@link #digest}
+   * @return true if a literal is compared with a literal
+   */
+  public static boolean comparesLiterals(String digest) {
+    final int length = digest.length();
+    int pos = 0;
+    while (pos < length) {
+      int end = literalEnd(digest, pos);
+      if (end < 0) {
+        pos++;
+        continue;
+      }
+      pos = end;
+      int next = skipSpaces(digest, end);
+      int operator = next;
+      while (operator < length && "<=>!".indexOf(digest.charAt(operator)) >= 0) {
+        operator++;
+      }
+      if (operator > next) {
+        if (isLiteralAt(digest, skipSpaces(digest, operator))) {
+          return true;
+        }
+        continue;
+      }
+      int wordEnd = wordEnd(digest, next);
+      if (wordEnd == next + 3 && digest.regionMatches(true, next, "not", 0, 3)) {
+        next = skipSpaces(digest, wordEnd);
+        wordEnd = wordEnd(digest, next);
+      }
+      String word = digest.substring(next, wordEnd).toLowerCase();
+      int operand = skipSpaces(digest, wordEnd);
+      if (word.equals("is")) {
+        return true;
+      }
+      if (word.equals("in") && operand < length && digest.charAt(operand) == '('
+          && isLiteralAt(digest, skipSpaces(digest, operand + 1))) {
+        return true;
+      }
+      if ((word.equals("like") || word.equals("between")) && isLiteralAt(digest, operand)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * The end of a '?' or a number that starts at a position of a digest, or -1 if none does.
+   */
+  private static int literalEnd(String digest, int pos) {
+    if (pos >= digest.length()) {
+      return -1;
+    }
+    if (digest.charAt(pos) == '?') {
+      return pos + 1;
+    }
+    return isNumberStart(digest, pos) ? numberEnd(digest, pos) : -1;
+  }
+
+  private static boolean isLiteralAt(String digest, int pos) {
+    if (pos < digest.length() && (digest.charAt(pos) == '-' || digest.charAt(pos) == '+')) {
+      pos = skipSpaces(digest, pos + 1);
+    }
+    return literalEnd(digest, pos) >= 0;
+  }
+
+  private static int skipSpaces(String digest, int pos) {
+    while (pos < digest.length() && digest.charAt(pos) == ' ') {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static int wordEnd(String digest, int pos) {
+    while (pos < digest.length() && isIdentifierPart(digest.charAt(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static int closingQuote(String sql, int start, char quote) {
+    int pos = start + 1;
+    final int length = sql.length();
+    while (pos < length) {
+      if (sql.charAt(pos) == quote) {
+        if (pos + 1 < length && sql.charAt(pos + 1) == quote) {
+          pos += 2;
+          continue;
+        }
+        return pos;
+      }
+      pos++;
+    }
+    return -1;
+  }
+
+  /*
+   * MySQL and Redshift escape a quote with a backslash, Calcite does not. They may end the
+   * string at different quotes.
+   */
+  private static boolean hasEscapedQuote(String sql, int start, int end) {
+    for (int pos = start + 1; pos <= end; pos++) {
+      if (sql.charAt(pos) == '\\' && pos + 1 <= end
+          && (sql.charAt(pos + 1) == '\'' || sql.charAt(pos + 1) == '"')) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isIdentifierPart(char ch) {
+    return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9')
+        || ch == '_' || ch == '$' || (ch > 127 && Character.isLetterOrDigit(ch));
+  }
+
+  private static boolean isDigit(char ch) {
+    return ch >= '0' && ch <= '9';
+  }
+
+  private static boolean isNumberStart(String sql, int pos) {
+    char current = sql.charAt(pos);
+    boolean startsNumber = isDigit(current)
+        || (current == '.' && pos + 1 < sql.length() && isDigit(sql.charAt(pos + 1)));
+    return startsNumber && (pos == 0 || !isIdentifierPart(sql.charAt(pos - 1)));
+  }
+
+  private static int numberEnd(String sql, int start) {
+    final int length = sql.length();
+    int pos = start;
+    while (pos < length && isDigit(sql.charAt(pos))) {
+      pos++;
+    }
+    if (pos < length && sql.charAt(pos) == '.') {
+      pos++;
+      while (pos < length && isDigit(sql.charAt(pos))) {
+        pos++;
+      }
+    }
+    if (pos < length && (sql.charAt(pos) == 'e' || sql.charAt(pos) == 'E')) {
+      int exponent = pos + 1;
+      if (exponent < length && (sql.charAt(exponent) == '+' || sql.charAt(exponent) == '-')) {
+        exponent++;
+      }
+      if (exponent < length && isDigit(sql.charAt(exponent))) {
+        pos = exponent;
+        while (pos < length && isDigit(sql.charAt(pos))) {
+          pos++;
+        }
+      }
+    }
+    return pos;
+  }
+}
@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MartSchema extends AbstractSchema {
   private static final Logger LOG = LoggerFactory.getLogger(MartSchema.class);
@@ -17,6 +18,7 @@ public class MartSchema extends AbstractSchema {
   public final String name;
   SchemaPlus schemaPlus;
   Map<String, Table> tableMap;
+  private final AtomicLong version = new AtomicLong();
 
   /**
    * Represents a DB or Schema.
@@ -47,6 +49,16 @@ public class MartSchema extends AbstractSchema {
     }
     this.schemaPlus.add(martTable.name, martTable);
     tableMap.put(martTable.name, martTable);
+    version.incrementAndGet();
+  }
+
+  /**
+   * Get the version of the schema. It changes whenever a table is added, so plans of an older
+   * version are stale.
+   * @return Version of the schema
+   */
+  public long getVersion() {
+    return version.get();
   }
 
   @Override
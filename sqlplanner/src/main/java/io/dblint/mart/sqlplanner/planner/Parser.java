@@ -3,8 +3,10 @@ package io.dblint.mart.sqlplanner.planner;
 import io.dblint.mart.sqlplanner.visitors.LiteralShuffle;
 import org.apache.calcite.avatica.util.Casing;
 import org.apache.calcite.avatica.util.Quoting;
+import org.apache.calcite.runtime.CalciteContextException;
 import org.apache.calcite.sql.SqlDialect;
 import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.parser.SqlAbstractParserImpl;
 import org.apache.calcite.sql.parser.SqlParseException;
 import org.apache.calcite.sql.parser.SqlParser;
 import org.apache.calcite.sql.parser.SqlParserImplFactory;
@@ -14,9 +16,13 @@ import org.apache.calcite.sql.validate.SqlConformanceEnum;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Arrays;
-import java.util.List;
+import java.io.StringReader;
 
+/**
+ * A SQL parser based on Apache Calcite. A Parser can be shared by threads. The configuration
+ * is built once, and every thread reuses its own Calcite parser, which is reset for every
+ * statement instead of being created again.
+ */
 public class Parser {
   private static Logger logger = LoggerFactory.getLogger(Parser.class);
 
@@ -26,6 +32,10 @@ public class Parser {
   protected final Casing unquotedCasing;
   protected final Casing quotedCasing;
   protected final SqlConformance conformance;
+  protected final SqlParser.Config config;
+
+  // A Calcite parser keeps the state of the statement it parses, so it is confined to a thread.
+  private final ThreadLocal<SqlAbstractParserImpl> parsers;
 
   /**
    * Create a SQL Parser based on Apache Calcite.
@@ -42,6 +52,15 @@ public class Parser {
     this.unquotedCasing = unquotedCasing;
     this.quotedCasing = quotedCasing;
     this.conformance = conformance;
+    this.config = SqlParser.configBuilder()
+        .setParserFactory(factory)
+        .setQuoting(quoting)
+        .setUnquotedCasing(unquotedCasing)
+        .setQuotedCasing(quotedCasing)
+        .setConformance(conformance)
+        .setCaseSensitive(false)
+        .build();
+    this.parsers = ThreadLocal.withInitial(() -> factory.getParser(new StringReader("")));
   }
 
   /**
@@ -49,48 +68,77 @@ public class Parser {
    * Uses default values for various parameters for the Calcite Parser.
    */
   public Parser(SqlParserImplFactory factory) {
-    this.factory = factory;
-    this.quoting = Quoting.DOUBLE_QUOTE;
-    this.unquotedCasing = Casing.TO_UPPER;
-    this.quotedCasing = Casing.UNCHANGED;
-    this.conformance = SqlConformanceEnum.LENIENT;
+    this(factory, Quoting.DOUBLE_QUOTE, Casing.TO_UPPER, Casing.UNCHANGED,
+        SqlConformanceEnum.LENIENT);
   }
 
   public Parser() {
     this(SqlBabelParserImpl.FACTORY);
   }
 
-  private SqlParser getParser(String sql) {
-    return SqlParser.create(sql,
-        SqlParser.configBuilder()
-            .setParserFactory(factory)
-            .setQuoting(quoting)
-            .setUnquotedCasing(unquotedCasing)
-            .setQuotedCasing(quotedCasing)
-            .setConformance(conformance)
-            .setCaseSensitive(false)
-            .build());
+  /*
+   * Reset the parser of this thread to a statement. ReInit resets the lexical state, so the
+   * settings are applied again the way SqlParser.create applies them to a new parser.
+   */
+  private SqlAbstractParserImpl getParser(String sql) {
+    SqlAbstractParserImpl parser = parsers.get();
+    parser.ReInit(new StringReader(sql));
+    parser.setOriginalSql(sql);
+    parser.setTabSize(1);
+    parser.setQuotedCasing(config.quotedCasing());
+    parser.setUnquotedCasing(config.unquotedCasing());
+    parser.setIdentifierMaxLength(config.identifierMaxLength());
+    parser.setConformance(config.conformance());
+    switch (config.quoting()) {
+      case DOUBLE_QUOTE:
+        parser.switchTo("DQID");
+        break;
+      case BACK_TICK:
+        parser.switchTo("BTID");
+        break;
+      default:
+        parser.switchTo("DEFAULT");
+        break;
+    }
+    return parser;
   }
 
-
-  private String trim(String sql) {
-    sql = sql.trim();
-    List<Character> chars = Arrays.asList(';');
-    boolean found = true;
-    while (found) {
-      found = false;
-      for (Character character : chars) {
-        if (sql.charAt(sql.length() - 1) == character) {
-          sql = sql.substring(0, sql.length() - 1);
-          found = true;
-        }
-      }
+  /**
+   * Prepare a statement for the parser. Escaped new lines, i.e. a backslash followed by n, are
+   * replaced by new lines, white space is trimmed and trailing semicolons are dropped. The
+   * string is only copied if it changes.
+   * @param sql SQL statement
+   * @return Statement that is passed to the parser
+   */
+  static String normalize(String sql) {
+    String unescaped = sql.indexOf("\\n") < 0 ? sql : unescapeNewLines(sql);
+    int start = 0;
+    int end = unescaped.length();
+    while (start < end && unescaped.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && unescaped.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    while (end > start && unescaped.charAt(end - 1) == ';') {
+      end--;
     }
-    return sql;
+    return unescaped.substring(start, end);
   }
 
-  private String handleNewLine(String sql) {
-    return sql.replaceAll("\\\\n", "\n").replaceAll("\\r", "\r");
+  private static String unescapeNewLines(String sql) {
+    StringBuilder builder = new StringBuilder(sql.length());
+    int length = sql.length();
+    for (int i = 0; i < length; i++) {
+      char current = sql.charAt(i);
+      if (current == '\\' && i + 1 < length && sql.charAt(i + 1) == 'n') {
+        builder.append('\n');
+        i++;
+      } else {
+        builder.append(current);
+      }
+    }
+    return builder.toString();
   }
 
   /**
@@ -100,12 +148,17 @@ public class Parser {
    * @throws SqlParseException A parse exception if parsing fails
    */
   public SqlNode parse(String sql) throws SqlParseException {
-    String processedSql = trim(handleNewLine(sql));
+    String processedSql = normalize(sql);
+    SqlAbstractParserImpl parser = getParser(processedSql);
     try {
-      return getParser(processedSql).parseStmt();
-    } catch (SqlParseException parseExc) {
+      return parser.parseSqlStmtEof();
+    } catch (Throwable exc) {
+      // The same conversion of errors as SqlParser.parseStmt.
+      if (exc instanceof CalciteContextException) {
+        ((CalciteContextException) exc).setOriginalStatement(processedSql);
+      }
       logger.error(processedSql);
-      throw parseExc;
+      throw parser.normalizeException(exc);
     }
   }
 
@@ -0,0 +1,124 @@
+package io.dblint.mart.sqlplanner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.dblint.mart.sqlplanner.enums.AnalyticsEnum;
+import io.dblint.mart.sqlplanner.enums.EnumContext;
+import io.dblint.mart.sqlplanner.enums.QueryType;
+import io.dblint.mart.sqlplanner.planner.DigestCache;
+import io.dblint.mart.sqlplanner.planner.Parser;
+import io.dblint.mart.sqlplanner.redshift.QueryClasses;
+import io.dblint.mart.sqlplanner.redshift.RedshiftClassifier;
+import org.apache.calcite.sql.SqlDialect;
+import org.apache.calcite.sql.parser.SqlParseException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+class BatchRunnerTest {
+  private static List<String> statements(int count) {
+    List<String> statements = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      statements.add(i % 10 == 9 ? "select from" : "select a from b where c = " + i);
+    }
+    return statements;
+  }
+
+  @Test
+  void outcomesInOrder() {
+    AtomicInteger tasks = new AtomicInteger();
+    List<String> statements = statements(1000);
+    try (BatchRunner runner = new BatchRunner(4)) {
+      List<BatchRunner.Outcome<String>> outcomes = runner.runAll(statements, () -> {
+        tasks.incrementAndGet();
+        return sql -> {
+          if (sql.equals("select from")) {
+            throw new SqlParseException("fail", null, null, null, null);
+          }
+          return sql.toUpperCase();
+        };
+      });
+      assertEquals(1000, outcomes.size());
+      for (int i = 0; i < outcomes.size(); i++) {
+        if (i % 10 == 9) {
+          assertFalse(outcomes.get(i).isSuccess());
+          assertTrue(outcomes.get(i).getFailure() instanceof SqlParseException);
+        } else {
+          assertEquals(statements.get(i).toUpperCase(), outcomes.get(i).getResult());
+        }
+      }
+    }
+    assertTrue(tasks.get() <= 4);
+  }
+
+  @Test
+  void tasksReusedByBatches() {
+    AtomicInteger tasks = new AtomicInteger();
+    Supplier<BatchRunner.Task<String>> supplier = () -> {
+      tasks.incrementAndGet();
+      return String::trim;
+    };
+    try (BatchRunner runner = new BatchRunner(2)) {
+      for (int batch = 0; batch < 10; batch++) {
+        assertEquals("select a from b where c = 0",
+            runner.runAll(statements(100), supplier).get(0).getResult());
+      }
+    }
+    assertTrue(tasks.get() <= 2);
+  }
+
+  @Test
+  void emptyBatch() {
+    try (BatchRunner runner = new BatchRunner(2)) {
+      assertTrue(runner.runAll(Collections.emptyList(), () -> sql -> sql).isEmpty());
+    }
+  }
+
+  @Test
+  void digestAll() throws SqlParseException {
+    Parser parser = new Parser();
+    SqlDialect dialect = SqlDialect.DatabaseProduct.MYSQL.getDialect();
+    List<String> statements = statements(100);
+    try (BatchRunner runner = new BatchRunner(4)) {
+      List<BatchRunner.Outcome<DigestCache.Digest>> outcomes =
+          runner.digestAll(new DigestCache(parser), statements, dialect);
+      for (int i = 0; i < statements.size(); i++) {
+        if (i % 10 == 9) {
+          assertFalse(outcomes.get(i).isSuccess());
+        } else {
+          assertEquals(parser.digest(statements.get(i), dialect),
+              outcomes.get(i).getResult().digest);
+        }
+      }
+    }
+  }
+
+  @Test
+  void classifyAll() {
+    try (BatchRunner runner = new BatchRunner()) {
+      List<BatchRunner.Outcome<List<QueryType>>> outcomes = runner.classifyAll(
+          AnalyticsClassifier::new, Arrays.asList("select a from b where c = 10", "select from"),
+          EnumContext.EMPTY_CONTEXT);
+      assertEquals(Collections.singletonList(AnalyticsEnum.LOOKUP), outcomes.get(0).getResult());
+      assertFalse(outcomes.get(1).isSuccess());
+    }
+  }
+
+  @Test
+  void classifyAllRedshift() {
+    try (BatchRunner runner = new BatchRunner(2)) {
+      List<BatchRunner.Outcome<QueryClasses>> outcomes = runner.classifyAll(
+          new RedshiftClassifier(),
+          Arrays.asList("insert into c select * from a join b on a.id = b.id", "Vacuum"));
+      assertTrue(outcomes.get(0).getResult().insertContext.isPassed());
+      assertTrue(outcomes.get(1).getResult().maintenanceContext.isPassed());
+    }
+  }
+}
@@ -3,13 +3,20 @@ package io.dblint.mart.sqlplanner;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertIterableEquals;
 
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import io.dblint.mart.sqlplanner.enums.MySqlEnum;
 import io.dblint.mart.sqlplanner.enums.MySqlEnumContext;
 import io.dblint.mart.sqlplanner.enums.QueryType;
+import io.dblint.mart.sqlplanner.planner.MartColumn;
+import io.dblint.mart.sqlplanner.planner.MartTable;
 import io.dblint.mart.sqlplanner.planner.Tpcds;
+import io.dblint.mart.sqlplanner.visitors.IndexVisitor;
 import org.apache.calcite.schema.SchemaPlus;
 import org.apache.calcite.sql.parser.SqlParseException;
 import org.apache.calcite.tools.Frameworks;
@@ -51,4 +58,64 @@ public class MySqlClassifierTest {
     assertIterableEquals(expected, queryTypes);
     assertEquals(1, context.getIndices().size());
   }
+
+  @Test
+  void literalVariantsArePlannedOnce() throws SqlParseException, QanException {
+    PlanCache planCache = new PlanCache();
+    MySqlClassifier classifier = new MySqlClassifier(tpcdsSchemaPlus, planCache);
+    MySqlEnumContext first = new MySqlEnumContext();
+    classifier.classify("select d_date_id from date_dim where d_year = 2018", first);
+    Set<IndexVisitor.Index> indices = new HashSet<>(first.getIndices());
+    // The cached plan does not change with the indices of a context
+    first.getIndices().clear();
+    MySqlEnumContext second = new MySqlEnumContext();
+    List<QueryType> queryTypes = classifier.classify(
+        "select d_date_id from date_dim where d_year = 2019", second);
+
+    assertIterableEquals(Collections.singletonList(MySqlEnum.BAD_NOINDEX), queryTypes);
+    assertEquals(indices, second.getIndices());
+    second.getIndices().clear();
+    assertEquals(1, planCache.hitCount());
+    assertEquals(1, planCache.size());
+
+    new MySqlClassifier(tpcdsSchemaPlus, planCache).classify(
+        "select d_date_id from date_dim where d_year = 2020", new MySqlEnumContext());
+    assertEquals(2, planCache.hitCount());
+  }
+
+  @Test
+  void literalComparisonsAreNotCached() throws SqlParseException, QanException {
+    PlanCache planCache = new PlanCache();
+    MySqlClassifier classifier = new MySqlClassifier(tpcdsSchemaPlus, planCache);
+    // The planner drops the predicate of the first statement and keeps the one of the second
+    classifier.classify("select d_date_id from date_dim where (0 = 0 or d_year = 5)",
+        new MySqlEnumContext());
+    MySqlEnumContext context = new MySqlEnumContext();
+    List<QueryType> queryTypes = classifier.classify(
+        "select d_date_id from date_dim where (1 = 0 or d_year = 5)", context);
+
+    assertIterableEquals(Collections.singletonList(MySqlEnum.BAD_NOINDEX), queryTypes);
+    assertEquals(1, context.getIndices().size());
+    assertEquals(0, planCache.size());
+  }
+
+  @Test
+  void schemaChangeInvalidatesPlans() throws SqlParseException, QanException {
+    final SchemaPlus rootSchema = Frameworks.createRootSchema(true);
+    Tpcds tpcds = new Tpcds("tpcds");
+    SchemaPlus schemaPlus = rootSchema.add("tpcds", tpcds);
+    tpcds.setSchemaPlus(schemaPlus);
+    tpcds.addTables();
+
+    PlanCache planCache = new PlanCache();
+    MySqlClassifier classifier = new MySqlClassifier(schemaPlus, planCache);
+    String sql = "select d_date_id from date_dim where d_year = 2018";
+    classifier.classify(sql, new MySqlEnumContext());
+    tpcds.addTable(new MartTable(tpcds, "NEW_TABLE",
+        Collections.singletonList(new MartColumn("id", Types.INTEGER))));
+    classifier.classify(sql, new MySqlEnumContext());
+
+    assertEquals(0, planCache.hitCount());
+    assertEquals(2, planCache.missCount());
+  }
 }
@@ -0,0 +1,86 @@
+package io.dblint.mart.sqlplanner.planner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.codahale.metrics.MetricRegistry;
+import org.apache.calcite.sql.SqlDialect;
+import org.apache.calcite.sql.parser.SqlParseException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+class DigestCacheTest {
+  private static final SqlDialect MYSQL = SqlDialect.DatabaseProduct.MYSQL.getDialect();
+
+  @Test
+  void repeatedShapesHit() throws SqlParseException {
+    DigestCache cache = new DigestCache(new Parser());
+    DigestCache.Digest first = cache.digest(
+        "select i_color from item where i_color = 'abc'", MYSQL);
+    DigestCache.Digest second = cache.digest(
+        "select i_color  from item where i_color = 'blue'", MYSQL);
+    assertSame(first, second);
+    assertEquals("SELECT `I_COLOR`\n"
+        + "FROM `ITEM`\n"
+        + "WHERE `I_COLOR` = ?", second.digest);
+    assertEquals(1, cache.hitCount());
+    assertEquals(1, cache.missCount());
+    assertEquals(1, cache.size());
+
+    cache.digest("select i_color from item where i_color = 'abc'",
+        SqlDialect.DatabaseProduct.POSTGRESQL.getDialect());
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  void digestMatchesParser() throws SqlParseException {
+    Parser parser = new Parser();
+    DigestCache cache = new DigestCache(parser);
+    String sql = "select cast(a as decimal(12, 4)) from t where b = 7";
+    cache.digest("select cast(a as decimal(10, 2)) from t where b = 3", MYSQL);
+    assertEquals(parser.digest(sql, MYSQL), cache.digest(sql, MYSQL).digest);
+  }
+
+  @Test
+  void unsureStatementsAreNotCached() throws SqlParseException {
+    DigestCache cache = new DigestCache(new Parser());
+    assertEquals("SELECT `A`\n"
+        + "FROM `T`\n"
+        + "WHERE `B` = ?", cache.digest("select a from t where b = 'x\\'", MYSQL).digest);
+    assertEquals(1, cache.uncachedCount());
+    assertEquals(0, cache.missCount());
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  void errorsAreCachedByShape() {
+    AtomicInteger parses = new AtomicInteger();
+    DigestCache cache = new DigestCache(new Parser() {
+      @Override
+      public String digest(String sql, SqlDialect dialect) throws SqlParseException {
+        parses.incrementAndGet();
+        return super.digest(sql, dialect);
+      }
+    });
+    assertThrows(SqlParseException.class, () -> cache.digest("select from t where a = 1", MYSQL));
+    assertThrows(SqlParseException.class, () -> cache.digest("select from t where a = 2", MYSQL));
+    assertEquals(1, parses.get());
+    assertEquals(1, cache.failureHitCount());
+    assertEquals(1, cache.failureSize());
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  void registerMetrics() throws SqlParseException {
+    MetricRegistry registry = new MetricRegistry();
+    DigestCache cache = new DigestCache(new Parser());
+    cache.registerMetrics(registry, "digestCache");
+    cache.digest("select a from t where b = 1", MYSQL);
+    cache.digest("select a from t where b = 2", MYSQL);
+    assertEquals(1L, registry.getGauges().get("digestCache.hits").getValue());
+    assertEquals(1L, registry.getGauges().get("digestCache.misses").getValue());
+    assertEquals(1L, registry.getGauges().get("digestCache.size").getValue());
+  }
+}
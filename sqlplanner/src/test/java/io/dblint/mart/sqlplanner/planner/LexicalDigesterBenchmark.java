@@ -0,0 +1,94 @@
+package io.dblint.mart.sqlplanner.planner;
+
+import org.apache.calcite.avatica.util.Quoting;
+import org.apache.calcite.sql.SqlDialect;
+import org.apache.calcite.sql.parser.SqlParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures digests per second of statements like the ones in a MySQL slow query log, with
+ * the lexical digester and with Calcite. The target of the lexical digester is more than a
+ * million digests per second on one core.
+ * Run main() with the test classpath of this module.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LexicalDigesterBenchmark {
+  private static final int STATEMENTS = 1000;
+
+  private static final String[] SHAPES = {
+      "SELECT `id`, `name`, `email` FROM `users` WHERE `id` = %d",
+      "SELECT * FROM orders WHERE customer_id = %d AND status = 'open' "
+          + "ORDER BY created_at DESC LIMIT 10",
+      "UPDATE `django_session` SET `session_data` = 'c2Vzc2lvbl8lZA==', "
+          + "`expire_date` = '2019-04-08 15:04:57' WHERE `session_key` = 'key%d'",
+      "INSERT INTO `events` (`user_id`, `kind`, `created_at`) "
+          + "VALUES (%d, 'login', '2019-04-10 10:00:00')",
+      "SELECT o.id, SUM(i.price * i.quantity) FROM orders o JOIN items i ON i.order_id = o.id "
+          + "WHERE o.id IN (%d, 2, 3, 4, 5) GROUP BY o.id"
+  };
+
+  private List<String> statements;
+  private LexicalDigester digester;
+  private Parser parser;
+
+  /**
+   * Create statements of a few shapes with different literals.
+   */
+  @Setup
+  public void setUp() {
+    statements = new ArrayList<>(STATEMENTS);
+    for (int i = 0; i < STATEMENTS; i++) {
+      statements.add(String.format(SHAPES[i % SHAPES.length], i));
+    }
+    digester = new LexicalDigester(Quoting.BACK_TICK, true);
+    parser = new io.dblint.mart.sqlplanner.mysql.Parser();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(STATEMENTS)
+  public void lexical(Blackhole blackhole) {
+    for (String statement : statements) {
+      blackhole.consume(digester.digest(statement));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(STATEMENTS)
+  public void calcite(Blackhole blackhole) throws SqlParseException {
+    for (String statement : statements) {
+      blackhole.consume(parser.digest(statement,
+          SqlDialect.DatabaseProduct.MYSQL.getDialect()));
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(LexicalDigesterBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+  }
+}
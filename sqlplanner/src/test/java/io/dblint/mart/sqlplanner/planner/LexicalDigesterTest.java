@@ -0,0 +1,88 @@
+package io.dblint.mart.sqlplanner.planner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.calcite.avatica.util.Quoting;
+import org.junit.jupiter.api.Test;
+
+class LexicalDigesterTest {
+  private final LexicalDigester redshift = new LexicalDigester(Quoting.DOUBLE_QUOTE);
+  private final LexicalDigester mySql = new LexicalDigester(Quoting.BACK_TICK);
+
+  @Test
+  void replacesLiterals() {
+    assertEquals("select a from t where b = ? and c in (?, ?, -?) and d = ?",
+        redshift.digest("select a  from t\n where b = 'x''y' -- comment\n"
+            + " and c in (1, 2.5, -3e2) and d = /* inline */ .5"));
+    assertEquals("select t1.c2 from \"Tab 1\" where `a  b` = ?",
+        redshift.digest("select t1.c2 from \"Tab 1\" where `a  b` = 10"));
+    assertEquals("select a from t where b = ?",
+        redshift.digest("select a from t\\nwhere b = 'abc'"));
+  }
+
+  @Test
+  void keepsTypes() {
+    assertEquals("select cast(a as decimal(10, 2)) from t where b = ?",
+        redshift.digest("select cast(a as decimal(10, 2)) from t where b = 7"));
+    assertNotEquals(redshift.digest("select cast(a as varchar(10)) from t"),
+        redshift.digest("select cast(a as varchar(20)) from t"));
+    assertEquals("insert into t values (?, ?), (?, ?)",
+        redshift.digest("insert into t values (1, 'a'), (2, 'b')"));
+  }
+
+  @Test
+  void mySqlQuoting() {
+    assertEquals("select `a b` from t where c = ? and d = ?",
+        mySql.digest("select `a b` from t # comment\nwhere c = \"x\" and d = 'y'"));
+    assertEquals("select \"a\" from t # comment",
+        redshift.digest("select \"a\" from t # comment"));
+  }
+
+  @Test
+  void commentsEndAtEscapedNewlines() {
+    assertEquals("select ? from t", redshift.digest("select 1 -- c\\nfrom t"));
+    assertEquals("select ? from u", mySql.digest("select 2 # x\\nfrom u"));
+    assertNotEquals(redshift.digest("select 1 -- c\\nfrom t"),
+        redshift.digest("select 2 -- x\\nfrom u"));
+  }
+
+  @Test
+  void collapsesInLists() {
+    LexicalDigester digester = new LexicalDigester(Quoting.BACK_TICK, true);
+    assertEquals("select a from t where b in (?+) and c IN (?+)",
+        digester.digest("select a from t where b in (1, 2, 3) and c IN ('x', ?)"));
+    assertEquals(digester.digest("delete from t where id in (1)"),
+        digester.digest("delete from t where id in (1, 2, 3, 4, 5)"));
+    assertEquals("select a from t where b in (select c from u where d = ?)",
+        digester.digest("select a from t where b in (select c from u where d = 1)"));
+    assertEquals("select a from t where (b, c) in ((?, ?), (?, ?))",
+        digester.digest("select a from t where (b, c) in ((1, 2), (3, 4))"));
+  }
+
+  @Test
+  void literalComparisons() {
+    assertTrue(LexicalDigester.comparesLiterals(
+        mySql.digest("select a from t where (0 = 0 or b = 5)")));
+    assertTrue(LexicalDigester.comparesLiterals(mySql.digest("select a from t where 1<>-2")));
+    assertTrue(LexicalDigester.comparesLiterals(mySql.digest("select a from t where 'x' is null")));
+    assertTrue(LexicalDigester.comparesLiterals(
+        mySql.digest("select a from t where 1 not in (1, 2)")));
+    assertTrue(LexicalDigester.comparesLiterals(
+        mySql.digest("select a from t where 3 between 1 and b")));
+    assertFalse(LexicalDigester.comparesLiterals(
+        mySql.digest("select a from t where b = 1 and c in (1, 2) and d is null")));
+    assertFalse(LexicalDigester.comparesLiterals(mySql.digest("select ? from t limit 10")));
+  }
+
+  @Test
+  void unsureStatements() {
+    assertNull(mySql.digest("select a from t where b = 'it\\'s'"));
+    assertNull(redshift.digest("select a from t where b = 'abc"));
+    assertNull(redshift.digest("select a from t /* comment"));
+    assertNull(mySql.digest("select `a from t"));
+  }
+}
@@ -0,0 +1,122 @@
+package io.dblint.mart.sqlplanner.planner;
+
+import org.apache.calcite.avatica.util.Casing;
+import org.apache.calcite.avatica.util.Quoting;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.parser.SqlParseException;
+import org.apache.calcite.sql.parser.SqlParser;
+import org.apache.calcite.sql.parser.babel.SqlBabelParserImpl;
+import org.apache.calcite.sql.validate.SqlConformanceEnum;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a Parser that reuses its Calcite parser with a new SqlParser for every statement,
+ * the way Parser worked before. The statements are the TPC-DS queries in
+ * src/test/resources/tpcds.sql. main() runs with the GC profiler, so gc.alloc.rate.norm shows
+ * the bytes allocated for every query.
+ * Run main() with the test classpath of this module.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ParserBenchmark {
+  // Number of queries in tpcds.sql
+  private static final int QUERIES = 99;
+  private static final String MARKER = "-- ParserTest:";
+
+  private List<String> queries;
+  private Parser parser;
+
+  /**
+   * Read the TPC-DS queries. Every query follows a ParserTest marker.
+   */
+  @Setup
+  public void setUp() throws IOException {
+    queries = new ArrayList<>();
+    StringBuilder builder = null;
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        getClass().getResourceAsStream("/tpcds.sql")))) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        if (line.startsWith(MARKER)) {
+          if (builder != null) {
+            queries.add(builder.toString());
+          }
+          builder = new StringBuilder();
+        } else if (builder != null) {
+          builder.append(line).append('\n');
+        }
+      }
+    }
+    if (builder != null) {
+      queries.add(builder.toString());
+    }
+    parser = new Parser();
+  }
+
+  /*
+   * Parse a statement the way Parser did before it reused its Calcite parser.
+   */
+  private static SqlNode parseWithNewParser(String sql) throws SqlParseException {
+    String processed = sql.replaceAll("\\\\n", "\n").trim();
+    while (processed.endsWith(";")) {
+      processed = processed.substring(0, processed.length() - 1);
+    }
+    SqlParser.Config config = SqlParser.configBuilder()
+        .setParserFactory(SqlBabelParserImpl.FACTORY)
+        .setQuoting(Quoting.DOUBLE_QUOTE)
+        .setUnquotedCasing(Casing.TO_UPPER)
+        .setQuotedCasing(Casing.UNCHANGED)
+        .setConformance(SqlConformanceEnum.LENIENT)
+        .setCaseSensitive(false)
+        .build();
+    return SqlParser.create(processed, config).parseStmt();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(QUERIES)
+  public void newParser(Blackhole blackhole) throws SqlParseException {
+    for (String query : queries) {
+      blackhole.consume(parseWithNewParser(query));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(QUERIES)
+  public void reusedParser(Blackhole blackhole) throws SqlParseException {
+    for (String query : queries) {
+      blackhole.consume(parser.parse(query));
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(ParserBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+  }
+}
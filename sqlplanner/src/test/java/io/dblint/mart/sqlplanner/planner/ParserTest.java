@@ -16,6 +16,12 @@ import org.junit.jupiter.params.provider.ArgumentsSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 class ParserTest {
   private static Logger logger = LoggerFactory.getLogger(ParserTest.class);
 
@@ -65,4 +71,43 @@ class ParserTest {
         + "FROM `ITEM`\n"
         + "WHERE `I_COLOR` = 'abc'", digest);
   }
-}
\ No newline at end of file
+
+  @Test
+  void normalizeTest() {
+    assertEquals("select 1", Parser.normalize("  select 1;;\n"));
+    assertEquals("select\n1", Parser.normalize("select\\n1"));
+    assertEquals("select 1\\", Parser.normalize("select 1\\"));
+    assertEquals("", Parser.normalize(" ; "));
+  }
+
+  @Test
+  void reuseAfterError() throws SqlParseException {
+    Parser parser = new Parser();
+    Assertions.assertThrows(SqlParseException.class, () -> parser.parse("select from"));
+    String digest = parser.digest("select i_color from item where i_color = 'abc';",
+        SqlDialect.DatabaseProduct.MYSQL.getDialect());
+    assertEquals("SELECT `I_COLOR`\n"
+        + "FROM `ITEM`\n"
+        + "WHERE `I_COLOR` = ?", digest);
+  }
+
+  @Test
+  void parseFromManyThreads() throws Exception {
+    Parser parser = new Parser();
+    String sql = "select i_color from item where i_item_id = 'abc' and i_color = 'blue'";
+    String expected = parser.pretty(sql, SqlDialect.DatabaseProduct.MYSQL.getDialect());
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        results.add(executor.submit(
+            () -> parser.pretty(sql, SqlDialect.DatabaseProduct.MYSQL.getDialect())));
+      }
+      for (Future<String> result : results) {
+        assertEquals(expected, result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}